@@ -0,0 +1,107 @@
+package com.g2wang.csv.benchmark;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates the same synthetic CSV for the same arguments on every run, so
+ * results of different runs and different engines can be compared.
+ */
+public final class DataGenerator {
+
+    public enum Shape {
+        /**
+         * 4 short fields per row
+         */
+        NARROW(4, 8),
+        /**
+         * 64 fields of up to 32 chars per row
+         */
+        WIDE(64, 32);
+
+        final int fields;
+        final int maxLength;
+
+        Shape(int fields, int maxLength) {
+            this.fields = fields;
+            this.maxLength = maxLength;
+        }
+    }
+
+    public enum Content {
+        /**
+         * no field needs quotes
+         */
+        UNQUOTED,
+        /**
+         * every other field is quoted and holds delimiters and escaped quotes
+         */
+        QUOTED,
+        /**
+         * like QUOTED, and quoted fields also hold line breaks
+         */
+        MULTILINE
+    }
+
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 _-.";
+    private static final long SEED = 0x5eedL;
+
+    private DataGenerator() {
+    }
+
+    /**
+     * @param bytes - the approximate size of the result
+     * @return rows of the given shape and content, each ended with LF
+     */
+    public static String csv(Shape shape, Content content, int bytes) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        StringBuilder sb = new StringBuilder(bytes + 1024);
+        while (sb.length() < bytes) {
+            String[] row = row(random, shape, content);
+            for (int i = 0; i < row.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                String field = row[i];
+                if (field.indexOf(',') >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0) {
+                    sb.append('"').append(field.replace("\"", "\"\"")).append('"');
+                } else {
+                    sb.append(field);
+                }
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return rows of the given shape and content as unescaped fields
+     */
+    public static String[][] rows(Shape shape, Content content, int count) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        String[][] rows = new String[count][];
+        for (int i = 0; i < count; i++) {
+            rows[i] = row(random, shape, content);
+        }
+        return rows;
+    }
+
+    private static String[] row(SplittableRandom random, Shape shape, Content content) {
+        String[] row = new String[shape.fields];
+        for (int i = 0; i < row.length; i++) {
+            int length = 1 + random.nextInt(shape.maxLength);
+            StringBuilder field = new StringBuilder(length + 4);
+            for (int j = 0; j < length; j++) {
+                field.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+            }
+            if (content != Content.UNQUOTED && (i & 1) == 1) {
+                field.insert(random.nextInt(field.length() + 1), ',');
+                field.insert(random.nextInt(field.length() + 1), '"');
+                if (content == Content.MULTILINE) {
+                    field.insert(random.nextInt(field.length() + 1), '\n');
+                }
+            }
+            row[i] = field.toString();
+        }
+        return row;
+    }
+}
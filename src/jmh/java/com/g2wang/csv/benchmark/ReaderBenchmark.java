@@ -0,0 +1,119 @@
+package com.g2wang.csv.benchmark;
+
+import com.g2wang.csv.CSVReader;
+import com.g2wang.csv.RowBuffer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Reads the whole of a generated CSV with each engine. One operation is one
+ * pass over the data; the bytes counter turns that into bytes per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ReaderBenchmark {
+
+    @Param({"NARROW", "WIDE"})
+    public DataGenerator.Shape shape;
+
+    @Param({"UNQUOTED", "QUOTED", "MULTILINE"})
+    public DataGenerator.Content content;
+
+    @Param({"4194304"})
+    public int size;
+
+    private String csv;
+    private long length;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        csv = DataGenerator.csv(shape, content, size);
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        length = bytes.length;
+        file = Files.createTempFile("reader-benchmark", ".csv");
+        Files.write(file, bytes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void fromString(Bytes counter, Blackhole bh) throws Exception {
+        try (CSVReader reader = CSVReader.fromString(csv)) {
+            readLists(reader, bh);
+        }
+        counter.bytes += length;
+    }
+
+    @Benchmark
+    public void fromFile(Bytes counter, Blackhole bh) throws Exception {
+        try (CSVReader reader = CSVReader.fromFile(file.toFile(), StandardCharsets.UTF_8)) {
+            readLists(reader, bh);
+        }
+        counter.bytes += length;
+    }
+
+    @Benchmark
+    public void fromPath(Bytes counter, Blackhole bh) throws Exception {
+        try (CSVReader reader = CSVReader.fromPath(file)) {
+            readLists(reader, bh);
+        }
+        counter.bytes += length;
+    }
+
+    @Benchmark
+    public void fromStringRowBuffer(Bytes counter, Blackhole bh) throws Exception {
+        try (CSVReader reader = CSVReader.fromString(csv)) {
+            readBuffers(reader, bh);
+        }
+        counter.bytes += length;
+    }
+
+    @Benchmark
+    public void fromPathRowBuffer(Bytes counter, Blackhole bh) throws Exception {
+        try (CSVReader reader = CSVReader.fromPath(file)) {
+            readBuffers(reader, bh);
+        }
+        counter.bytes += length;
+    }
+
+    private static void readLists(CSVReader reader, Blackhole bh) throws Exception {
+        List<String> row;
+        while ((row = reader.nextRow()) != null) {
+            bh.consume(row);
+        }
+    }
+
+    private static void readBuffers(CSVReader reader, Blackhole bh) throws Exception {
+        RowBuffer row = new RowBuffer();
+        while (reader.nextRow(row)) {
+            for (int i = 0; i < row.size(); i++) {
+                bh.consume(row.length(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.g2wang.csv.benchmark;
+
+import com.g2wang.csv.CSVWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes generated rows to a stream which discards them, so only
+ * formatting and encoding are measured. One operation writes all the rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class WriterBenchmark {
+
+    @Param({"NARROW", "WIDE"})
+    public DataGenerator.Shape shape;
+
+    /**
+     * UNQUOTED writes no field that needs quoting
+     */
+    @Param({"UNQUOTED", "QUOTED"})
+    public DataGenerator.Content content;
+
+    @Param({"10000"})
+    public int rows;
+
+    private String[][] data;
+    private long length;
+
+    @Setup
+    public void setup() {
+        data = DataGenerator.rows(shape, content, rows);
+        CountingStream counting = new CountingStream();
+        write(counting);
+        length = counting.count;
+    }
+
+    @Benchmark
+    public void write(Bytes counter) {
+        write(OutputStream.nullOutputStream());
+        counter.bytes += length;
+    }
+
+    private void write(OutputStream out) {
+        try (CSVWriter writer = CSVWriter.toOutputStream(out, StandardCharsets.UTF_8)) {
+            for (String[] row : data) {
+                writer.write(row);
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CountingStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.g2wang.csv;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A fixed set of byte buffers passed between two threads: the producer takes
+ * a free buffer, fills it and passes it on, and the consumer empties it and
+ * gives it back. Once all buffers are filled the producer waits, so the
+ * memory in flight is bounded by the size and the number of buffers.
+ */
+final class BufferRing {
+
+    static final class Chunk {
+
+        final byte[] bytes;
+        int length = 0;
+
+        Chunk(int size) {
+            bytes = new byte[size];
+        }
+    }
+
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> filled;
+
+    /**
+     * @param bufferSize - the size of every buffer
+     * @param depth - the number of buffers, at least 2
+     */
+    BufferRing(int bufferSize, int depth) {
+        if (bufferSize < 1 || depth < 2) {
+            throw new IllegalArgumentException("a ring needs at least 2 buffers of at least 1 byte");
+        }
+        free = new ArrayBlockingQueue<>(depth);
+        // room for the buffers and the markers of the producer
+        filled = new ArrayBlockingQueue<>(depth + 2);
+        for (int i = 0; i < depth; i++) {
+            free.add(new Chunk(bufferSize));
+        }
+    }
+
+    /**
+     * @return an empty buffer, waiting until the consumer gives one back
+     */
+    Chunk takeFree() throws InterruptedIOException {
+        try {
+            Chunk chunk = free.take();
+            chunk.length = 0;
+            return chunk;
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    /**
+     * pass a filled buffer, or a marker, to the consumer
+     */
+    void putFilled(Chunk chunk) throws InterruptedIOException {
+        try {
+            filled.put(chunk);
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    /**
+     * pass the end marker to the consumer, even when the producer has been
+     * interrupted; the queue always has room for it
+     */
+    void end(Chunk marker) {
+        filled.offer(marker);
+    }
+
+    /**
+     * @return the next filled buffer or marker, waiting for the producer
+     */
+    Chunk takeFilled() throws InterruptedIOException {
+        try {
+            return filled.take();
+        } catch (InterruptedException e) {
+            throw interrupted();
+        }
+    }
+
+    /**
+     * give an emptied buffer back to the producer
+     */
+    void release(Chunk chunk) {
+        free.offer(chunk);
+    }
+
+    private static InterruptedIOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException("interrupted");
+    }
+}
@@ -0,0 +1,65 @@
+package com.g2wang.csv;
+
+/**
+ * A record which is not legal CSV, skipped by a CSVReader whose error policy
+ * is SKIP or COLLECT. The reader goes on with the first row after the next
+ * newline which is not inside quotes, counting quotes from the start of the
+ * bad record.
+ */
+public final class CSVBadRecord {
+
+    /**
+     * the largest number of chars of the text of a record which are kept
+     */
+    public static final int MAX_TEXT = 4096;
+
+    private final long offset;
+    private final long line;
+    private final String text;
+    private final IllegalCSVFormatException exception;
+
+    CSVBadRecord(long offset, long line, String text, IllegalCSVFormatException exception) {
+        this.offset = offset;
+        this.line = line;
+        this.text = text;
+        this.exception = exception;
+    }
+
+    /**
+     * @return the offset of the start of the record: a byte offset in a file
+     * read with fromPath, a char offset otherwise
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the line the record starts on, counted from 1
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return the text of the record without its line separator, cut after
+     * MAX_TEXT chars. A reader of a file from fromPath returns the raw text;
+     * a reader of a stream has already unescaped the fields before the
+     * offending char, so they are returned without their quotes.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the exception with the line and the column of the offending
+     * char
+     */
+    public IllegalCSVFormatException getException() {
+        return exception;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + line + ": " + exception.getMessage();
+    }
+}
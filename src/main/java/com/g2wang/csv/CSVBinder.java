@@ -0,0 +1,330 @@
+package com.g2wang.csv;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.RecordComponent;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+/**
+ * The plan to read and write a record class as CSV rows, built once per class
+ * from its record components and shared by every reader and writer. A row is
+ * read by a single method handle tree which parses every field straight from
+ * the chars of the row into the type of its component and calls the
+ * canonical constructor; no String is created for a field which is not a
+ * String. A record is written by a handle per component which formats its
+ * value into a reused StringBuilder.
+ *
+ * Components may be primitives or their wrappers, String, LocalDate (as
+ * yyyy-MM-dd), BigDecimal or enums. An empty field is 0 or false for a
+ * primitive, an empty String for a String and null for any other type.
+ *
+ * @param <T> - the record class
+ */
+public final class CSVBinder<T> {
+
+    private static final ClassValue<CSVBinder<?>> BINDERS = new ClassValue<>() {
+        @Override
+        protected CSVBinder<?> computeValue(Class<?> type) {
+            return new CSVBinder<>(type);
+        }
+    };
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Class<T> type;
+    private final CSVHeader header;
+    private final Class<?>[] types;
+
+    /**
+     * the canonical constructor, (component types...)T
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * the accessor of every component, (T)component type
+     */
+    private final MethodHandle[] accessors;
+
+    private CSVBinder(Class<T> type) {
+        if (!type.isRecord()) {
+            throw new IllegalArgumentException(type.getName() + " is not a record");
+        }
+        RecordComponent[] components = type.getRecordComponents();
+        String[] names = new String[components.length];
+        types = new Class<?>[components.length];
+        accessors = new MethodHandle[components.length];
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, LOOKUP);
+            for (int i = 0; i < components.length; i++) {
+                names[i] = components[i].getName();
+                types[i] = components[i].getType();
+                parser(types[i]);
+                accessors[i] = lookup.unreflect(components[i].getAccessor());
+            }
+            constructor = lookup.findConstructor(type, MethodType.methodType(void.class, types));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("cannot access the record " + type.getName(), e);
+        }
+        this.type = type;
+        this.header = CSVHeader.of(names);
+    }
+
+    /**
+     * static method to get the binder of a record class
+     *
+     * @throws IllegalArgumentException if the class is not a record, cannot
+     * be accessed, or has a component of a type which is not supported
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> CSVBinder<T> of(Class<T> type) {
+        return (CSVBinder<T>) BINDERS.get(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return the names of the record components in order
+     */
+    public CSVHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @param columns - the field of every component in a row, or -1 for a
+     * component without a field
+     * @return a handle (RowBuffer)Object which makes a record of the fields
+     * of a row
+     */
+    MethodHandle reader(int[] columns) {
+        MethodHandle[] filters = new MethodHandle[types.length];
+        for (int i = 0; i < types.length; i++) {
+            filters[i] = MethodHandles.insertArguments(parser(types[i]), 1, columns[i]);
+        }
+        MethodHandle h = MethodHandles.filterArguments(constructor, 0, filters);
+        h = MethodHandles.permuteArguments(h, MethodType.methodType(type, RowBuffer.class), new int[types.length]);
+        return h.asType(MethodType.methodType(Object.class, RowBuffer.class));
+    }
+
+    /**
+     * @param components - the component of every column written, or -1 for a
+     * column written empty
+     * @return a handle (Object)CharSequence for every column, which formats
+     * the component of a record into a StringBuilder of its own
+     */
+    MethodHandle[] formatters(int[] components) {
+        MethodHandle[] formatters = new MethodHandle[components.length];
+        MethodType formatterType = MethodType.methodType(CharSequence.class, Object.class);
+        for (int j = 0; j < components.length; j++) {
+            int i = components[j];
+            if (i < 0) {
+                formatters[j] = MethodHandles.dropArguments(MethodHandles.constant(CharSequence.class, ""), 0, Object.class);
+                continue;
+            }
+            MethodHandle f = MethodHandles.insertArguments(formatter(types[i]), 0, new StringBuilder());
+            f = MethodHandles.filterArguments(f.asType(MethodType.methodType(CharSequence.class, types[i])), 0, accessors[i]);
+            formatters[j] = f.asType(formatterType);
+        }
+        return formatters;
+    }
+
+    /**
+     * @return a handle (RowBuffer, int)type which parses a field
+     */
+    private static MethodHandle parser(Class<?> type) {
+        try {
+            if (type.isEnum()) {
+                MethodHandle h = LOOKUP.findStatic(CSVBinder.class, "parseEnum",
+                        MethodType.methodType(Enum.class, RowBuffer.class, int.class, Enum[].class));
+                h = MethodHandles.insertArguments(h, 2, (Object) type.getEnumConstants());
+                return h.asType(MethodType.methodType(type, RowBuffer.class, int.class));
+            }
+            // a wrapper is parsed as its primitive
+            Class<?> primitive = MethodType.methodType(type).unwrap().returnType();
+            String name;
+            if (primitive.isPrimitive()) {
+                name = primitive.getName();
+            } else if (type == String.class || type == LocalDate.class || type == BigDecimal.class) {
+                name = type.getSimpleName();
+            } else {
+                throw new IllegalArgumentException("a record component of type " + type.getName()
+                        + " cannot be read from CSV");
+            }
+            MethodHandle h = LOOKUP.findStatic(CSVBinder.class,
+                    "parse" + Character.toUpperCase(name.charAt(0)) + name.substring(1),
+                    MethodType.methodType(primitive, RowBuffer.class, int.class));
+            if (primitive == type) {
+                return h;
+            }
+            // a wrapper is null when the field is empty
+            MethodHandle test = LOOKUP.findStatic(CSVBinder.class, "isEmpty",
+                    MethodType.methodType(boolean.class, RowBuffer.class, int.class));
+            MethodHandle empty = MethodHandles.dropArguments(MethodHandles.constant(type, null), 0,
+                    RowBuffer.class, int.class);
+            return MethodHandles.guardWithTest(test, empty, h.asType(MethodType.methodType(type, RowBuffer.class, int.class)));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("a record component of type " + type.getName()
+                    + " cannot be read from CSV", e);
+        }
+    }
+
+    /**
+     * @return a handle (StringBuilder, type)CharSequence which formats a value
+     */
+    private static MethodHandle formatter(Class<?> type) {
+        try {
+            if (type.isPrimitive()) {
+                Class<?> widened = type == byte.class || type == short.class ? int.class : type;
+                MethodHandle h = LOOKUP.findStatic(CSVBinder.class, "format",
+                        MethodType.methodType(CharSequence.class, StringBuilder.class, widened));
+                return h.asType(MethodType.methodType(CharSequence.class, StringBuilder.class, type));
+            }
+            if (type.isEnum()) {
+                return LOOKUP.findStatic(CSVBinder.class, "format",
+                        MethodType.methodType(CharSequence.class, StringBuilder.class, Enum.class));
+            }
+            return LOOKUP.findStatic(CSVBinder.class, "format",
+                    MethodType.methodType(CharSequence.class, StringBuilder.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isEmpty(RowBuffer row, int column) {
+        if (column < 0 || column >= row.size) {
+            return true;
+        }
+        row.decode(column);
+        return row.starts[column] == row.ends[column];
+    }
+
+    private static int parseInt(RowBuffer row, int column) {
+        return isEmpty(row, column) ? 0 : FieldParsers.parseInt(row.chars, row.starts[column], row.ends[column]);
+    }
+
+    private static long parseLong(RowBuffer row, int column) {
+        return isEmpty(row, column) ? 0 : FieldParsers.parseLong(row.chars, row.starts[column], row.ends[column]);
+    }
+
+    private static short parseShort(RowBuffer row, int column) {
+        int value = parseInt(row, column);
+        if (value != (short) value) {
+            throw new NumberFormatException("Value out of range. Value:\"" + value + "\"");
+        }
+        return (short) value;
+    }
+
+    private static byte parseByte(RowBuffer row, int column) {
+        int value = parseInt(row, column);
+        if (value != (byte) value) {
+            throw new NumberFormatException("Value out of range. Value:\"" + value + "\"");
+        }
+        return (byte) value;
+    }
+
+    private static double parseDouble(RowBuffer row, int column) {
+        return isEmpty(row, column) ? 0 : FieldParsers.parseDouble(row.chars, row.starts[column], row.ends[column]);
+    }
+
+    private static float parseFloat(RowBuffer row, int column) {
+        return isEmpty(row, column) ? 0 : FieldParsers.parseFloat(row.chars, row.starts[column], row.ends[column]);
+    }
+
+    private static boolean parseBoolean(RowBuffer row, int column) {
+        return !isEmpty(row, column) && FieldParsers.parseBoolean(row.chars, row.starts[column], row.ends[column]);
+    }
+
+    private static char parseChar(RowBuffer row, int column) {
+        if (isEmpty(row, column)) {
+            return 0;
+        }
+        if (row.ends[column] - row.starts[column] != 1) {
+            throw new NumberFormatException("For input string: \"" + row.getString(column) + "\"");
+        }
+        return row.chars[row.starts[column]];
+    }
+
+    private static String parseString(RowBuffer row, int column) {
+        return isEmpty(row, column) ? "" : row.getString(column);
+    }
+
+    private static LocalDate parseLocalDate(RowBuffer row, int column) {
+        return isEmpty(row, column) ? null
+                : LocalDate.ofEpochDay(FieldParsers.parseDate(row.chars, row.starts[column], row.ends[column]));
+    }
+
+    private static BigDecimal parseBigDecimal(RowBuffer row, int column) {
+        if (isEmpty(row, column)) {
+            return null;
+        }
+        int start = row.starts[column];
+        return new BigDecimal(row.chars, start, row.ends[column] - start);
+    }
+
+    private static Enum<?> parseEnum(RowBuffer row, int column, Enum<?>[] constants) {
+        if (isEmpty(row, column)) {
+            return null;
+        }
+        char[] chars = row.chars;
+        int start = row.starts[column];
+        int length = row.ends[column] - start;
+        for (Enum<?> e : constants) {
+            if (equals(e.name(), chars, start, length)) {
+                return e;
+            }
+        }
+        throw new IllegalArgumentException("no enum constant " + row.getString(column));
+    }
+
+    private static boolean equals(String s, char[] chars, int start, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CharSequence format(StringBuilder sb, int value) {
+        sb.setLength(0);
+        return sb.append(value);
+    }
+
+    private static CharSequence format(StringBuilder sb, long value) {
+        sb.setLength(0);
+        return sb.append(value);
+    }
+
+    private static CharSequence format(StringBuilder sb, double value) {
+        sb.setLength(0);
+        return sb.append(value);
+    }
+
+    private static CharSequence format(StringBuilder sb, float value) {
+        sb.setLength(0);
+        return sb.append(value);
+    }
+
+    private static CharSequence format(StringBuilder sb, boolean value) {
+        return value ? "true" : "false";
+    }
+
+    private static CharSequence format(StringBuilder sb, char value) {
+        sb.setLength(0);
+        return sb.append(value);
+    }
+
+    private static CharSequence format(StringBuilder sb, Enum<?> value) {
+        return value == null ? "" : value.name();
+    }
+
+    private static CharSequence format(StringBuilder sb, Object value) {
+        return value == null ? "" : value instanceof CharSequence ? (CharSequence) value : value.toString();
+    }
+}
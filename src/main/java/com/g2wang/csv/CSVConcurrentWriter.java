@@ -0,0 +1,436 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * A writer which many threads may write rows to at the same time. Every
+ * thread formats, quotes and encodes its rows into buffers of its own; the
+ * bytes are then copied into the blocks of a bounded pool, which a single
+ * sink thread writes to the output one block at a time. When the output is
+ * slower than the producers, the pool runs out of free blocks and the
+ * producers wait, so the memory used stays flat.
+ * <p>
+ * With Order.ANY, a thread hands its buffer over only when it holds
+ * about LOCAL_SIZE chars, so the rows of a thread stay together and the rows
+ * of different threads come out in any order. With Order.SUBMISSION, the
+ * rows come out in the order their write calls began: every row is still
+ * formatted in parallel, but is copied to the pool only after the row
+ * before it.
+ * <p>
+ * A row whose fields fail is not written at all. Errors of the output are
+ * thrown by a later write, flush or close. A thread interrupted while it
+ * waits for its turn with Order.SUBMISSION still writes its row, and returns
+ * with its interrupt status set.
+ */
+public final class CSVConcurrentWriter implements AutoCloseable {
+
+    public enum Order {
+        /**
+         * rows are written in the order their write calls began
+         */
+        SUBMISSION,
+        /**
+         * rows are written in any order, each thread's rows in large batches
+         */
+        ANY
+    }
+
+    /**
+     * the chars a thread formats before handing them over with Order.ANY
+     */
+    static final int LOCAL_SIZE = 32 * 1024;
+
+    private final PipelinedOutputStream out;
+    private final Charset charset;
+    private final Order order;
+    private volatile CSVFormat format = CSVFormat.DEFAULT;
+    private volatile CSVHeader header = null;
+    private volatile boolean closed = false;
+
+    /**
+     * the buffers of every thread which has written, dropped by close so
+     * that a thread of a pool does not keep a closed writer reachable
+     */
+    private final Map<Thread, Local> locals = new ConcurrentHashMap<>();
+
+    /**
+     * guards out and, with Order.SUBMISSION, next
+     */
+    private final Object lock = new Object();
+    private final AtomicLong sequence = new AtomicLong();
+    private long next = 0;
+
+    private CSVConcurrentWriter(OutputStream sink, Charset charset, Order order, int bufferSize, int depth)
+            throws IOException {
+        this.out = new PipelinedOutputStream(sink, bufferSize, depth, "csv-concurrent-writer");
+        this.charset = charset;
+        this.order = order;
+    }
+
+    /**
+     * static method to create an instance to write to an OutputStream
+     *
+     * @param outputStream - the output, closed by close()
+     * @param charset - the charset of the output
+     * @param order - the order of the rows written by different threads
+     */
+    public static CSVConcurrentWriter toOutputStream(OutputStream outputStream, Charset charset, Order order)
+            throws IOException {
+        return toOutputStream(outputStream, charset, order, Compression.BUFFER_SIZE, Compression.DEPTH);
+    }
+
+    /**
+     * static method to create an instance to write to an OutputStream
+     *
+     * @param outputStream - the output, closed by close()
+     * @param charset - the charset of the output
+     * @param order - the order of the rows written by different threads
+     * @param bufferSize - the size of a block of the pool, the size of a write to the output
+     * @param depth - the number of blocks in the pool
+     */
+    public static CSVConcurrentWriter toOutputStream(OutputStream outputStream, Charset charset, Order order,
+            int bufferSize, int depth) throws IOException {
+        if (bufferSize <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("bufferSize and depth must be positive");
+        }
+        return new CSVConcurrentWriter(outputStream, charset, order, bufferSize, depth);
+    }
+
+    /**
+     * static method to create an instance to write to a csv file with specified Charset
+     */
+    public static CSVConcurrentWriter toPath(Path csvFile, Charset charset, Order order) throws IOException {
+        return toOutputStream(Files.newOutputStream(csvFile), charset, order);
+    }
+
+    /**
+     * set the format of this writer, before the first row
+     *
+     * @param format - the format
+     * @return this writer
+     */
+    public CSVConcurrentWriter withFormat(CSVFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    public void write(String[] fields) throws IOException {
+        write((CharSequence[]) fields);
+    }
+
+    public void write(CharSequence[] fields) throws IOException {
+        submit(w -> w.write(fields));
+    }
+
+    /**
+     * @see CSVWriter#write(int, IntFunction)
+     */
+    public void write(int count, IntFunction<? extends CharSequence> fields) throws IOException {
+        submit(w -> w.write(count, fields));
+    }
+
+    public void write(Iterable<String> fields) throws IOException {
+        submit(w -> w.write(fields));
+    }
+
+    /**
+     * @see CSVWriter#write(CSVRecord)
+     */
+    public void write(CSVRecord record) throws IOException {
+        submit(w -> w.write(record));
+    }
+
+    /**
+     * @see CSVWriter#writeObject(Object)
+     */
+    public void writeObject(Object record) throws IOException {
+        submit(w -> w.writeObject(record));
+    }
+
+    /**
+     * write the names of header as a row, and the columns of
+     * write(CSVRecord) and writeObject of every thread after it in the
+     * column order of the header. Call it before the first row.
+     *
+     * @param header - the header
+     */
+    public void writeHeader(CSVHeader header) throws IOException {
+        submit(w -> w.writeHeader(header));
+        if (order == Order.ANY) {
+            Local l = local();
+            synchronized (l) {
+                l.handOver();
+            }
+        }
+        this.header = header;
+    }
+
+    /**
+     * @see #writeHeader(CSVHeader)
+     */
+    public void writeHeader(Class<?> type) throws IOException {
+        writeHeader(CSVBinder.of(type).getHeader());
+    }
+
+    /**
+     * hand over the rows of every thread whose write has returned, and wait
+     * until the output has written and flushed them
+     */
+    public void flush() throws IOException {
+        ensureOpen();
+        handOverAll();
+        synchronized (lock) {
+            out.flush();
+        }
+    }
+
+    /**
+     * write the rows of every thread and close the output. Call it after the
+     * producers are done.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            handOverAll();
+        } finally {
+            closed = true;
+            locals.clear();
+            synchronized (lock) {
+                out.close();
+            }
+        }
+    }
+
+    private interface Row {
+        void writeTo(CSVWriter writer) throws IOException;
+    }
+
+    private void submit(Row row) throws IOException {
+        ensureOpen();
+        Local l = local();
+        if (order == Order.ANY) {
+            synchronized (l) {
+                l.write(row);
+                if (l.formatter.buffered() + l.chars.count >= LOCAL_SIZE) {
+                    l.handOver();
+                }
+            }
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        boolean formatted = false;
+        try {
+            l.write(row);
+            l.encode();
+            formatted = true;
+        } finally {
+            inTurn(seq, formatted ? l.bytes : null);
+        }
+    }
+
+    /**
+     * wait for the rows before seq, then write bytes, or nothing if the row
+     * failed, and let the row after seq go. An interrupt does not stop the
+     * wait, as the rows after seq wait for it; it is kept for the caller.
+     */
+    private void inTurn(long seq, Bytes bytes) throws IOException {
+        boolean interrupted = false;
+        synchronized (lock) {
+            try {
+                while (next != seq) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        // the rows after this one wait for it
+                        interrupted = true;
+                    }
+                }
+                if (bytes != null) {
+                    out.write(bytes.buf, 0, bytes.count);
+                }
+            } finally {
+                next++;
+                lock.notifyAll();
+                if (bytes != null) {
+                    bytes.reset();
+                }
+            }
+        }
+        if (interrupted) {
+            // the row is written, so the write succeeds and only the interrupt is kept
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handOverAll() throws IOException {
+        if (order == Order.ANY) {
+            for (Local l : locals.values()) {
+                synchronized (l) {
+                    l.handOver();
+                }
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    /**
+     * @return the buffers of the current thread
+     */
+    private Local local() {
+        Thread thread = Thread.currentThread();
+        Local l = locals.get(thread);
+        if (l == null) {
+            // only this thread puts its own key
+            l = new Local();
+            locals.put(thread, l);
+        }
+        return l;
+    }
+
+    /**
+     * the formatter of a thread, which formats into chars, and the bytes
+     * they are encoded into when they are handed over
+     */
+    private final class Local {
+        final Chars chars = new Chars();
+        final CSVWriter formatter = CSVWriter.toWriter(chars).withFormat(format);
+        final CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final Bytes bytes = new Bytes();
+        CSVHeader header = null;
+
+        /**
+         * format a row, leaving nothing of it behind if it fails
+         */
+        void write(Row row) throws IOException {
+            useHeader();
+            int flushed = chars.count;
+            int start = flushed + formatter.buffered();
+            try {
+                row.writeTo(formatter);
+            } catch (IOException | RuntimeException | Error e) {
+                if (chars.count != flushed) {
+                    // the formatter handed the start of a long row over,
+                    // which it cannot take back itself
+                    formatter.discard();
+                    chars.count = start;
+                }
+                throw e;
+            }
+        }
+
+        void useHeader() {
+            CSVHeader h = CSVConcurrentWriter.this.header;
+            if (h != header) {
+                formatter.useHeader(h);
+                header = h;
+            }
+        }
+
+        /**
+         * encode the rows formatted so far into bytes
+         */
+        void encode() throws IOException {
+            formatter.flush();
+            CharBuffer in = CharBuffer.wrap(chars.buf, 0, chars.count);
+            while (true) {
+                ByteBuffer out = ByteBuffer.wrap(bytes.buf, bytes.count, bytes.buf.length - bytes.count);
+                boolean overflow = encoder.encode(in, out, false).isOverflow();
+                bytes.count = out.position();
+                if (!overflow) {
+                    break;
+                }
+                bytes.grow(bytes.buf.length);
+            }
+            // every row ends with a line separator, so no char is left over
+            chars.reset();
+        }
+
+        void handOver() throws IOException {
+            encode();
+            if (bytes.count > 0) {
+                try {
+                    synchronized (lock) {
+                        out.write(bytes.buf, 0, bytes.count);
+                    }
+                } finally {
+                    bytes.reset();
+                }
+            }
+        }
+    }
+
+    /**
+     * a growable char array, shrunk back after a long row
+     */
+    static final class Chars extends Writer {
+        char[] buf = new char[LOCAL_SIZE];
+        int count = 0;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            }
+            System.arraycopy(cbuf, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        void reset() {
+            count = 0;
+            if (buf.length > 4 * LOCAL_SIZE) {
+                buf = new char[LOCAL_SIZE];
+            }
+        }
+    }
+
+    /**
+     * a growable byte array, shrunk back after a long row
+     */
+    static final class Bytes {
+        byte[] buf = new byte[LOCAL_SIZE];
+        int count = 0;
+
+        void grow(int more) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + more));
+        }
+
+        void reset() {
+            count = 0;
+            if (buf.length > 4 * LOCAL_SIZE) {
+                buf = new byte[LOCAL_SIZE];
+            }
+        }
+    }
+}
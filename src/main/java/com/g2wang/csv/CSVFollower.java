@@ -0,0 +1,443 @@
+package com.g2wang.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the rows of a local CSV file which is being appended to, such as a
+ * log, returning every complete row once as it is appended.
+ *
+ * A row is complete when a newline outside quotes ends it; a last row
+ * without one, including a quoted field which is still open, is returned
+ * once it is completed. The bytes after the last row returned are scanned
+ * once: the scan remembers where it stopped and whether it stopped inside
+ * quotes, and continues from there when the file grows.
+ *
+ * checkpoint() returns the position after the last row returned, which can
+ * be saved and passed to follow, so that a restarted process goes on from
+ * there without reading the file again. A file which shrinks, or whose last
+ * scanned bytes change, is read again from its start, as after a rotation.
+ * The file is read with positional reads rather than memory mapped, so that
+ * a file truncated while rows are pending, as by copytruncate, is read again
+ * too; rows already in the buffer of the reader may still be returned.
+ *
+ * The file must be UTF-8, US-ASCII or ISO-8859-1, with an ASCII quote. An
+ * instance is not thread safe.
+ */
+public final class CSVFollower implements AutoCloseable {
+
+    public static final Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(1);
+
+    private static final int CHECK_SIZE = 4096;
+    private static final int SCAN_BLOCK = 4096;
+
+    /**
+     * The position of a CSVFollower in its file.
+     */
+    public static final class Checkpoint {
+
+        private static final int MAGIC = 0x43535646; // CSVF
+        private static final int VERSION = 1;
+
+        /**
+         * the start of the file
+         */
+        public static final Checkpoint START = new Checkpoint(0, 0, 0, 0, false, new CRC32().getValue());
+
+        private final long offset;
+        private final long rows;
+        private final long complete;
+        private final long scanned;
+        private final boolean quoted;
+        private final long check;
+
+        private Checkpoint(long offset, long rows, long complete, long scanned, boolean quoted, long check) {
+            this.offset = offset;
+            this.rows = rows;
+            this.complete = complete;
+            this.scanned = scanned;
+            this.quoted = quoted;
+            this.check = check;
+        }
+
+        /**
+         * @return the byte offset of the next row to return
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * @return the number of rows returned before the offset
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * write this checkpoint to a temporary file of its own and move it
+         * into place, so that a reader never sees half of it and two savers
+         * of the same file do not write to one temporary file
+         */
+        public void save(Path file) throws IOException {
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                write(tmp);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+        }
+
+        private void write(Path file) throws IOException {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(offset);
+                out.writeLong(rows);
+                out.writeLong(complete);
+                out.writeLong(scanned);
+                out.writeBoolean(quoted);
+                out.writeLong(check);
+            }
+        }
+
+        /**
+         * @return the checkpoint saved in file, or START if there is none
+         */
+        public static Checkpoint load(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return START;
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("not a checkpoint: " + file);
+                }
+                return new Checkpoint(in.readLong(), in.readLong(), in.readLong(), in.readLong(), in.readBoolean(),
+                        in.readLong());
+            }
+        }
+    }
+
+    private final Path path;
+    private final Charset charset;
+    private final CSVFormat format;
+    private final byte quote;
+    private CSVReader.ErrorPolicy errorPolicy = CSVReader.ErrorPolicy.FAIL;
+    private Duration pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /**
+     * the next row to return starts at offset; the rows before complete
+     * are complete; the scan stopped at scanned, inside quotes if quoted,
+     * and check is the CRC32 of the bytes just before scanned
+     */
+    private long offset;
+    private long rows;
+    private long complete;
+    private long scanned;
+    private boolean quoted;
+    private long check;
+
+    /**
+     * the size of the file at the last scan, -1 to check the file first
+     */
+    private long size = -1;
+    private CSVReader reader = null;
+    private WatchService watch = null;
+    private boolean watchFailed = false;
+    private boolean closed = false;
+
+    private CSVFollower(Path path, Charset charset, CSVFormat format, Checkpoint from) {
+        if (!charset.equals(StandardCharsets.UTF_8) && !charset.equals(StandardCharsets.US_ASCII)
+                && !charset.equals(StandardCharsets.ISO_8859_1)) {
+            throw new IllegalArgumentException("a followed file must be UTF-8, US-ASCII or ISO-8859-1");
+        }
+        if (format.getQuote() > 0x7f) {
+            throw new IllegalArgumentException("the quote of a followed file must be ASCII");
+        }
+        this.path = path;
+        this.charset = charset;
+        this.format = format;
+        this.quote = (byte) format.getQuote();
+        this.offset = from.offset;
+        this.rows = from.rows;
+        this.complete = from.complete;
+        this.scanned = from.scanned;
+        this.quoted = from.quoted;
+        this.check = from.check;
+    }
+
+    /**
+     * static method to follow a UTF-8 CSV file in the default format from its start
+     */
+    public static CSVFollower follow(final Path csvFile) {
+        return follow(csvFile, StandardCharsets.UTF_8, CSVReader.getDefaultFormat(), Checkpoint.START);
+    }
+
+    /**
+     * static method to follow a CSV file
+     *
+     * @param csvFile - csv file path
+     * @param charset - UTF-8, US-ASCII or ISO-8859-1
+     * @param format - the format of the file
+     * @param from - where to start, such as a saved checkpoint or Checkpoint.START
+     */
+    public static CSVFollower follow(final Path csvFile, Charset charset, CSVFormat format, Checkpoint from) {
+        return new CSVFollower(csvFile, charset, format, from);
+    }
+
+    /**
+     * @param pollInterval - the longest wait of next between two looks at
+     * the file, for file systems which do not report changes
+     * @return this follower
+     */
+    public CSVFollower withPollInterval(Duration pollInterval) {
+        this.pollInterval = pollInterval;
+        return this;
+    }
+
+    /**
+     * @see CSVReader#withErrorPolicy(CSVReader.ErrorPolicy)
+     */
+    public CSVFollower withErrorPolicy(CSVReader.ErrorPolicy policy) {
+        this.errorPolicy = policy;
+        return this;
+    }
+
+    /**
+     * @return the next complete row, or null if none has been appended yet
+     */
+    public List<String> poll() throws IllegalCSVFormatException, IOException {
+        if (closed) {
+            throw new IOException("Follower closed");
+        }
+        while (true) {
+            if (reader != null) {
+                List<String> row;
+                try {
+                    row = reader.nextRow();
+                } catch (IOException e) {
+                    if (!shrunk()) {
+                        throw e;
+                    }
+                    // truncated while rows were pending: the next scan starts over
+                    reader.close();
+                    reader = null;
+                    size = -1;
+                    continue;
+                }
+                if (row != null) {
+                    offset = reader.getPosition();
+                    rows++;
+                    return row;
+                }
+                reader.close();
+                reader = null;
+                offset = Math.max(offset, complete);
+            }
+            if (!scan() || complete <= offset) {
+                return null;
+            }
+            reader = CSVReader.openRange(path, charset, offset, complete).withFormat(format)
+                    .withErrorPolicy(errorPolicy);
+        }
+    }
+
+    /**
+     * wait for the next complete row
+     *
+     * @param timeout - the longest wait
+     * @return the next complete row, or null if none is appended in time
+     */
+    public List<String> next(Duration timeout) throws IllegalCSVFormatException, IOException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            List<String> row = poll();
+            if (row != null) {
+                return row;
+            }
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return null;
+            }
+            await(Math.min(left, pollInterval.toNanos()));
+        }
+    }
+
+    /**
+     * @return the position after the last row returned
+     */
+    public Checkpoint checkpoint() {
+        return new Checkpoint(offset, rows, complete, scanned, quoted, check);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        } finally {
+            if (watch != null) {
+                watch.close();
+                watch = null;
+            }
+        }
+    }
+
+    /**
+     * wait until the directory of the file reports a change, or nanos
+     */
+    private void await(long nanos) throws IOException {
+        try {
+            if (watch == null && !watchFailed) {
+                try {
+                    watch = path.getFileSystem().newWatchService();
+                    path.toAbsolutePath().getParent().register(watch, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                } catch (IOException | UnsupportedOperationException e) {
+                    // poll only
+                    watchFailed = true;
+                    if (watch != null) {
+                        watch.close();
+                        watch = null;
+                    }
+                }
+            }
+            if (watch == null) {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+                return;
+            }
+            WatchKey key = watch.poll(nanos, TimeUnit.NANOSECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        }
+    }
+
+    /**
+     * @return whether the file is gone or shorter than the rows found in it
+     */
+    private boolean shrunk() throws IOException {
+        try {
+            return Files.size(path) < complete;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /**
+     * scan the bytes appended since the last scan for row ends
+     *
+     * @return false if the file does not exist
+     */
+    private boolean scan() throws IOException {
+        long length;
+        try {
+            length = Files.size(path);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (length == size) {
+            return true;
+        }
+        if (length < scanned || checksum(scanned) != check) {
+            // truncated or replaced
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            offset = 0;
+            rows = 0;
+            complete = 0;
+            scanned = 0;
+            quoted = false;
+        }
+        size = length;
+        if (scanned == length) {
+            check = checksum(scanned);
+            return true;
+        }
+        StructuralScanner scanner = StructuralScanner.getDefault();
+        int[] positions = new int[SCAN_BLOCK];
+        ByteBuffer buf = ByteBuffer.allocate(MappedParser.READ_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long start = scanned;
+            while (start < length) {
+                buf.clear().limit((int) Math.min(buf.capacity(), length - start));
+                int limit = channel.read(buf, start);
+                if (limit < 0) {
+                    // shrunk while scanned: the next scan sees it
+                    length = start;
+                    size = -1;
+                    break;
+                }
+                for (int from = 0; from < limit; from += SCAN_BLOCK) {
+                    int to = Math.min(limit, from + SCAN_BLOCK);
+                    // a newline as the delimiter finds quotes, CRs and newlines
+                    int n = scanner.index(buf, from, to, (byte) '\n', quote, positions);
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf.get(positions[i]);
+                        if (b == quote) {
+                            quoted = !quoted;
+                        } else if (b == '\n' && !quoted) {
+                            complete = start + positions[i] + 1;
+                        }
+                    }
+                }
+                start += limit;
+            }
+        }
+        scanned = length;
+        check = checksum(scanned);
+        return true;
+    }
+
+    /**
+     * @return the CRC32 of the bytes just before end
+     */
+    private long checksum(long end) throws IOException {
+        int length = (int) Math.min(CHECK_SIZE, end);
+        CRC32 crc = new CRC32();
+        if (length > 0) {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, end - length + buf.position()) < 0) {
+                        return ~check;
+                    }
+                }
+            }
+            crc.update(buf.flip());
+        }
+        return crc.getValue();
+    }
+}
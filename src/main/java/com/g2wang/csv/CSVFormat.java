@@ -0,0 +1,139 @@
+package com.g2wang.csv;
+
+import java.util.Objects;
+
+/**
+ * An immutable CSV dialect which can be given to any number of readers and
+ * writers at the same time. The state machine tables of a dialect are
+ * compiled once, when it is first created, and shared with every equal
+ * dialect.
+ *
+ * A reader accepts both LF and CRLF line endings whatever the line separator
+ * of its format is; the line separator is what a writer ends its rows with.
+ */
+public final class CSVFormat {
+
+    /**
+     * comma, double quote, the platform line separator, no trimming and
+     * strict quotes
+     */
+    public static final CSVFormat DEFAULT = new CSVFormat(',', '"', System.lineSeparator(), false, false);
+
+    private final char delimiter;
+    private final char quote;
+    private final String lineSeparator;
+    private final boolean trim;
+    private final boolean lenientQuotes;
+
+    final ParseTable table;
+
+    private CSVFormat(char delimiter, char quote, String lineSeparator, boolean trim, boolean lenientQuotes) {
+        if (delimiter == quote) {
+            throw new IllegalArgumentException("the delimiter and the quote must differ");
+        }
+        if (isLineBreak(delimiter) || isLineBreak(quote)) {
+            throw new IllegalArgumentException("the delimiter and the quote must not be line breaks");
+        }
+        if (lineSeparator.isEmpty()) {
+            throw new IllegalArgumentException("the line separator must not be empty");
+        }
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.lineSeparator = lineSeparator;
+        this.trim = trim;
+        this.lenientQuotes = lenientQuotes;
+        this.table = ParseTable.get(delimiter, quote, lenientQuotes, trim);
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\r' || c == '\n';
+    }
+
+    /**
+     * @param delimiter - the delimiter, default comma (,)
+     * @return a copy of this format with the specified delimiter
+     */
+    public CSVFormat withDelimiter(char delimiter) {
+        return new CSVFormat(delimiter, quote, lineSeparator, trim, lenientQuotes);
+    }
+
+    /**
+     * @param quote - the quote, default double quote (")
+     * @return a copy of this format with the specified quote
+     */
+    public CSVFormat withQuote(char quote) {
+        return new CSVFormat(delimiter, quote, lineSeparator, trim, lenientQuotes);
+    }
+
+    /**
+     * @param lineSeparator - the line separator written after every row,
+     * default the platform line separator
+     * @return a copy of this format with the specified line separator
+     */
+    public CSVFormat withLineSeparator(String lineSeparator) {
+        return new CSVFormat(delimiter, quote, Objects.requireNonNull(lineSeparator), trim, lenientQuotes);
+    }
+
+    /**
+     * @param trim - whether leading and trailing whitespace is removed from
+     * every field read, default false
+     * @return a copy of this format with the specified trimming
+     */
+    public CSVFormat withTrim(boolean trim) {
+        return new CSVFormat(delimiter, quote, lineSeparator, trim, lenientQuotes);
+    }
+
+    /**
+     * @param lenientQuotes - whether a char after the closing quote of a field
+     * is kept as part of the field instead of causing an
+     * IllegalCSVFormatException, default false
+     * @return a copy of this format with the specified quote handling
+     */
+    public CSVFormat withLenientQuotes(boolean lenientQuotes) {
+        return new CSVFormat(delimiter, quote, lineSeparator, trim, lenientQuotes);
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    public char getQuote() {
+        return quote;
+    }
+
+    public String getLineSeparator() {
+        return lineSeparator;
+    }
+
+    public boolean isTrim() {
+        return trim;
+    }
+
+    public boolean isLenientQuotes() {
+        return lenientQuotes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CSVFormat)) {
+            return false;
+        }
+        CSVFormat other = (CSVFormat) o;
+        return delimiter == other.delimiter && quote == other.quote && lineSeparator.equals(other.lineSeparator)
+                && trim == other.trim && lenientQuotes == other.lenientQuotes;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(delimiter, quote, lineSeparator, trim, lenientQuotes);
+    }
+
+    @Override
+    public String toString() {
+        return "delimiter=" + delimiter + "\n" + "quote=" + quote + "\n" + "trim=" + trim + "\n"
+                + "lenientQuotes=" + lenientQuotes + "\n";
+    }
+}
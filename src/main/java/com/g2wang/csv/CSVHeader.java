@@ -0,0 +1,142 @@
+package com.g2wang.csv;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The column names of a CSV file, read once from its first row and shared by
+ * every CSVRecord of the file. A name is looked up in an open addressing
+ * table of column indexes, sized so that a lookup is nearly always a single
+ * probe, rather than in a map per row. The names are interned, so a name
+ * asked for as a literal usually matches by identity.
+ *
+ * When a name occurs more than once, indexOf returns its first column.
+ */
+public final class CSVHeader {
+
+    private final String[] names;
+
+    /**
+     * column index + 1 of every name at its slot, or 0 for an empty slot
+     */
+    private final int[] slots;
+
+    private CSVHeader(String[] names) {
+        this.names = names;
+        int size = Integer.highestOneBit(Math.max(4, names.length * 4 - 1)) << 1;
+        this.slots = new int[size];
+        int mask = size - 1;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+                continue;
+            }
+            int slot = mix(names[i].hashCode()) & mask;
+            while (slots[slot] != 0 && !names[slots[slot] - 1].equals(names[i])) {
+                slot = (slot + 1) & mask;
+            }
+            if (slots[slot] == 0) {
+                slots[slot] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * static method to get a header of the specified column names
+     */
+    public static CSVHeader of(String... names) {
+        String[] interned = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+                throw new IllegalArgumentException("a column name must not be null");
+            }
+            interned[i] = names[i].intern();
+        }
+        return new CSVHeader(interned);
+    }
+
+    /**
+     * static method to get a header of the specified column names, such as
+     * the first row of a file
+     */
+    public static CSVHeader of(List<String> names) {
+        return of(names.toArray(new String[0]));
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the name of a column, or null for a column selected by index
+     * which the header does not have
+     */
+    public String getName(int column) {
+        return names[column];
+    }
+
+    /**
+     * @return the column names in order
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * @return the first column with the specified name, or -1
+     */
+    public int indexOf(String name) {
+        int mask = slots.length - 1;
+        for (int slot = mix(name.hashCode()) & mask;; slot = (slot + 1) & mask) {
+            int i = slots[slot] - 1;
+            if (i < 0) {
+                return -1;
+            }
+            String s = names[i];
+            if (s == name || s.equals(name)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * @return whether a column has the specified name
+     */
+    public boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * @return the header of the specified columns, in the specified order,
+     * as CSVReader.select returns them
+     */
+    CSVHeader select(int[] columns) {
+        String[] selected = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            selected[i] = columns[i] < names.length ? names[columns[i]] : null;
+        }
+        return new CSVHeader(selected);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CSVHeader && Arrays.equals(names, ((CSVHeader) o).names);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(names);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(names);
+    }
+}
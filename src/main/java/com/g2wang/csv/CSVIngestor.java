@@ -0,0 +1,430 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Reads many CSV files at the same time, one reader and one thread per
+ * file, and hands their rows to a consumer in batches.
+ *
+ * The threads are virtual threads when the runtime has them, and threads of
+ * a cached pool otherwise. A file is only opened when fewer than
+ * maxOpenFiles are open, in the order of the list, so that only about
+ * maxOpenFiles threads exist at a time. The rows read but not yet consumed
+ * take at most about maxInFlightBytes over all files: a file which would go
+ * over it hands its partial batch to the consumer first, and then waits for
+ * the other files to hand over theirs. The files which wait are served in
+ * the order they began to wait, and no file takes bytes while another waits,
+ * so that a file of large rows is not starved by files of small ones.
+ *
+ * The consumer and the progress listener are called on the thread of a
+ * file, so from several threads at the same time. A failure of a file, in
+ * reading it or in the consumer, ends that file only, and is reported in its
+ * status.
+ */
+public final class CSVIngestor {
+
+    public static final int DEFAULT_MAX_OPEN_FILES = 64;
+    public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 64L * 1024 * 1024;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    /**
+     * takes the rows of a file
+     */
+    @FunctionalInterface
+    public interface BatchConsumer {
+        /**
+         * @param file - the file of the rows
+         * @param rows - the next rows of the file, which the consumer may keep
+         */
+        void accept(Path file, List<List<String>> rows) throws Exception;
+    }
+
+    /**
+     * The progress of a file, or its outcome when it is done.
+     */
+    public static final class FileStatus {
+        private final Path file;
+        private final long rows;
+        private final long bytesRead;
+        private final long size;
+        private final boolean done;
+        private final Exception failure;
+
+        FileStatus(Path file, long rows, long bytesRead, long size, boolean done, Exception failure) {
+            this.file = file;
+            this.rows = rows;
+            this.bytesRead = bytesRead;
+            this.size = size;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return the number of rows consumed
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return the bytes of the file read up to the last row consumed, or
+         * -1 if unknown, such as for a compressed file
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return the size of the file, or -1 if it could not be opened
+         */
+        public long getSize() {
+            return size;
+        }
+
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * @return the exception which ended the file, or null
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        @Override
+        public String toString() {
+            return file + ": " + rows + " rows" + (failure != null ? ", failed: " + failure : done ? ", done" : "");
+        }
+    }
+
+    private CSVFormat format = CSVReader.getDefaultFormat();
+    private Charset charset = StandardCharsets.UTF_8;
+    private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+    private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Consumer<FileStatus> progress = null;
+
+    private CSVIngestor() {
+    }
+
+    /**
+     * static method to get an instance with the default limits
+     */
+    public static CSVIngestor create() {
+        return new CSVIngestor();
+    }
+
+    /**
+     * set the format and charset of every file
+     *
+     * @return this ingestor
+     */
+    public CSVIngestor withFormat(CSVFormat format, Charset charset) {
+        this.format = format;
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * @param maxOpenFiles - the most files read at the same time
+     * @return this ingestor
+     */
+    public CSVIngestor withMaxOpenFiles(int maxOpenFiles) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles must be positive");
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        return this;
+    }
+
+    /**
+     * @param maxInFlightBytes - about the most bytes of rows read but not yet consumed
+     * @return this ingestor
+     */
+    public CSVIngestor withMaxInFlightBytes(long maxInFlightBytes) {
+        if (maxInFlightBytes < 1) {
+            throw new IllegalArgumentException("maxInFlightBytes must be positive");
+        }
+        this.maxInFlightBytes = maxInFlightBytes;
+        return this;
+    }
+
+    /**
+     * @param batchSize - the most rows of a batch
+     * @return this ingestor
+     */
+    public CSVIngestor withBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * @param progress - called after every batch of a file and when it is done
+     * @return this ingestor
+     */
+    public CSVIngestor withProgress(Consumer<FileStatus> progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * read every file into the consumer and wait until all are done
+     *
+     * @param files - the files, opened in this order
+     * @param consumer - takes the rows of every file in batches
+     * @return the status of every file, in the order of files
+     */
+    public List<FileStatus> ingest(List<Path> files, BatchConsumer consumer) throws IOException {
+        Semaphore open = new Semaphore(maxOpenFiles);
+        InFlight inFlight = new InFlight(maxInFlightBytes);
+        ExecutorService executor = newExecutor();
+        List<Future<FileStatus>> futures = new ArrayList<>(files.size());
+        try {
+            for (Path file : files) {
+                // taken here rather than on the file's thread, so that a
+                // pool of platform threads grows to maxOpenFiles at most
+                open.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return ingest(file, consumer, inFlight);
+                        } finally {
+                            open.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    open.release();
+                    throw e;
+                }
+            }
+            List<FileStatus> statuses = new ArrayList<>(files.size());
+            for (Future<FileStatus> future : futures) {
+                statuses.add(future.get());
+            }
+            return statuses;
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException e) {
+            executor.shutdownNow();
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * read one file on its own thread
+     */
+    private FileStatus ingest(Path file, BatchConsumer consumer, InFlight inFlight) {
+        Batch batch = new Batch(file, consumer, inFlight);
+        Exception failure = null;
+        try (CSVReader reader = CSVReader.fromPath(file, charset).withFormat(format)) {
+            batch.size = Files.size(file);
+            List<String> row;
+            while ((row = reader.nextRow()) != null) {
+                long bytes = Math.min(estimate(row), maxInFlightBytes);
+                if (!inFlight.tryAcquire(bytes)) {
+                    // hand over what this file holds before waiting for the others
+                    batch.deliver();
+                    inFlight.acquire(bytes);
+                }
+                batch.add(row, bytes);
+                batch.position = reader.getPosition();
+                if (batch.rows.size() == batchSize) {
+                    batch.deliver();
+                }
+            }
+            batch.deliver();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            inFlight.release(batch.held);
+        }
+        FileStatus status = new FileStatus(file, batch.consumed, failure == null ? batch.position : -1, batch.size,
+                true, failure);
+        report(status);
+        return status;
+    }
+
+    /**
+     * the rows of a file read but not yet consumed
+     */
+    private final class Batch {
+        final Path file;
+        final BatchConsumer consumer;
+        final InFlight inFlight;
+        List<List<String>> rows = new ArrayList<>();
+        long held = 0;
+        long consumed = 0;
+        long position = 0;
+        long size = -1;
+
+        Batch(Path file, BatchConsumer consumer, InFlight inFlight) {
+            this.file = file;
+            this.consumer = consumer;
+            this.inFlight = inFlight;
+        }
+
+        void add(List<String> row, long bytes) {
+            rows.add(row);
+            held += bytes;
+        }
+
+        void deliver() throws Exception {
+            if (rows.isEmpty()) {
+                return;
+            }
+            try {
+                consumer.accept(file, rows);
+            } finally {
+                inFlight.release(held);
+                held = 0;
+            }
+            consumed += rows.size();
+            rows = new ArrayList<>();
+            report(new FileStatus(file, consumed, position, size, false, null));
+        }
+    }
+
+    private void report(FileStatus status) {
+        Consumer<FileStatus> progress = this.progress;
+        if (progress != null) {
+            progress.accept(status);
+        }
+    }
+
+    /**
+     * @return about the bytes a row of Strings takes
+     */
+    private static long estimate(List<String> row) {
+        long bytes = 64;
+        for (String field : row) {
+            bytes += 48 + field.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return an executor of a virtual thread per task if the runtime has
+     * them, else a cached pool of daemon threads
+     */
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "csv-ingestor");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * the bytes of rows read but not yet consumed over all files; a lock
+     * rather than synchronized, which would pin a virtual thread. Waiters
+     * are served first come first served: only the first of them may take
+     * bytes, and tryAcquire fails while any waits.
+     */
+    static final class InFlight {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Condition> waiters = new ArrayDeque<>();
+        private long available;
+
+        InFlight(long capacity) {
+            this.available = capacity;
+        }
+
+        boolean tryAcquire(long bytes) {
+            lock.lock();
+            try {
+                if (!waiters.isEmpty() || available < bytes) {
+                    return false;
+                }
+                available -= bytes;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void acquire(long bytes) throws InterruptedException {
+            lock.lock();
+            try {
+                if (waiters.isEmpty() && available >= bytes) {
+                    available -= bytes;
+                    return;
+                }
+                Condition turn = lock.newCondition();
+                waiters.addLast(turn);
+                try {
+                    while (waiters.peekFirst() != turn || available < bytes) {
+                        turn.await();
+                    }
+                } finally {
+                    waiters.remove(turn);
+                    signalFirst();
+                }
+                available -= bytes;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long bytes) {
+            if (bytes == 0) {
+                return;
+            }
+            lock.lock();
+            try {
+                available += bytes;
+                signalFirst();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void signalFirst() {
+            Condition first = waiters.peekFirst();
+            if (first != null) {
+                first.signal();
+            }
+        }
+    }
+}
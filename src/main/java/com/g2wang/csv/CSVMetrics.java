@@ -0,0 +1,229 @@
+package com.g2wang.csv;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters of a CSVReader or a CSVWriter, given to it with withMetrics. A
+ * reader or writer without metrics tests for them once per row and does no
+ * other work for them.
+ *
+ * The counters are updated once per row by the thread which reads or
+ * writes, without synchronization, so values read from another thread, such
+ * as through JMX, may lag behind. Timing takes two calls of System.nanoTime
+ * per row and can be turned off. The counters are only ever written by that
+ * thread: reset, which may be called from any thread, asks it to zero them
+ * when it starts its next row, and until then the getters return zeros.
+ *
+ * For a reader, chars counts the chars read through a Reader and bytes the
+ * bytes of a memory mapped file; I/O time is the time blocked reading or
+ * mapping the input, and parse time the rest of the time spent in the
+ * reader. For a writer, chars counts the chars formatted; I/O time is the
+ * time spent in the underlying writer, which includes encoding, and parse
+ * time is the time spent formatting.
+ */
+public class CSVMetrics implements CSVMetricsMXBean {
+
+    /**
+     * Called on the thread which reads or writes.
+     */
+    public interface Listener {
+
+        /**
+         * called after every interval rows
+         */
+        default void onProgress(CSVMetrics metrics) {
+        }
+
+        /**
+         * called when a row is found to be illegal, before the exception is
+         * thrown
+         */
+        default void onError(CSVMetrics metrics, IllegalCSVFormatException e) {
+        }
+    }
+
+    final boolean timing;
+
+    long rows;
+    long fields;
+    long quotedFields;
+    int maxRowWidth;
+    long chars;
+    long bytes;
+    long ioNanos;
+    long parseNanos;
+    long errors;
+
+    private volatile boolean resetRequested;
+
+    private Listener listener = null;
+    private long interval = Long.MAX_VALUE;
+    private long nextProgress = Long.MAX_VALUE;
+
+    /**
+     * metrics with timing
+     */
+    public CSVMetrics() {
+        this(true);
+    }
+
+    /**
+     * @param timing - whether I/O and parse time are measured
+     */
+    public CSVMetrics(boolean timing) {
+        this.timing = timing;
+    }
+
+    /**
+     * @param listener - the listener, or null for none
+     * @param interval - the number of rows between two calls of onProgress
+     * @return these metrics
+     */
+    public CSVMetrics withListener(Listener listener, long interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.listener = listener;
+        this.interval = listener == null ? Long.MAX_VALUE : interval;
+        this.nextProgress = listener == null ? Long.MAX_VALUE : rows + interval;
+        return this;
+    }
+
+    /**
+     * register these metrics with the platform MBean server under
+     * com.g2wang.csv:type=CSVMetrics,name=name
+     *
+     * @return the name to unregister them with
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("com.g2wang.csv:type=CSVMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * unregister metrics registered with register
+     */
+    public static void unregister(ObjectName objectName) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            server.unregisterMBean(objectName);
+        }
+    }
+
+    /**
+     * called by the thread which reads or writes before it meters a row, to
+     * apply a reset asked for since the last row
+     */
+    void beginRow() {
+        if (resetRequested) {
+            rows = 0;
+            fields = 0;
+            quotedFields = 0;
+            maxRowWidth = 0;
+            chars = 0;
+            bytes = 0;
+            ioNanos = 0;
+            parseNanos = 0;
+            errors = 0;
+            nextProgress = listener == null ? Long.MAX_VALUE : interval;
+            resetRequested = false;
+        }
+    }
+
+    void row(int width, int quoted) {
+        rows++;
+        fields += width;
+        quotedFields += quoted;
+        if (width > maxRowWidth) {
+            maxRowWidth = width;
+        }
+        if (rows >= nextProgress) {
+            nextProgress = rows + interval;
+            listener.onProgress(this);
+        }
+    }
+
+    void error(IllegalCSVFormatException e) {
+        errors++;
+        if (listener != null) {
+            listener.onError(this, e);
+        }
+    }
+
+    @Override
+    public long getRows() {
+        return resetRequested ? 0 : rows;
+    }
+
+    @Override
+    public long getFields() {
+        return resetRequested ? 0 : fields;
+    }
+
+    @Override
+    public long getQuotedFields() {
+        return resetRequested ? 0 : quotedFields;
+    }
+
+    /**
+     * @return the share of fields which are quoted, from 0 to 1
+     */
+    @Override
+    public double getQuotedFieldRatio() {
+        long fields = getFields();
+        return fields == 0 ? 0 : (double) getQuotedFields() / fields;
+    }
+
+    /**
+     * @return the largest number of fields of a row
+     */
+    @Override
+    public int getMaxRowWidth() {
+        return resetRequested ? 0 : maxRowWidth;
+    }
+
+    @Override
+    public long getChars() {
+        return resetRequested ? 0 : chars;
+    }
+
+    @Override
+    public long getBytes() {
+        return resetRequested ? 0 : bytes;
+    }
+
+    @Override
+    public long getIoNanos() {
+        return resetRequested ? 0 : ioNanos;
+    }
+
+    @Override
+    public long getParseNanos() {
+        return resetRequested ? 0 : parseNanos;
+    }
+
+    @Override
+    public long getErrors() {
+        return resetRequested ? 0 : errors;
+    }
+
+    /**
+     * zero the counters when the reader or writer starts its next row
+     */
+    @Override
+    public void reset() {
+        resetRequested = true;
+    }
+
+    @Override
+    public String toString() {
+        return "rows=" + getRows() + "\n" + "fields=" + getFields() + "\n" + "quotedFields=" + getQuotedFields()
+                + "\n" + "maxRowWidth=" + getMaxRowWidth() + "\n" + "chars=" + getChars() + "\n" + "bytes="
+                + getBytes() + "\n" + "ioNanos=" + getIoNanos() + "\n" + "parseNanos=" + getParseNanos() + "\n"
+                + "errors=" + getErrors() + "\n";
+    }
+}
@@ -0,0 +1,30 @@
+package com.g2wang.csv;
+
+/**
+ * The management interface of CSVMetrics, registered with
+ * CSVMetrics.register.
+ */
+public interface CSVMetricsMXBean {
+
+    long getRows();
+
+    long getFields();
+
+    long getQuotedFields();
+
+    double getQuotedFieldRatio();
+
+    int getMaxRowWidth();
+
+    long getChars();
+
+    long getBytes();
+
+    long getIoNanos();
+
+    long getParseNanos();
+
+    long getErrors();
+
+    void reset();
+}
@@ -0,0 +1,300 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Parses a single large local file on several threads. The file is split into
+ * byte ranges and every range is parsed by a MappedParser of its own.
+ *
+ * A newline ends a row unless it is inside a quoted field, and it is inside
+ * a quoted field exactly when an odd number of quotes precedes it. The
+ * quotes of every range are therefore counted first, which gives the quote
+ * parity at the start of each range, and every range then starts at its first
+ * newline with even parity. Input with illegal quoting makes this split
+ * unreliable, so reading fails at the first IllegalCSVFormatException.
+ *
+ * The input must be UTF-8, US-ASCII or ISO-8859-1 with a single byte
+ * delimiter and quote.
+ */
+public class CSVParallelReader implements AutoCloseable {
+
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    private static final long MAX_CHUNK_SIZE = 32L << 20;
+    private static final int SCAN_SIZE = 1 << 20;
+
+    private final Path path;
+    private final boolean latin1;
+    private ParseTable table;
+    private final int threads;
+    private ExecutorService executor;
+
+    long chunkSize;
+
+    /**
+     * constructor
+     */
+    protected CSVParallelReader(Path path, boolean latin1, ParseTable table, int threads) {
+        this.path = path;
+        this.latin1 = latin1;
+        this.table = table;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "csv-parallel-reader");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * static method to get an instance to read a local UTF-8 CSV file with
+     * the specified number of threads
+     *
+     * @param csvFile - csv file path
+     * @param threads - number of parsing threads
+     */
+    public static CSVParallelReader fromPath(final Path csvFile, int threads) throws IOException {
+        return fromPath(csvFile, StandardCharsets.UTF_8, threads);
+    }
+
+    /**
+     * static method to get an instance to read a local CSV file with specified
+     * Charset and number of threads
+     *
+     * @param csvFile - csv file path
+     * @param charset - UTF-8, US-ASCII or ISO-8859-1
+     * @param threads - number of parsing threads
+     */
+    public static CSVParallelReader fromPath(final Path csvFile, final Charset charset, int threads)
+            throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        ParseTable table = CSVReader.getDefaultFormat().table;
+        boolean latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+        if (!(utf8 || latin1) || !table.isSingleByte(latin1)) {
+            throw new IllegalArgumentException("parallel reading needs an ASCII compatible charset and a single byte delimiter");
+        }
+        CSVParallelReader csvReader = new CSVParallelReader(csvFile, latin1, table, threads);
+        long size;
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        csvReader.chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (threads * 4L)));
+        return csvReader;
+    }
+
+    /**
+     * set the format of this reader
+     *
+     * @param format - a format with a delimiter and a quote which are single
+     * bytes of the charset of the file
+     * @return this reader
+     */
+    public CSVParallelReader withFormat(CSVFormat format) {
+        if (!format.table.isSingleByte(latin1)) {
+            throw new IllegalArgumentException("parallel reading needs a single byte delimiter and quote");
+        }
+        this.table = format.table;
+        return this;
+    }
+
+    /**
+     * parse the file and hand every row to action in file order, on the
+     * calling thread
+     */
+    public void forEachOrdered(Consumer<List<String>> action) throws IllegalCSVFormatException, IOException {
+        long[] starts = splitPoints();
+        int chunks = starts.length - 1;
+        Deque<Future<List<List<String>>>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < chunks && pending.size() < threads * 2) {
+                pending.add(submitCollect(starts, next++));
+            }
+            while (!pending.isEmpty()) {
+                List<List<String>> rows = get(pending.poll());
+                if (next < chunks) {
+                    pending.add(submitCollect(starts, next++));
+                }
+                rows.forEach(action);
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+    }
+
+    /**
+     * parse the file and hand every row to action in no particular order.
+     * action is called concurrently from the parsing threads.
+     */
+    public void forEach(Consumer<List<String>> action) throws IllegalCSVFormatException, IOException {
+        long[] starts = splitPoints();
+        List<Future<Void>> pending = new ArrayList<>();
+        try {
+            for (int i = 0; i < starts.length - 1; i++) {
+                int chunk = i;
+                pending.add(executor.submit(() -> {
+                    parse(starts, chunk, action);
+                    return null;
+                }));
+            }
+            for (Future<Void> f : pending) {
+                get(f);
+            }
+        } finally {
+            pending.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private Future<List<List<String>>> submitCollect(long[] starts, int chunk) {
+        return executor.submit(() -> {
+            List<List<String>> rows = new ArrayList<>();
+            parse(starts, chunk, rows::add);
+            return rows;
+        });
+    }
+
+    /**
+     * parse the rows of a chunk, which starts at the first row boundary at
+     * or after its split point
+     */
+    private void parse(long[] starts, int chunk, Consumer<List<String>> action)
+            throws IllegalCSVFormatException, IOException {
+        long start = starts[chunk];
+        long end = starts[chunk + 1];
+        if (start >= end) {
+            return;
+        }
+        int windowSize = (int) Math.min(Integer.MAX_VALUE, end - start + SCAN_SIZE);
+        RowBuffer row = new RowBuffer();
+        try (MappedParser parser = new MappedParser(path, latin1, table, windowSize, start, end)) {
+            while (parser.parseRow()) {
+                row.set(parser);
+                action.accept(row.toList());
+            }
+        }
+    }
+
+    /**
+     * count the quotes of every chunk in parallel and move the start of
+     * every chunk after the first to a row boundary
+     *
+     * @return the starts of the chunks followed by the file size
+     */
+    private long[] splitPoints() throws IllegalCSVFormatException, IOException {
+        long size;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        int chunks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        byte quote = (byte) table.getQuote();
+        List<Future<Long>> counts = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            long from = i * chunkSize;
+            long to = Math.min(size, from + chunkSize);
+            counts.add(executor.submit(() -> countQuotes(path, from, to, quote)));
+        }
+        boolean[] odd = new boolean[chunks];
+        for (int i = 1; i < chunks; i++) {
+            odd[i] = odd[i - 1] ^ (get(counts.get(i - 1)) & 1) == 1;
+        }
+
+        List<Future<Long>> boundaries = new ArrayList<>();
+        for (int i = 1; i < chunks; i++) {
+            long from = i * chunkSize;
+            boolean quoted = odd[i];
+            boundaries.add(executor.submit(() -> findRowStart(path, from, size, quote, quoted)));
+        }
+        long[] starts = new long[chunks + 1];
+        for (int i = 1; i < chunks; i++) {
+            starts[i] = get(boundaries.get(i - 1));
+        }
+        starts[chunks] = size;
+        return starts;
+    }
+
+    /**
+     * @return the number of quotes between from and to
+     */
+    static long countQuotes(Path path, long from, long to, byte quote) throws IOException {
+        long n = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long start = from; start < to; start += MappedParser.WINDOW_SIZE) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MappedParser.WINDOW_SIZE, to - start));
+                n += StructuralScanner.getDefault().count(buf, 0, buf.limit(), quote);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @param quoted - whether from is inside a quoted field
+     * @return the position after the first newline at or after from which is
+     * not inside a quoted field, or to if there is none
+     */
+    static long findRowStart(Path path, long from, long to, byte quote, boolean quoted) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long start = from; start < to; start += SCAN_SIZE) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SCAN_SIZE, to - start));
+                for (int i = 0, limit = buf.limit(); i < limit; i++) {
+                    byte b = buf.get(i);
+                    if (b == quote) {
+                        quoted = !quoted;
+                    } else if (b == '\n' && !quoted) {
+                        return start + i + 1;
+                    }
+                }
+            }
+        }
+        return to;
+    }
+
+    private static <T> T get(Future<T> future) throws IllegalCSVFormatException, IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IllegalCSVFormatException) {
+                throw (IllegalCSVFormatException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * release resources
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+}
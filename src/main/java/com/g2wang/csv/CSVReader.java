@@ -1,212 +1,151 @@
 package com.g2wang.csv;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.UncheckedIOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.invoke.MethodHandle;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.EnumMap;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class CSVReader implements AutoCloseable {
 
-    private enum State {
-        NOT_ESCAPED,
-        END_OF_ROW,
-        END_OF_FIELD,
-        ILLEGAL,
-        ONE_QUOTE,
-        DOUBLE_QUOTES,
-        QUOTE_NOT_QUOTES,
-        QUOTE_NOT_QUOTES_QUOTE
-    }
-
-    private enum Char {
-        QUOTE,
-        COMMA,
-        CR,
-        NL,
-        OTHER
-    }
-
-    private enum Operation {
-        APPEND,
-        NONE,
-        WRITE_FIELD,
-        WRITE_ROW,
-        THROW_EXCEPTION
-    }
-
-    private static final char CMA = ',';
-
-    private static final Map<Integer, Char> chars = new HashMap<>();
-
-    static {
-        chars.put((int) '"', Char.QUOTE);
-        chars.put((int) CMA, Char.COMMA);
-        chars.put((int) '\r', Char.CR);
-        chars.put((int) '\n', Char.NL);
+    /**
+     * What a reader does with a row which is not legal CSV.
+     */
+    public enum ErrorPolicy {
+        /**
+         * throw IllegalCSVFormatException; the reader cannot go on reliably
+         */
+        FAIL,
+        /**
+         * skip the row and go on with the next one, passing the row to the
+         * error handler if there is one
+         */
+        SKIP,
+        /**
+         * skip the row the same way as SKIP and also keep it, up to a limit,
+         * in the list returned by getBadRecords
+         */
+        COLLECT
     }
 
-    private static final EnumMap<Char, EnumMap<State, StateAndOperation>> table = new EnumMap<>(Char.class);
-
-    static {
-        Char inputChar = Char.QUOTE;
-        EnumMap<State, StateAndOperation> transitionMap = new EnumMap<>(State.class);
-
-        State currentState = State.NOT_ESCAPED;
-        StateAndOperation gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.ONE_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.DOUBLE_QUOTES, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.QUOTE_NOT_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES_QUOTE, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.DOUBLE_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        table.put(inputChar, transitionMap);
-
-        //////
-        inputChar = Char.COMMA;
-        transitionMap = new EnumMap<>(State.class);
-
-        currentState = State.NOT_ESCAPED;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.ONE_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.QUOTE_NOT_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.DOUBLE_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        table.put(inputChar, transitionMap);
-
-        ///////
-        inputChar = Char.CR;
-        transitionMap = new EnumMap<>(State.class);
-
-        currentState = State.NOT_ESCAPED;
-        gotoStateWithOp = new StateAndOperation(State.NOT_ESCAPED, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
+    public static final int DEFAULT_MAX_BAD_RECORDS = 1000;
 
-        currentState = State.ONE_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private static final int BUFFER_SIZE = 64 * 1024;
 
-        currentState = State.QUOTE_NOT_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private static volatile CSVFormat defaultFormat = CSVFormat.DEFAULT;
 
-        currentState = State.DOUBLE_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.DOUBLE_QUOTES, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES_QUOTE, Operation.NONE);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        table.put(inputChar, transitionMap);
-
-        /////////
-        inputChar = Char.NL;
-        transitionMap = new EnumMap<>(State.class);
-
-        currentState = State.NOT_ESCAPED;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
-        transitionMap.put(currentState, gotoStateWithOp);
-
-        currentState = State.ONE_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private Reader reader = null;
 
-        currentState = State.QUOTE_NOT_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    /**
+     * the format of this reader, or null to follow the default format
+     */
+    private CSVFormat format = null;
 
-        currentState = State.DOUBLE_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
-        transitionMap.put(currentState, gotoStateWithOp);
+    /**
+     * the block the input is read into; the current row starts at rowStart
+     * and is unescaped in place, so the fields are ranges of this array
+     */
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private int rowStart = 0;
 
-        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
-        transitionMap.put(currentState, gotoStateWithOp);
+    /**
+     * position in the input of buf[0]
+     */
+    private long bufferPosition = 0;
 
-        table.put(inputChar, transitionMap);
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount = 0;
 
-        /////////
-        inputChar = Char.OTHER;
-        transitionMap = new EnumMap<>(State.class);
+    /**
+     * the number of quoted fields of the row last parsed
+     */
+    private int quotedCount = 0;
 
-        currentState = State.NOT_ESCAPED;
-        gotoStateWithOp = new StateAndOperation(State.NOT_ESCAPED, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    /**
+     * the number of newlines read, and the position in the input of the
+     * start of the current line
+     */
+    private long lines = 0;
+    private long lineStart = 0;
 
-        currentState = State.ONE_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    /**
+     * the position in the input and the line of the start of the row last
+     * parsed, and the end in buf of its unescaped chars when it is illegal
+     */
+    private long rowPosition = 0;
+    private long rowLine = 0;
+    private int errorEnd = 0;
 
-        currentState = State.QUOTE_NOT_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private ErrorPolicy errorPolicy = ErrorPolicy.FAIL;
+    private int maxBadRecords = DEFAULT_MAX_BAD_RECORDS;
+    private Consumer<CSVBadRecord> errorHandler = null;
+    private final List<CSVBadRecord> badRecords = new ArrayList<>();
+    private long badRecordCount = 0;
 
-        currentState = State.DOUBLE_QUOTES;
-        gotoStateWithOp = new StateAndOperation(State.ILLEGAL, Operation.THROW_EXCEPTION);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private CSVMetrics metrics = null;
 
-        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
-        gotoStateWithOp = new StateAndOperation(State.ILLEGAL, Operation.THROW_EXCEPTION);
-        transitionMap.put(currentState, gotoStateWithOp);
+    private Projection projection = Projection.ALL;
+    private int[] projectedStarts = new int[16];
+    private int[] projectedEnds = new int[16];
 
-        table.put(inputChar, transitionMap);
-    }
+    /**
+     * the header row read by readHeader, and the header of the selected
+     * columns of projection headerProjection
+     */
+    private CSVHeader header = null;
+    private CSVHeader projectedHeader = null;
+    private Projection headerProjection = null;
 
-    private static class StateAndOperation {
+    private RowBuffer batchRow = null;
 
-        private final State state;
-        private final Operation operation;
+    /**
+     * the string cache of every column of the rows returned, or null for
+     * none, set by withStringCache
+     */
+    private StringCache[] stringCaches = null;
+    private int stringCacheCapacity = 0;
 
-        public StateAndOperation(State state, Operation operation) {
-            this.state = state;
-            this.operation = operation;
-        }
+    /**
+     * the handle of nextObject for the record class boundType and the header
+     * boundHeader
+     */
+    private Class<?> boundType = null;
+    private CSVHeader boundHeader = null;
+    private MethodHandle binding = null;
+    private RowBuffer objectRow = null;
 
-        @Override
-        public String toString() {
-            return "state=" + state + "\n" + "operation=" + operation + "\n";
-        }
-    }
+    /**
+     * the index used by seekToRow
+     */
+    private CSVRowIndex rowIndex = null;
 
-    private Reader reader = null;
+    /**
+     * set instead of reader when reading a memory mapped file
+     */
+    private MappedParser mapped = null;
+    private RowBuffer mappedRow = null;
 
     /**
      * constructor
@@ -255,12 +194,31 @@ public class CSVReader implements AutoCloseable {
     }
 
     /**
-     * static method to get an instance to read a CSV file
+     * static method to get an instance to read a CSV InputStream with specified
+     * Charset, reading the stream ahead on a prefetch thread. The thread
+     * fills up to prefetchDepth buffers while the rows of another buffer are
+     * parsed, which keeps the parser busy on high latency sources such as
+     * network mounts and pipes. A buffer is handed over as soon as the stream
+     * would block, so rows of a slow stream are not held back.
+     *
+     * @param prefetchBufferSize - the size of every buffer in bytes
+     * @param prefetchDepth - the number of buffers, at least 2
+     */
+    public static CSVReader fromInputStream(final InputStream inputStream, Charset cs, int prefetchBufferSize,
+            int prefetchDepth) {
+        return fromInputStream(new PrefetchInputStream(() -> inputStream, prefetchBufferSize, prefetchDepth,
+                "csv-prefetch"), cs);
+    }
+
+    /**
+     * static method to get an instance to read a CSV file. A file named
+     * .gz, .zz, .deflate or .zip is decompressed on a thread of its own while
+     * it is parsed; of a zip archive only the first entry is read.
      *
      * @param csvFile - csv file path
      */
     public static CSVReader fromFile(final String csvFile) throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile));
+        return fromInputStream(Compression.open(new File(csvFile)));
     }
 
     /**
@@ -269,7 +227,7 @@ public class CSVReader implements AutoCloseable {
      * @param csvFile - csv file
      */
     public static CSVReader fromFile(final File csvFile) throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile));
+        return fromInputStream(Compression.open(csvFile));
     }
 
     /**
@@ -281,7 +239,7 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final String csvFile, final Charset charset)
             throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile), charset);
+        return fromInputStream(Compression.open(new File(csvFile)), charset);
     }
 
     /**
@@ -290,7 +248,7 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final File csvFile, final Charset charset)
             throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile), charset);
+        return fromInputStream(Compression.open(csvFile), charset);
     }
 
     /**
@@ -299,7 +257,7 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final String csvFile, final CharsetDecoder dec)
             throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile), dec);
+        return fromInputStream(Compression.open(new File(csvFile)), dec);
     }
 
     /**
@@ -308,7 +266,7 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final File csvFile, final CharsetDecoder dec)
             throws FileNotFoundException {
-        return fromInputStream(new FileInputStream(csvFile), dec);
+        return fromInputStream(Compression.open(csvFile), dec);
     }
 
     /**
@@ -317,7 +275,13 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final String csvFile, final String charsetName)
             throws FileNotFoundException, UnsupportedEncodingException {
-        return fromInputStream(new FileInputStream(csvFile), charsetName);
+        InputStream inputStream = Compression.open(new File(csvFile));
+        try {
+            return fromInputStream(inputStream, charsetName);
+        } catch (UnsupportedEncodingException e) {
+            close(inputStream);
+            throw e;
+        }
     }
 
     /**
@@ -326,7 +290,127 @@ public class CSVReader implements AutoCloseable {
      */
     public static CSVReader fromFile(final File csvFile, final String charsetName)
             throws FileNotFoundException, UnsupportedEncodingException {
-        return fromInputStream(new FileInputStream(csvFile), charsetName);
+        InputStream inputStream = Compression.open(csvFile);
+        try {
+            return fromInputStream(inputStream, charsetName);
+        } catch (UnsupportedEncodingException e) {
+            close(inputStream);
+            throw e;
+        }
+    }
+
+    /**
+     * static method to get an instance to read a CSV file with specified
+     * Charset on a prefetch thread
+     *
+     * @param prefetchBufferSize - the size of every buffer in bytes
+     * @param prefetchDepth - the number of buffers, at least 2
+     * @see #fromInputStream(InputStream, Charset, int, int)
+     */
+    public static CSVReader fromFile(final File csvFile, final Charset charset, int prefetchBufferSize,
+            int prefetchDepth) throws FileNotFoundException {
+        return fromInputStream(Compression.open(csvFile, prefetchBufferSize, prefetchDepth, true), charset);
+    }
+
+    /**
+     * static method to get an instance to read a local UTF-8 CSV file by
+     * memory mapping it
+     *
+     * @param csvFile - csv file path
+     */
+    public static CSVReader fromPath(final Path csvFile) throws IOException {
+        return fromPath(csvFile, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * static method to get an instance to read a local CSV file by memory
+     * mapping it. UTF-8, US-ASCII and ISO-8859-1 files are scanned as bytes
+     * and only the fields which are accessed are decoded; files in other
+     * charsets, or with a delimiter which is not a single byte of the
+     * charset, are read the same way as fromFile reads them.
+     *
+     * @param csvFile - csv file path
+     * @param charset - charset
+     */
+    public static CSVReader fromPath(final Path csvFile, final Charset charset) throws IOException {
+        return fromPath(csvFile, charset, MappedParser.WINDOW_SIZE);
+    }
+
+    static CSVReader fromPath(final Path csvFile, final Charset charset, int windowSize) throws IOException {
+        return fromPath(csvFile, charset, windowSize, 0);
+    }
+
+    /**
+     * static method to get an instance to read a local CSV file from a byte
+     * offset on, which must be the start of a row, such as an offset from
+     * CSVRowIndex
+     *
+     * @param csvFile - csv file path
+     * @param charset - charset
+     * @param offset - byte offset of the first row to read
+     */
+    public static CSVReader openAt(final Path csvFile, final Charset charset, long offset) throws IOException {
+        return fromPath(csvFile, charset, MappedParser.WINDOW_SIZE, offset);
+    }
+
+    private static CSVReader fromPath(final Path csvFile, final Charset charset, int windowSize, long offset)
+            throws IOException {
+        ParseTable table = defaultFormat.table;
+        boolean latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII);
+        if (!(utf8 || latin1) || !table.isSingleByte(latin1)
+                || Compression.of(csvFile.toFile()) != Compression.Codec.NONE) {
+            InputStream inputStream = Compression.open(csvFile.toFile());
+            try {
+                inputStream.skipNBytes(offset);
+            } catch (IOException e) {
+                inputStream.close();
+                throw e;
+            }
+            return fromInputStream(inputStream, charset);
+        }
+        CSVReader csvReader = new CSVReader();
+        csvReader.mapped = new MappedParser(csvFile, latin1, table, windowSize, offset, Long.MAX_VALUE);
+        csvReader.mappedRow = new RowBuffer();
+        return csvReader;
+    }
+
+    /**
+     * static method to get an instance to read the rows of a local UTF-8,
+     * US-ASCII or ISO-8859-1 file which start between start and end, with
+     * positional reads rather than memory mapping, so that a file which
+     * shrinks while it is read fails with an IOException
+     *
+     * @param start - the start of a row
+     * @param end - no row is started at or after end
+     */
+    static CSVReader openRange(final Path csvFile, final Charset charset, long start, long end) throws IOException {
+        boolean latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+        CSVReader csvReader = new CSVReader();
+        csvReader.mapped = new MappedParser(csvFile, latin1, defaultFormat.table, MappedParser.READ_SIZE, start, end,
+                true);
+        csvReader.mappedRow = new RowBuffer();
+        return csvReader;
+    }
+
+    /**
+     * @return the position in the file of the next row of a file read by
+     * the memory mapped parser, such as from openRange, or -1 for any other
+     * input
+     */
+    long getPosition() {
+        return mapped == null ? -1 : mapped.getPosition();
+    }
+
+    /**
+     * static method to get an instance to read a local UTF-8 CSV file on
+     * several threads
+     *
+     * @param csvFile - csv file path
+     * @param threads - number of parsing threads
+     */
+    public static CSVParallelReader parallel(final Path csvFile, int threads) throws IOException {
+        return CSVParallelReader.fromPath(csvFile, threads);
     }
 
     /**
@@ -347,56 +431,646 @@ public class CSVReader implements AutoCloseable {
      * @throws IllegalCSVFormatException, IOException
      */
     public List<String> nextRow() throws IllegalCSVFormatException, IOException {
+        StringCache[] caches = stringCaches;
+        if (mapped != null) {
+            if (!nextRow(mappedRow)) {
+                return null;
+            }
+            return caches == null ? mappedRow.toList() : mappedRow.toList(caches);
+        }
+        if (!parseRow()) {
+            return null;
+        }
+        List<String> row = new ArrayList<>(fieldCount);
+        for (int i = 0; i < fieldCount; i++) {
+            StringCache cache = caches != null && i < caches.length ? caches[i] : null;
+            row.add(cache != null ? cache.get(buf, fieldStarts[i], fieldEnds[i])
+                    : new String(buf, fieldStarts[i], fieldEnds[i] - fieldStarts[i]));
+        }
+        return row;
+    }
+
+    /**
+     * instance method to read the next row into a reusable RowBuffer without
+     * creating a String for any of its fields. The fields of the row are only
+     * valid until the next row is read from this reader.
+     *
+     * @param row - the buffer to fill
+     * @return false if no more row is found
+     * @throws IllegalCSVFormatException, IOException
+     */
+    public boolean nextRow(RowBuffer row) throws IllegalCSVFormatException, IOException {
+        if (mapped != null) {
+            if (!parseRow(mapped)) {
+                row.size = 0;
+                return false;
+            }
+            row.set(mapped);
+            return true;
+        }
+        if (!parseRow()) {
+            row.size = 0;
+            return false;
+        }
+        row.set(buf, fieldStarts, fieldEnds, fieldCount);
+        return true;
+    }
+
+    /**
+     * instance method to read the next row as the header, unless it has been
+     * read already. The header is read with every column, whatever is
+     * selected, and shared by every record read after it.
+     *
+     * @return the header; a header without columns if the input is empty
+     * @throws IllegalCSVFormatException, IOException
+     */
+    public CSVHeader readHeader() throws IllegalCSVFormatException, IOException {
+        if (header == null) {
+            Projection projection = this.projection;
+            setProjection(Projection.ALL);
+            try {
+                List<String> names = nextRow();
+                header = CSVHeader.of(names == null ? List.of() : names);
+            } finally {
+                setProjection(projection);
+            }
+        }
+        return header;
+    }
 
-        int readInt = reader.read();
-        if (readInt == -1) {
+    /**
+     * @return the header read by readHeader, or null if it is not read yet
+     */
+    public CSVHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * instance method to get the next row as a record whose fields can be
+     * looked up by column name. The header is read first if it is not read
+     * yet. After select, the header of a record has the selected columns.
+     *
+     * @return a record or null if no more row is found
+     * @throws IllegalCSVFormatException, IOException
+     */
+    public CSVRecord nextRecord() throws IllegalCSVFormatException, IOException {
+        readHeader();
+        List<String> row = nextRow();
+        return row == null ? null : new CSVRecord(recordHeader(), row);
+    }
+
+    /**
+     * instance method to get the rows which are not read yet as a lazy
+     * Stream of records, reading the header first if it is not read yet
+     *
+     * @see #rows()
+     * @see #nextRecord()
+     */
+    public Stream<CSVRecord> records() throws IllegalCSVFormatException, IOException {
+        readHeader();
+        CSVHeader header = recordHeader();
+        return rows().map(row -> new CSVRecord(header, row));
+    }
+
+    /**
+     * instance method to get the next row as a record of the specified
+     * record class. Every field is parsed straight into the type of its
+     * component by a plan built once per class, without a String for any
+     * field which is not a String. When the header has been read, the
+     * components are matched to the columns by name; otherwise component i
+     * is field i.
+     *
+     * @param type - a record class
+     * @return a record or null if no more row is found
+     * @throws IllegalArgumentException if a component is not in the header,
+     * or a field cannot be parsed as the type of its component
+     * @throws IllegalCSVFormatException, IOException
+     * @see CSVBinder
+     */
+    public <T> T nextObject(Class<T> type) throws IllegalCSVFormatException, IOException {
+        MethodHandle binding = binding(type);
+        if (objectRow == null) {
+            objectRow = new RowBuffer();
+        }
+        if (!nextRow(objectRow)) {
             return null;
         }
-        List<String> row = new ArrayList<>();
-        StringBuilder sb = new StringBuilder();
-        State aState = State.NOT_ESCAPED;
-        long count = 0;
-        while (readInt >= 0) {
-            Char aChar = chars.get(readInt);
-            if (aChar == null) {
-                aChar = Char.OTHER;
+        return type.cast(bind(binding, objectRow));
+    }
+
+    /**
+     * instance method to get the rows which are not read yet as a lazy
+     * Stream of records of the specified record class. The reader is closed
+     * when the stream is closed or when all its rows are read.
+     *
+     * @param type - a record class
+     * @see #nextObject(Class)
+     * @see #rows()
+     */
+    public <T> Stream<T> as(Class<T> type) {
+        MethodHandle binding = binding(type);
+        RowBuffer row = new RowBuffer();
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (reader == null && mapped == null || !nextRow(row)) {
+                        close();
+                        return false;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (IllegalCSVFormatException e) {
+                    throw new UncheckedCSVFormatException(e);
+                }
+                action.accept(type.cast(bind(binding, row)));
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    /**
+     * @return the handle which makes a record of type from a row of the
+     * current columns
+     */
+    private MethodHandle binding(Class<?> type) {
+        CSVHeader header = this.header == null ? null : recordHeader();
+        if (type != boundType || header != boundHeader) {
+            CSVBinder<?> binder = CSVBinder.of(type);
+            CSVHeader components = binder.getHeader();
+            int[] columns = new int[components.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = header == null ? i : header.indexOf(components.getName(i));
+                if (columns[i] < 0) {
+                    throw new IllegalArgumentException("no column " + components.getName(i) + " in the header");
+                }
+            }
+            binding = binder.reader(columns);
+            boundType = type;
+            boundHeader = header;
+        }
+        return binding;
+    }
+
+    private static Object bind(MethodHandle binding, RowBuffer row) {
+        try {
+            return (Object) binding.invokeExact(row);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the header of the columns returned by the current projection
+     */
+    private CSVHeader recordHeader() {
+        if (projection.columns == null) {
+            return header;
+        }
+        if (headerProjection != projection) {
+            projectedHeader = header.select(projection.columns);
+            headerProjection = projection;
+        }
+        return projectedHeader;
+    }
+
+    /**
+     * instance method to read the next rows into a columnar batch, parsing
+     * every field straight from the buffer of this reader into the primitive
+     * array of its column. Only STRING columns create objects, one String
+     * per distinct value of the batch.
+     *
+     * @param schema - the types of the columns
+     * @param batch - the batch to fill, which is cleared first
+     * @return the number of rows read, at most the capacity of the batch;
+     * 0 if no more row is found
+     * @throws NumberFormatException if a field cannot be parsed as the type
+     * of its column; the batch keeps the rows before it
+     * @throws IllegalCSVFormatException, IOException
+     */
+    public int readBatch(CSVSchema schema, ColumnarBatch batch) throws IllegalCSVFormatException, IOException {
+        if (batchRow == null) {
+            batchRow = new RowBuffer();
+        }
+        batch.reset(schema);
+        while (!batch.isFull() && nextRow(batchRow)) {
+            batch.add(batchRow);
+        }
+        return batch.size();
+    }
+
+    /**
+     * instance method to continue reading at the specified row of a file
+     * opened with fromPath. The row is found with the CSVRowIndex of the
+     * file, which is built the first time it is needed and brought up to
+     * date whenever the file has changed, so a seek only parses the rows
+     * between the indexed row before it and the row itself.
+     *
+     * @param row - the next row to read, counted from 0 including any header
+     * @return this reader
+     * @throws IllegalStateException if this reader does not read a memory
+     * mapped file
+     */
+    public CSVReader seekToRow(long row) throws IllegalCSVFormatException, IOException {
+        if (mapped == null) {
+            throw new IllegalStateException("seekToRow needs a reader from fromPath of an ASCII compatible file");
+        }
+        if (rowIndex == null || row >= rowIndex.getRowCount() || !rowIndex.isCurrent()) {
+            rowIndex = CSVRowIndex.build(mapped.getPath(), getFormat(), CSVRowIndex.DEFAULT_INTERVAL);
+        }
+        mapped.skipTo(rowIndex.offsetOf(row));
+        skipRows(row - rowIndex.indexedRow(row));
+        return this;
+    }
+
+    /**
+     * skip the next n rows, whether they pass the filters or not
+     */
+    void skipRows(long n) throws IllegalCSVFormatException, IOException {
+        if (errorPolicy == ErrorPolicy.FAIL) {
+            if (mapped != null) {
+                mapped.skipRows(n);
+                return;
+            }
+            for (long i = 0; i < n && parseFields(Projection.ALL); i++) {
+                // skip
+            }
+            return;
+        }
+        // a bad row counts as a row, the same way as CSVRowIndex counts it
+        for (long i = 0; i < n; i++) {
+            try {
+                if (mapped != null ? mapped.skipRows(1) == 0 : !parseFields(Projection.ALL)) {
+                    return;
+                }
+            } catch (IllegalCSVFormatException e) {
+                if (mapped != null) {
+                    mapped.skipBadRecord(e);
+                } else {
+                    skipBadRecord(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * instance method to get the rows which are not read yet as a lazy
+     * Stream. A row is read only when the stream asks for it, so limit and
+     * findFirst stop reading early. The reader is closed when the stream is
+     * closed or when all its rows are read. A parallel stream of a reader
+     * from fromPath splits the file at row boundaries.
+     *
+     * IOException and IllegalCSVFormatException are thrown from the stream
+     * as UncheckedIOException and UncheckedCSVFormatException.
+     *
+     * @return the rows as a Stream of List of String
+     */
+    public Stream<List<String>> rows() {
+        return rows(RowSpliterator.MIN_SPLIT);
+    }
+
+    /**
+     * @param minSplit - the smallest number of bytes of a file which is split
+     */
+    Stream<List<String>> rows(long minSplit) {
+        RowSpliterator spliterator = new RowSpliterator(this, mapped, minSplit);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::closeAll);
+    }
+
+    /**
+     * parse the next row which passes the filters of the projection, and
+     * leave its selected fields in fieldStarts and fieldEnds
+     *
+     * @return false if no more row is found
+     */
+    private boolean parseRow() throws IllegalCSVFormatException, IOException {
+        Projection projection = this.projection;
+        while (true) {
+            boolean found;
+            try {
+                found = metrics == null ? parseFields(projection) : meteredParseFields(projection);
+            } catch (IllegalCSVFormatException e) {
+                recover(e, null);
+                continue;
+            }
+            if (!found) {
+                return false;
+            }
+            if (!projection.matches(buf, fieldStarts, fieldEnds, fieldCount)) {
+                continue;
+            }
+            if (projection.columns != null) {
+                project(projection.columns);
             }
+            return true;
+        }
+    }
 
-            StateAndOperation stOp = table.get(aChar).get(aState);
+    /**
+     * scan the next row of a memory mapped file, by the parser of this
+     * reader or by one split from it, applying the error policy
+     *
+     * @return false if no more row is found
+     */
+    boolean parseRow(MappedParser parser) throws IllegalCSVFormatException, IOException {
+        while (true) {
+            try {
+                return parser.parseRow();
+            } catch (IllegalCSVFormatException e) {
+                recover(e, parser);
+            }
+        }
+    }
 
-            aState = stOp.state;
-            Operation op = stOp.operation;
+    /**
+     * rethrow the exception of an illegal row, or skip and report the row,
+     * depending on the error policy
+     *
+     * @param parser - the parser of the row, or null for the chars of this
+     * reader
+     */
+    private void recover(IllegalCSVFormatException e, MappedParser parser)
+            throws IllegalCSVFormatException, IOException {
+        if (errorPolicy == ErrorPolicy.FAIL) {
+            throw e;
+        }
+        CSVBadRecord record = parser != null ? parser.skipBadRecord(e) : skipBadRecord(e);
+        Consumer<CSVBadRecord> handler;
+        synchronized (badRecords) {
+            badRecordCount++;
+            if (errorPolicy == ErrorPolicy.COLLECT && badRecords.size() < maxBadRecords) {
+                badRecords.add(record);
+            }
+            handler = errorHandler;
+        }
+        if (handler != null) {
+            handler.accept(record);
+        }
+    }
 
+    /**
+     * skip the rest of the row of the last exception, up to the first
+     * newline outside quotes. The row failed at a char after a closing quote,
+     * where no quote is open, so quotes are counted from that char on.
+     *
+     * @return the skipped row
+     */
+    private CSVBadRecord skipBadRecord(IllegalCSVFormatException e) throws IOException {
+        ParseTable table = (format != null ? format : defaultFormat).table;
+        char delimiter = table.getDelimiter();
+        char quote = table.getQuote();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < fieldCount; i++) {
+            text.append(buf, fieldStarts[i], fieldEnds[i] - fieldStarts[i]).append(delimiter);
+        }
+        text.append(buf, fieldStarts[fieldCount], errorEnd - fieldStarts[fieldCount]);
+        text.setLength(Math.min(text.length(), CSVBadRecord.MAX_TEXT));
+        boolean quoted = false;
+        boolean found = false;
+        pos--;
+        while (true) {
+            if (pos == limit) {
+                rowStart = pos;
+                fieldCount = 0;
+                fill();
+                if (pos == limit) {
+                    break;
+                }
+            }
+            char c = buf[pos++];
+            if (c == '\n') {
+                lines++;
+                lineStart = bufferPosition + pos;
+                if (!quoted) {
+                    found = true;
+                    break;
+                }
+            } else if (c == quote) {
+                quoted = !quoted;
+            }
+            if (text.length() < CSVBadRecord.MAX_TEXT) {
+                text.append(c);
+            }
+        }
+        int length = text.length();
+        if (found && length > 0 && length < CSVBadRecord.MAX_TEXT && text.charAt(length - 1) == '\r') {
+            text.setLength(length - 1);
+        }
+        rowStart = pos;
+        fieldCount = 0;
+        return new CSVBadRecord(rowPosition, rowLine + 1, text.toString(), e);
+    }
+
+    private boolean meteredParseFields(Projection projection) throws IllegalCSVFormatException, IOException {
+        CSVMetrics metrics = this.metrics;
+        metrics.beginRow();
+        long start = metrics.timing ? System.nanoTime() : 0;
+        long io = metrics.ioNanos;
+        long from = bufferPosition + pos;
+        try {
+            boolean found = parseFields(projection);
+            if (found) {
+                metrics.row(fieldCount, quotedCount);
+            }
+            return found;
+        } catch (IllegalCSVFormatException e) {
+            metrics.error(e);
+            throw e;
+        } finally {
+            metrics.chars += bufferPosition + pos - from;
+            if (metrics.timing) {
+                metrics.parseNanos += System.nanoTime() - start - (metrics.ioNanos - io);
+            }
+        }
+    }
+
+    /**
+     * replace the fields of the current row with the selected columns; a
+     * column the row does not have is empty
+     */
+    private void project(int[] columns) {
+        if (projectedStarts.length <= columns.length) {
+            projectedStarts = new int[columns.length + 1];
+            projectedEnds = new int[columns.length + 1];
+        }
+        for (int i = 0; i < columns.length; i++) {
+            int c = columns[i];
+            boolean present = c < fieldCount;
+            projectedStarts[i] = present ? fieldStarts[c] : 0;
+            projectedEnds[i] = present ? fieldEnds[c] : 0;
+        }
+        int[] starts = fieldStarts;
+        int[] ends = fieldEnds;
+        fieldStarts = projectedStarts;
+        fieldEnds = projectedEnds;
+        projectedStarts = starts;
+        projectedEnds = ends;
+        fieldCount = columns.length;
+    }
+
+    /**
+     * run the state machine over the next row, leaving its fields in
+     * fieldStarts and fieldEnds. The chars of a field which the projection
+     * does not keep are not copied, so the field is left empty.
+     *
+     * @return false if no more row is found
+     */
+    private boolean parseFields(Projection projection) throws IllegalCSVFormatException, IOException {
+        ParseTable table = (format != null ? format : defaultFormat).table;
+        byte[] classes = table.classes;
+        int[] transitions = table.transitions;
+
+        rowStart = pos;
+        fieldCount = 0;
+        if (pos == limit) {
+            fill();
+            if (pos == limit) {
+                return false;
+            }
+        }
+        rowPosition = bufferPosition + pos;
+        rowLine = lines;
+
+        char[] buf = this.buf;
+        int pos = this.pos;
+        int limit = this.limit;
+        int w = pos;
+        int state = ParseTable.START;
+        int step = projection.step(0);
+        char quote = table.getQuote();
+        boolean quoted = false;
+        int quotedCount = 0;
+        fieldStarts[0] = w;
+        while (true) {
+            if (pos == limit) {
+                this.pos = pos;
+                w -= fill();
+                buf = this.buf;
+                pos = this.pos;
+                limit = this.limit;
+                if (pos == limit) {
+                    break;
+                }
+            }
+            char c = buf[pos++];
+            int t = transitions[state + classes[c]];
+            state = t >>> ParseTable.STATE_SHIFT;
+            int op = t & ParseTable.OP_MASK;
+            if (op == ParseTable.APPEND) {
+                buf[w] = c;
+                w += step;
+                continue;
+            }
             switch (op) {
-                case APPEND ->
-                    sb.append((char) readInt);
-                case WRITE_FIELD -> {
-                    sb.append("");
-                    row.add(sb.toString());
-                    sb.delete(0, sb.length());
-                    aState = State.NOT_ESCAPED;
+                case ParseTable.NONE ->
+                    quoted |= c == quote;
+                case ParseTable.APPEND_NEWLINE -> {
+                    buf[w] = c;
+                    w += step;
+                    lines++;
+                    lineStart = bufferPosition + pos;
+                }
+                case ParseTable.WRITE_FIELD -> {
+                    endField(w, table.isTrim());
+                    step = projection.step(fieldCount);
+                    if (quoted) {
+                        quotedCount++;
+                        quoted = false;
+                    }
                 }
-                case WRITE_ROW -> {
-                    sb.append("");
-                    row.add(sb.toString());
-                    return row;
+                case ParseTable.WRITE_ROW -> {
+                    endField(w, table.isTrim());
+                    this.quotedCount = quoted ? quotedCount + 1 : quotedCount;
+                    this.pos = pos;
+                    lines++;
+                    lineStart = bufferPosition + pos;
+                    return true;
                 }
-                case THROW_EXCEPTION ->
-                    throw new IllegalCSVFormatException("Illegal CSV Format at char " + (count + 1) + ".");
-                case NONE -> {
+                case ParseTable.THROW_EXCEPTION -> {
+                    this.pos = pos;
+                    errorEnd = w;
+                    long offset = bufferPosition + pos - 1;
+                    long column = offset + 1 - lineStart;
+                    throw new IllegalCSVFormatException("Illegal CSV Format at char " + (offset + 1 - rowPosition)
+                            + ", line " + (lines + 1) + ", column " + column + ".", lines + 1, column, offset);
+                }
+                default -> {
                     /*do nothing */ }
             }
-            // do nothing
-
-            readInt = reader.read();
-            count++;
         }
 
         // When the CSV file has no newline at end of file, flow will reach here.
         // Otherwise, the previous return statement will return early.
-        sb.append("");
-        row.add(sb.toString());
-        return row;
+        endField(w, table.isTrim());
+        this.quotedCount = quoted ? quotedCount + 1 : quotedCount;
+        return true;
+    }
+
+    private void endField(int end, boolean trim) {
+        if (fieldCount + 1 == fieldStarts.length) {
+            fieldStarts = Arrays.copyOf(fieldStarts, fieldStarts.length * 2);
+            fieldEnds = Arrays.copyOf(fieldEnds, fieldEnds.length * 2);
+        }
+        int next = end;
+        if (trim) {
+            int start = fieldStarts[fieldCount];
+            while (start < end && buf[start] <= ' ') {
+                start++;
+            }
+            while (end > start && buf[end - 1] <= ' ') {
+                end--;
+            }
+            fieldStarts[fieldCount] = start;
+        }
+        fieldEnds[fieldCount++] = end;
+        fieldStarts[fieldCount] = next;
+    }
+
+    /**
+     * move the current row to the front of buf, growing buf if the row
+     * already fills it, and read more of the input after it
+     *
+     * @return the number of chars the row has been moved by
+     */
+    private int fill() throws IOException {
+        int shift = rowStart;
+        if (shift > 0) {
+            System.arraycopy(buf, shift, buf, 0, limit - shift);
+            for (int i = 0; i <= fieldCount; i++) {
+                fieldStarts[i] -= shift;
+                fieldEnds[i] -= shift;
+            }
+            pos -= shift;
+            limit -= shift;
+            rowStart = 0;
+            bufferPosition += shift;
+        } else if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n;
+        if (metrics != null && metrics.timing) {
+            long start = System.nanoTime();
+            n = reader.read(buf, limit, buf.length - limit);
+            metrics.ioNanos += System.nanoTime() - start;
+        } else {
+            n = reader.read(buf, limit, buf.length - limit);
+        }
+        if (n > 0) {
+            limit += n;
+        }
+        return shift;
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // do nothing
+        }
     }
 
     /**
@@ -404,6 +1078,15 @@ public class CSVReader implements AutoCloseable {
      */
     @Override
     public void close() {
+        if (mapped != null) {
+            try {
+                mapped.close();
+            } catch (IOException e) {
+                // do nothing
+            } finally {
+                mapped = null;
+            }
+        }
         if (reader != null) {
             try {
                 reader.close();
@@ -415,13 +1098,272 @@ public class CSVReader implements AutoCloseable {
         }
     }
 
+    /**
+     * set the format of this reader, which is used instead of the default
+     * format from the next row on
+     *
+     * @param format - the format
+     * @return this reader
+     */
+    public CSVReader withFormat(CSVFormat format) {
+        if (mapped != null) {
+            mapped.setTable(format.table);
+        }
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * return only the specified columns of every row, in the specified order.
+     * The chars of the other columns are skipped while parsing. A column a
+     * row does not have is returned as an empty String.
+     *
+     * @param columns - zero based indexes of the columns
+     * @return this reader
+     */
+    public CSVReader select(int... columns) {
+        return setProjection(projection.select(columns));
+    }
+
+    /**
+     * read the next row as the header, unless it has been read already, and
+     * return only the columns with the specified names from then on
+     *
+     * @param names - names of the columns in the header
+     * @return this reader
+     * @throws IllegalArgumentException if a name is not in the header
+     */
+    public CSVReader select(String... names) throws IllegalCSVFormatException, IOException {
+        CSVHeader header = readHeader();
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = header.indexOf(names[i]);
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("no column " + names[i] + " in the header");
+            }
+        }
+        return select(columns);
+    }
+
+    /**
+     * return only the rows whose column equals value. The column is compared
+     * before any String is created for the row, and for a file from fromPath
+     * it is compared as raw bytes when it is not quoted. Filters added with
+     * where and whereStartsWith must all pass.
+     *
+     * @param column - zero based index of the column in the input, whether
+     * it is selected or not
+     * @param value - the unescaped value
+     * @return this reader
+     */
+    public CSVReader where(int column, String value) {
+        return setProjection(projection.where(new Projection.Filter(column, value, false)));
+    }
+
+    /**
+     * return only the rows whose column starts with prefix
+     *
+     * @param column - zero based index of the column in the input, whether
+     * it is selected or not
+     * @param prefix - the unescaped prefix
+     * @return this reader
+     * @see #where(int, String)
+     */
+    public CSVReader whereStartsWith(int column, String prefix) {
+        return setProjection(projection.where(new Projection.Filter(column, prefix, true)));
+    }
+
+    private CSVReader setProjection(Projection projection) {
+        if (mapped != null) {
+            mapped.setProjection(projection);
+        }
+        this.projection = projection;
+        return this;
+    }
+
+    /**
+     * set what this reader does with a row which is not legal CSV. A reader
+     * which skips bad rows goes on with the row after the first newline
+     * which is not inside quotes, counting quotes from the start of the bad
+     * row; the rows after it are parsed at full speed again.
+     *
+     * @param policy - FAIL, the default, SKIP or COLLECT
+     * @return this reader
+     */
+    public CSVReader withErrorPolicy(ErrorPolicy policy) {
+        return withErrorPolicy(policy, DEFAULT_MAX_BAD_RECORDS);
+    }
+
+    /**
+     * @param policy - FAIL, the default, SKIP or COLLECT
+     * @param maxBadRecords - the largest number of bad rows kept by COLLECT;
+     * later ones are only counted
+     * @return this reader
+     * @see #withErrorPolicy(ErrorPolicy)
+     */
+    public CSVReader withErrorPolicy(ErrorPolicy policy, int maxBadRecords) {
+        if (maxBadRecords < 0) {
+            throw new IllegalArgumentException("maxBadRecords must not be negative");
+        }
+        this.errorPolicy = policy;
+        this.maxBadRecords = maxBadRecords;
+        return this;
+    }
+
+    /**
+     * pass every row skipped by the SKIP or COLLECT policy to handler, on
+     * the thread which reads it
+     *
+     * @param handler - the handler, or null for none
+     * @return this reader
+     */
+    public CSVReader withErrorHandler(Consumer<CSVBadRecord> handler) {
+        synchronized (badRecords) {
+            this.errorHandler = handler;
+        }
+        return this;
+    }
+
+    /**
+     * @return the bad rows kept by the COLLECT policy, in the order they
+     * were read
+     */
+    public List<CSVBadRecord> getBadRecords() {
+        synchronized (badRecords) {
+            return new ArrayList<>(badRecords);
+        }
+    }
+
+    /**
+     * @return the number of bad rows skipped, whether they are kept or not
+     */
+    public long getBadRecordCount() {
+        synchronized (badRecords) {
+            return badRecordCount;
+        }
+    }
+
+    /**
+     * return the same String instance for equal fields of the specified
+     * columns of nextRow, nextRecord and rows, such as the columns of a
+     * country or a status with a handful of distinct values. Every column
+     * keeps up to capacity values in a table keyed by their chars, so a
+     * value which is found creates no String at all; when the table is full,
+     * values which have not recurred lately are replaced. Fields longer than
+     * StringCache.MAX_LENGTH chars are not cached.
+     *
+     * @param capacity - the largest number of distinct values kept per
+     * column
+     * @param columns - zero based indexes of the columns of the rows
+     * returned, after any select; none to stop caching
+     * @return this reader
+     */
+    public CSVReader withStringCache(int capacity, int... columns) {
+        if (columns.length == 0) {
+            stringCaches = null;
+            return this;
+        }
+        int max = -1;
+        for (int c : columns) {
+            if (c < 0) {
+                throw new IllegalArgumentException("negative column " + c);
+            }
+            max = Math.max(max, c);
+        }
+        StringCache[] caches = new StringCache[max + 1];
+        for (int c : columns) {
+            caches[c] = new StringCache(capacity);
+        }
+        stringCaches = caches;
+        stringCacheCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * read the header, unless it has been read already, and cache the
+     * Strings of the columns with the specified names
+     *
+     * @param capacity - the largest number of distinct values kept per
+     * column
+     * @param names - names of the columns of the records returned, after
+     * any select
+     * @return this reader
+     * @throws IllegalArgumentException if a name is not in the header
+     * @see #withStringCache(int, int...)
+     */
+    public CSVReader withStringCache(int capacity, String... names) throws IllegalCSVFormatException, IOException {
+        readHeader();
+        CSVHeader header = recordHeader();
+        int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = header.indexOf(names[i]);
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("no column " + names[i] + " in the header");
+            }
+        }
+        return withStringCache(capacity, columns);
+    }
+
+    /**
+     * @return empty caches of the same columns as the caches of this reader,
+     * for a parser split from it, or null
+     */
+    StringCache[] newStringCaches() {
+        StringCache[] caches = stringCaches;
+        if (caches == null) {
+            return null;
+        }
+        StringCache[] copy = new StringCache[caches.length];
+        for (int c = 0; c < caches.length; c++) {
+            if (caches[c] != null) {
+                copy[c] = new StringCache(stringCacheCapacity);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * count the rows, fields, errors and time of this reader into metrics
+     * from the next row on
+     *
+     * @param metrics - the metrics, or null to stop counting
+     * @return this reader
+     */
+    public CSVReader withMetrics(CSVMetrics metrics) {
+        if (mapped != null) {
+            mapped.setMetrics(metrics);
+        }
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return the metrics of this reader, or null
+     */
+    public CSVMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the format of this reader
+     */
+    public CSVFormat getFormat() {
+        return format != null ? format : defaultFormat;
+    }
+
+    static CSVFormat getDefaultFormat() {
+        return defaultFormat;
+    }
+
     /**
      * set the delimiter if it is not comma
      *
      * @param delimiter - the delimiter, default comma (,)
+     * @deprecated the delimiter is shared by every reader in the JVM which
+     * has no format of its own; use withFormat instead
      */
+    @Deprecated
     public static void setDelimiter(char delimiter) {
-        chars.remove((int) CMA);
-        chars.put((int) delimiter, Char.COMMA);
+        defaultFormat = defaultFormat.withDelimiter(delimiter);
     }
 }
@@ -0,0 +1,97 @@
+package com.g2wang.csv;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A row read with a header: the fields of the row and a reference to the
+ * CSVHeader shared by every row of the file, which maps a column name to the
+ * index of its field. Nothing is copied per row beyond the fields themselves.
+ */
+public final class CSVRecord {
+
+    private final CSVHeader header;
+    private final List<String> values;
+
+    CSVRecord(CSVHeader header, List<String> values) {
+        this.header = header;
+        this.values = values;
+    }
+
+    /**
+     * static method to get a record of the specified fields, such as a record
+     * to write with CSVWriter.write(CSVRecord)
+     */
+    public static CSVRecord of(CSVHeader header, List<String> values) {
+        return new CSVRecord(header, List.copyOf(values));
+    }
+
+    public CSVHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of fields of the row, which may differ from the
+     * number of columns of the header
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @param i - index of the field
+     */
+    public String get(int i) {
+        return values.get(i);
+    }
+
+    /**
+     * @param name - name of the column in the header
+     * @return the field of the column; a column the row does not have is
+     * an empty String
+     * @throws IllegalArgumentException if the name is not in the header
+     */
+    public String get(String name) {
+        int i = header.indexOf(name);
+        if (i < 0) {
+            throw new IllegalArgumentException("no column " + name + " in the header");
+        }
+        return i < values.size() ? values.get(i) : "";
+    }
+
+    /**
+     * @return whether the header has a column of the specified name
+     */
+    public boolean isMapped(String name) {
+        return header.indexOf(name) >= 0;
+    }
+
+    /**
+     * @return the fields of the row
+     */
+    public List<String> toList() {
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * copy the row into a new Map from column name to field, in the order of
+     * the header; the first of several columns with the same name wins
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.getName(i);
+            if (name != null) {
+                map.putIfAbsent(name, i < values.size() ? values.get(i) : "");
+            }
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
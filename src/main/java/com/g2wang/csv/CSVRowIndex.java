@@ -0,0 +1,317 @@
+package com.g2wang.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The byte offset of every Nth row of a local CSV file, kept in a sidecar
+ * file next to it so that a reader can start at any row without parsing the
+ * rows before it.
+ *
+ * Rows are counted the same way CSVParallelReader splits a file: a newline
+ * ends a row unless an odd number of quotes precedes it. Rows are counted
+ * from 0, including any header row. The file must be ASCII compatible
+ * (UTF-8, US-ASCII or ISO-8859-1).
+ *
+ * The sidecar remembers the size and modification time of the file, where
+ * its scan stopped and a CRC32C of all the bytes before that point. A file
+ * of the same size and time is taken as unchanged. Otherwise build hashes
+ * the indexed bytes again: if they are the same, as after an append, it
+ * scans only the bytes after them; if not, the whole file again.
+ */
+public final class CSVRowIndex {
+
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    private static final int MAGIC = 0x43535649; // CSVI
+    private static final int VERSION = 2;
+    private static final int SCAN_BLOCK = 4096;
+
+    private final Path path;
+    private final int interval;
+    private final byte quote;
+
+    /**
+     * offsets[k] is the offset of row k * interval
+     */
+    private long[] offsets;
+    private int offsetCount;
+
+    /**
+     * the scan stopped at the start of row rows, at offset indexedLength
+     */
+    private long rows;
+    private long indexedLength;
+    private long check;
+
+    /**
+     * the size and modification time of the file when it was indexed
+     */
+    private long fileSize;
+    private long modified;
+
+    /**
+     * whether bytes follow indexedLength, which are a last row without a
+     * newline
+     */
+    private boolean partialRow;
+
+    private CSVRowIndex(Path path, int interval, byte quote) {
+        this.path = path;
+        this.interval = interval;
+        this.quote = quote;
+        this.offsets = new long[16];
+        this.offsets[0] = 0;
+        this.offsetCount = 1;
+    }
+
+    /**
+     * static method to get the index of a UTF-8 CSV file with the quote of
+     * the default format, updating its sidecar file if needed
+     */
+    public static CSVRowIndex build(final Path csvFile) throws IOException {
+        return build(csvFile, CSVReader.getDefaultFormat(), DEFAULT_INTERVAL);
+    }
+
+    /**
+     * static method to get the index of a CSV file, updating its sidecar file
+     * if the file has changed since it was written, or if it was written for
+     * another quote or interval
+     *
+     * @param csvFile - csv file path
+     * @param format - the format whose quote is used to find quoted newlines
+     * @param interval - the number of rows between two indexed rows
+     */
+    public static CSVRowIndex build(final Path csvFile, CSVFormat format, int interval) throws IOException {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        if (format.getQuote() > 0x7f) {
+            throw new IllegalArgumentException("the quote of an indexed file must be ASCII");
+        }
+        byte quote = (byte) format.getQuote();
+        Path sidecar = sidecar(csvFile);
+        CSVRowIndex index = load(csvFile, sidecar, interval, quote);
+        // taken before the scan, so that a change while scanning is seen next time
+        long size = Files.size(csvFile);
+        long modified = Files.getLastModifiedTime(csvFile).toMillis();
+        if (index != null && index.fileSize == size && index.modified == modified) {
+            return index;
+        }
+        CRC32C crc = new CRC32C();
+        if (index == null || index.indexedLength > size
+                || index.update(crc, 0, index.indexedLength) != index.check) {
+            index = new CSVRowIndex(csvFile, interval, quote);
+            crc.reset();
+        }
+        long indexedLength = index.indexedLength;
+        index.scan(size);
+        index.check = index.update(crc, indexedLength, index.indexedLength);
+        index.fileSize = size;
+        index.modified = modified;
+        index.save(sidecar);
+        return index;
+    }
+
+    /**
+     * @return whether the file has the size and modification time it was indexed at
+     */
+    boolean isCurrent() throws IOException {
+        return Files.size(path) == fileSize && Files.getLastModifiedTime(path).toMillis() == modified;
+    }
+
+    /**
+     * @return the path of the sidecar file of a CSV file
+     */
+    public static Path sidecar(Path csvFile) {
+        return csvFile.resolveSibling(csvFile.getFileName() + ".idx");
+    }
+
+    /**
+     * @return the number of rows of the file when it was indexed
+     */
+    public long getRowCount() {
+        return rows + (partialRow ? 1 : 0);
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the offset of the last indexed row at or before row
+     */
+    public long offsetOf(long row) {
+        if (row < 0) {
+            throw new IllegalArgumentException("negative row " + row);
+        }
+        return offsets[(int) Math.min(row / interval, offsetCount - 1)];
+    }
+
+    /**
+     * @return the row at offsetOf(row)
+     */
+    long indexedRow(long row) {
+        return Math.min(row / interval, offsetCount - 1) * interval;
+    }
+
+    /**
+     * open a reader of the UTF-8 file which starts at the specified row
+     */
+    public CSVReader openAt(long row) throws IllegalCSVFormatException, IOException {
+        return openAt(row, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * open a reader of the file which starts at the specified row
+     *
+     * @param row - the first row the reader returns
+     * @param charset - UTF-8, US-ASCII or ISO-8859-1
+     */
+    public CSVReader openAt(long row, Charset charset) throws IllegalCSVFormatException, IOException {
+        CSVReader reader = CSVReader.openAt(path, charset, offsetOf(row));
+        try {
+            reader.skipRows(row - indexedRow(row));
+        } catch (IllegalCSVFormatException | IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    /**
+     * continue the scan from indexedLength to the end of the file
+     */
+    private void scan(long size) throws IOException {
+        if (indexedLength == size) {
+            partialRow = false;
+            return;
+        }
+        StructuralScanner scanner = StructuralScanner.getDefault();
+        int[] positions = new int[SCAN_BLOCK];
+        boolean quoted = false;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (long start = indexedLength; start < size; start += MappedParser.WINDOW_SIZE) {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MappedParser.WINDOW_SIZE, size - start));
+                buf.order(ByteOrder.LITTLE_ENDIAN);
+                for (int from = 0, limit = buf.limit(); from < limit; from += SCAN_BLOCK) {
+                    int to = Math.min(limit, from + SCAN_BLOCK);
+                    // a newline as the delimiter finds quotes, CRs and newlines
+                    int n = scanner.index(buf, from, to, (byte) '\n', quote, positions);
+                    for (int i = 0; i < n; i++) {
+                        byte b = buf.get(positions[i]);
+                        if (b == quote) {
+                            quoted = !quoted;
+                        } else if (b == '\n' && !quoted) {
+                            rowEnd(start + positions[i] + 1);
+                        }
+                    }
+                }
+            }
+        }
+        partialRow = indexedLength < size;
+    }
+
+    private void rowEnd(long next) {
+        rows++;
+        indexedLength = next;
+        if (rows % interval == 0) {
+            if (offsetCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsetCount * 2);
+            }
+            offsets[offsetCount++] = next;
+        }
+    }
+
+    /**
+     * add the bytes of the file from from to to to crc
+     *
+     * @return the value of crc
+     */
+    private long update(CRC32C crc, long from, long to) throws IOException {
+        if (from < to) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                for (long start = from; start < to; start += MappedParser.WINDOW_SIZE) {
+                    crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                            Math.min(MappedParser.WINDOW_SIZE, to - start)));
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static CSVRowIndex load(Path csvFile, Path sidecar, int interval, byte quote) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != interval || in.readByte() != quote) {
+                return null;
+            }
+            CSVRowIndex index = new CSVRowIndex(csvFile, interval, quote);
+            index.rows = in.readLong();
+            index.indexedLength = in.readLong();
+            index.check = in.readLong();
+            index.fileSize = in.readLong();
+            index.modified = in.readLong();
+            index.partialRow = in.readBoolean();
+            int count = in.readInt();
+            index.offsets = new long[Math.max(16, count)];
+            for (int i = 0; i < count; i++) {
+                index.offsets[i] = in.readLong();
+            }
+            index.offsetCount = count;
+            return index;
+        } catch (IOException e) {
+            // a missing, truncated or unreadable sidecar is built again
+            return null;
+        }
+    }
+
+    /**
+     * write the sidecar to a temporary file of its own and move it into
+     * place, so that a reader never sees half of it and two builders of the
+     * same file do not write to one temporary file
+     */
+    private void save(Path sidecar) throws IOException {
+        Path tmp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+        try {
+            write(tmp);
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(interval);
+            out.writeByte(quote);
+            out.writeLong(rows);
+            out.writeLong(indexedLength);
+            out.writeLong(check);
+            out.writeLong(fileSize);
+            out.writeLong(modified);
+            out.writeBoolean(partialRow);
+            out.writeInt(offsetCount);
+            for (int i = 0; i < offsetCount; i++) {
+                out.writeLong(offsets[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.g2wang.csv;
+
+import java.util.Arrays;
+
+/**
+ * The types of the columns of a row, used by CSVReader.readBatch to parse
+ * fields straight into the primitive arrays of a ColumnarBatch. Column i of
+ * the schema is field i of the row, after any select of the reader.
+ */
+public final class CSVSchema {
+
+    public enum Type {
+        /**
+         * parsed into an int[]
+         */
+        INT,
+        /**
+         * parsed into a long[]
+         */
+        LONG,
+        /**
+         * parsed into a double[]
+         */
+        DOUBLE,
+        /**
+         * true or false in any case, parsed into a boolean[]
+         */
+        BOOLEAN,
+        /**
+         * an ISO date such as 2021-11-01, parsed into an int[] of epoch days
+         */
+        DATE,
+        /**
+         * dictionary encoded into an int[] of ids
+         */
+        STRING
+    }
+
+    private final Type[] types;
+
+    private CSVSchema(Type[] types) {
+        this.types = types;
+    }
+
+    /**
+     * static method to get a schema of the specified column types
+     */
+    public static CSVSchema of(Type... types) {
+        for (Type t : types) {
+            if (t == null) {
+                throw new IllegalArgumentException("a column type must not be null");
+            }
+        }
+        return new CSVSchema(types.clone());
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int size() {
+        return types.length;
+    }
+
+    public Type getType(int column) {
+        return types[column];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CSVSchema && Arrays.equals(types, ((CSVSchema) o).types);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(types);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(types);
+    }
+}
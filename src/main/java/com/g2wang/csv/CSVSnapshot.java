@@ -0,0 +1,590 @@
+package com.g2wang.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * The rows of a local CSV file, parsed once by CSVReader and kept in a
+ * binary sidecar file next to it, so that later runs read them from a
+ * memory mapped file instead of parsing the CSV again.
+ *
+ * The sidecar holds the rows in row groups of a fixed number of rows. Every
+ * column of a row group is stored on its own as UTF-8 bytes with an offset
+ * per row, or, when it has few distinct values, as a dictionary and an id
+ * per row. An index at the end of the file gives the position of every row
+ * group, so any row is found without reading the groups before it.
+ *
+ * The sidecar is keyed on the size, the modification time and a CRC32C of
+ * the content of the CSV file, and on the format and charset it was parsed
+ * with. open builds it again whenever the file has changed; a file which is
+ * only touched is recognised by its checksum and not parsed again.
+ *
+ * An instance is not thread safe; open one per thread.
+ */
+public final class CSVSnapshot implements AutoCloseable {
+
+    public static final int DEFAULT_ROW_GROUP_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x43535653; // CSVS
+    private static final int VERSION = 1;
+    private static final int MTIME_POSITION = 16;
+    private static final int FOOTER_SIZE = 12;
+
+    private static final byte PLAIN = 0;
+    private static final byte DICTIONARY = 1;
+
+    private final FileChannel channel;
+    private final int rowGroupSize;
+    private long rows;
+    private int columns;
+    private long[] groupOffsets;
+    private int[] groupLengths;
+
+    /**
+     * the row group read last
+     */
+    private int group = -1;
+    private MappedByteBuffer groupBuf;
+    private int groupRows;
+    private int groupColumns;
+    private int[] widths;
+    private int width;
+    private int[] columnPositions;
+    private String[][] dictionaries;
+    private byte[] scratch = new byte[256];
+
+    private CSVSnapshot(FileChannel channel, int rowGroupSize) {
+        this.channel = channel;
+        this.rowGroupSize = rowGroupSize;
+    }
+
+    /**
+     * static method to get the snapshot of a UTF-8 CSV file in the default
+     * format, building its sidecar file if needed
+     */
+    public static CSVSnapshot open(final Path csvFile) throws IllegalCSVFormatException, IOException {
+        return open(csvFile, StandardCharsets.UTF_8, CSVReader.getDefaultFormat(), DEFAULT_ROW_GROUP_SIZE);
+    }
+
+    /**
+     * static method to get the snapshot of a CSV file, building its sidecar
+     * file again if the file has changed since it was written, or if it was
+     * written for another charset or format
+     *
+     * @param csvFile - csv file path
+     * @param charset - charset of the file
+     * @param format - the format the file is parsed with
+     * @param rowGroupSize - the number of rows of a row group, when the sidecar is built
+     */
+    public static CSVSnapshot open(final Path csvFile, Charset charset, CSVFormat format, int rowGroupSize)
+            throws IllegalCSVFormatException, IOException {
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException("rowGroupSize must be positive");
+        }
+        Path sidecar = sidecar(csvFile);
+        CSVSnapshot snapshot = load(csvFile, sidecar, charset, format);
+        if (snapshot == null) {
+            try {
+                build(csvFile, sidecar, charset, format, rowGroupSize);
+            } catch (IOException e) {
+                // another opener may have put a valid sidecar in place first
+                snapshot = load(csvFile, sidecar, charset, format);
+                if (snapshot == null) {
+                    throw e;
+                }
+                return snapshot;
+            }
+            snapshot = load(csvFile, sidecar, charset, format);
+            if (snapshot == null) {
+                throw new IOException("the snapshot of " + csvFile + " changed while it was read");
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the path of the sidecar file of a CSV file
+     */
+    public static Path sidecar(Path csvFile) {
+        return csvFile.resolveSibling(csvFile.getFileName() + ".snap");
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return the number of fields of the widest row
+     */
+    public int getColumnCount() {
+        return columns;
+    }
+
+    public int getRowGroupCount() {
+        return groupOffsets.length;
+    }
+
+    public int getRowGroupSize() {
+        return rowGroupSize;
+    }
+
+    /**
+     * @param row - zero based row, including any header row
+     * @return the fields of the row
+     */
+    public List<String> getRow(long row) throws IOException {
+        int r = seek(row);
+        int n = widthOf(r);
+        String[] fields = new String[n];
+        for (int c = 0; c < n; c++) {
+            fields[c] = field(c, r);
+        }
+        return Arrays.asList(fields);
+    }
+
+    /**
+     * @param row - zero based row
+     * @param column - zero based column
+     * @return the field, or an empty String if the row does not have the column
+     */
+    public String get(long row, int column) throws IOException {
+        int r = seek(row);
+        return column < widthOf(r) ? field(column, r) : "";
+    }
+
+    /**
+     * read a column of a row group without the other columns
+     *
+     * @param rowGroup - the row group, holding rows from rowGroup * getRowGroupSize()
+     * @param column - zero based column
+     * @return the fields of the column, an empty String for a row without it
+     */
+    public String[] readColumn(int rowGroup, int column) throws IOException {
+        if (rowGroup < 0 || rowGroup >= groupOffsets.length) {
+            throw new IndexOutOfBoundsException("row group " + rowGroup);
+        }
+        loadGroup(rowGroup);
+        String[] values = new String[groupRows];
+        for (int r = 0; r < groupRows; r++) {
+            values[r] = column < widthOf(r) ? field(column, r) : "";
+        }
+        return values;
+    }
+
+    /**
+     * @return the rows from the first one on, read lazily
+     */
+    public Stream<List<String>> rows() {
+        Spliterator<List<String>> spliterator = new Spliterators.AbstractSpliterator<>(rows,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED) {
+            private long next = 0;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super List<String>> action) {
+                if (next >= rows) {
+                    return false;
+                }
+                try {
+                    action.accept(getRow(next++));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return true;
+            }
+        };
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        groupBuf = null;
+        channel.close();
+    }
+
+    /**
+     * @return the row within its row group
+     */
+    private int seek(long row) throws IOException {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("row " + row);
+        }
+        loadGroup((int) (row / rowGroupSize));
+        return (int) (row % rowGroupSize);
+    }
+
+    private void loadGroup(int g) throws IOException {
+        if (g == group) {
+            return;
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, groupOffsets[g], groupLengths[g]);
+        int n = buf.getInt(0);
+        int columnCount = buf.getInt(4);
+        int w = buf.getInt(8);
+        int pos = 12;
+        int[] ws = null;
+        if (w < 0) {
+            ws = new int[n];
+            for (int r = 0; r < n; r++, pos += 4) {
+                ws[r] = buf.getInt(pos);
+            }
+        }
+        int[] positions = new int[columnCount];
+        for (int c = 0; c < columnCount; c++, pos += 4) {
+            positions[c] = buf.getInt(pos);
+        }
+        groupBuf = buf;
+        groupRows = n;
+        groupColumns = columnCount;
+        width = w;
+        widths = ws;
+        columnPositions = positions;
+        dictionaries = new String[columnCount][];
+        group = g;
+    }
+
+    private int widthOf(int r) {
+        return widths == null ? width : widths[r];
+    }
+
+    private String field(int c, int r) {
+        if (c >= groupColumns) {
+            return "";
+        }
+        MappedByteBuffer buf = groupBuf;
+        int pos = columnPositions[c];
+        if (buf.get(pos) == PLAIN) {
+            int data = pos + 1 + 4 * (groupRows + 1);
+            int start = buf.getInt(pos + 1 + 4 * r);
+            int end = buf.getInt(pos + 5 + 4 * r);
+            return decode(buf, data + start, end - start);
+        }
+        String[] dictionary = dictionaries[c];
+        if (dictionary == null) {
+            dictionary = dictionaries[c] = readDictionary(buf, pos + 1);
+        }
+        int size = dictionary.length;
+        int ids = pos + 1 + 4 + 4 * (size + 1) + buf.getInt(pos + 5 + 4 * size);
+        int id = switch (idWidth(size)) {
+            case 1 -> buf.get(ids + r) & 0xff;
+            case 2 -> buf.getShort(ids + 2 * r) & 0xffff;
+            default -> buf.getInt(ids + 4 * r);
+        };
+        return dictionary[id];
+    }
+
+    private String[] readDictionary(MappedByteBuffer buf, int pos) {
+        int size = buf.getInt(pos);
+        int data = pos + 4 + 4 * (size + 1);
+        String[] dictionary = new String[size];
+        for (int i = 0; i < size; i++) {
+            int start = buf.getInt(pos + 4 + 4 * i);
+            int end = buf.getInt(pos + 8 + 4 * i);
+            dictionary[i] = decode(buf, data + start, end - start);
+        }
+        return dictionary;
+    }
+
+    private String decode(MappedByteBuffer buf, int pos, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buf.get(pos, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static int idWidth(int dictionarySize) {
+        return dictionarySize <= 0x100 ? 1 : dictionarySize <= 0x10000 ? 2 : 4;
+    }
+
+    /**
+     * @return the snapshot in sidecar if it is one of csvFile as it is now,
+     * for the charset and format, or null
+     */
+    private static CSVSnapshot load(Path csvFile, Path sidecar, Charset charset, CSVFormat format)
+            throws IOException {
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+        long size = Files.size(csvFile);
+        long mtime = Files.getLastModifiedTime(csvFile).toMillis();
+        FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != size) {
+                channel.close();
+                return null;
+            }
+            long storedMtime = in.readLong();
+            long hash = in.readLong();
+            if (in.readChar() != format.getDelimiter() || in.readChar() != format.getQuote()
+                    || in.readBoolean() != format.isTrim() || in.readBoolean() != format.isLenientQuotes()
+                    || !in.readUTF().equals(charset.name())) {
+                channel.close();
+                return null;
+            }
+            int rowGroupSize = in.readInt();
+            long length = channel.size();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            channel.read(footer, length - FOOTER_SIZE);
+            long indexOffset = footer.getLong(0);
+            if (footer.getInt(8) != MAGIC) {
+                channel.close();
+                return null;
+            }
+            if (storedMtime != mtime) {
+                // touched or copied; the same content is kept under the new time
+                if (hash(csvFile, size) != hash) {
+                    channel.close();
+                    return null;
+                }
+                touch(sidecar, mtime);
+            }
+            CSVSnapshot snapshot = new CSVSnapshot(channel, rowGroupSize);
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+                    length - FOOTER_SIZE - indexOffset);
+            snapshot.rows = index.getLong(0);
+            snapshot.columns = index.getInt(8);
+            int groups = index.getInt(12);
+            snapshot.groupOffsets = new long[groups];
+            snapshot.groupLengths = new int[groups];
+            for (int g = 0, pos = 16; g < groups; g++, pos += 12) {
+                snapshot.groupOffsets[g] = index.getLong(pos);
+                snapshot.groupLengths[g] = index.getInt(pos + 8);
+            }
+            return snapshot;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            // a truncated or unreadable sidecar is built again
+            return null;
+        }
+    }
+
+    private static void touch(Path sidecar, long mtime) {
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(8).putLong(0, mtime), MTIME_POSITION);
+        } catch (IOException e) {
+            // a read only sidecar is still valid, only checked again next time
+        }
+    }
+
+    /**
+     * parse csvFile and write the sidecar to a temporary file of its own,
+     * then move it into place, so that a reader never sees half of it and two
+     * openers of the same file do not write to one temporary file
+     */
+    private static void build(Path csvFile, Path sidecar, Charset charset, CSVFormat format, int rowGroupSize)
+            throws IllegalCSVFormatException, IOException {
+        // taken before parsing, so that a change while parsing invalidates the sidecar
+        long size = Files.size(csvFile);
+        long mtime = Files.getLastModifiedTime(csvFile).toMillis();
+        long hash = hash(csvFile, size);
+        Path tmp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+        try {
+            write(csvFile, tmp, charset, format, rowGroupSize, size, mtime, hash);
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IllegalCSVFormatException | IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static void write(Path csvFile, Path tmp, Charset charset, CSVFormat format, int rowGroupSize, long size,
+            long mtime, long hash) throws IllegalCSVFormatException, IOException {
+        try (CSVReader reader = CSVReader.fromPath(csvFile, charset).withFormat(format);
+                OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(mtime);
+            out.writeLong(hash);
+            out.writeChar(format.getDelimiter());
+            out.writeChar(format.getQuote());
+            out.writeBoolean(format.isTrim());
+            out.writeBoolean(format.isLenientQuotes());
+            out.writeUTF(charset.name());
+            out.writeInt(rowGroupSize);
+            long position = out.size();
+
+            List<long[]> index = new ArrayList<>();
+            List<String[]> group = new ArrayList<>(Math.min(rowGroupSize, 4096));
+            RowBuffer row = new RowBuffer();
+            long rows = 0;
+            int columns = 0;
+            boolean more = true;
+            while (more) {
+                more = reader.nextRow(row);
+                if (more) {
+                    String[] fields = new String[row.size()];
+                    for (int i = 0; i < fields.length; i++) {
+                        fields[i] = row.getString(i);
+                    }
+                    columns = Math.max(columns, fields.length);
+                    group.add(fields);
+                    rows++;
+                }
+                if (group.size() == rowGroupSize || !more && !group.isEmpty()) {
+                    byte[] bytes = encodeGroup(group);
+                    file.write(bytes);
+                    index.add(new long[]{position, bytes.length});
+                    position += bytes.length;
+                    group.clear();
+                }
+            }
+
+            DataOutputStream indexOut = new DataOutputStream(file);
+            indexOut.writeLong(rows);
+            indexOut.writeInt(columns);
+            indexOut.writeInt(index.size());
+            for (long[] entry : index) {
+                indexOut.writeLong(entry[0]);
+                indexOut.writeInt((int) entry[1]);
+            }
+            indexOut.writeLong(position);
+            indexOut.writeInt(MAGIC);
+        }
+    }
+
+    /**
+     * a row group: its row count, column count, the width of every row or
+     * of all of them, the position of every column, then the columns
+     */
+    private static byte[] encodeGroup(List<String[]> group) throws IOException {
+        int n = group.size();
+        int columnCount = 0;
+        boolean ragged = false;
+        for (String[] fields : group) {
+            ragged |= columnCount != 0 && fields.length != columnCount;
+            columnCount = Math.max(columnCount, fields.length);
+        }
+        ragged |= group.get(0).length != columnCount;
+        byte[][] encoded = new byte[columnCount][];
+        for (int c = 0; c < columnCount; c++) {
+            encoded[c] = encodeColumn(group, c);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(n);
+        out.writeInt(columnCount);
+        out.writeInt(ragged ? -1 : columnCount);
+        if (ragged) {
+            for (String[] fields : group) {
+                out.writeInt(fields.length);
+            }
+        }
+        int position = out.size() + 4 * columnCount;
+        for (byte[] column : encoded) {
+            out.writeInt(position);
+            position += column.length;
+        }
+        for (byte[] column : encoded) {
+            out.write(column);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * a dictionary column when at most a quarter of its values are distinct,
+     * else a plain column
+     */
+    private static byte[] encodeColumn(List<String[]> group, int c) throws IOException {
+        int n = group.size();
+        int limit = n / 4;
+        Map<String, Integer> ids = new HashMap<>();
+        for (String[] fields : group) {
+            ids.putIfAbsent(c < fields.length ? fields[c] : "", ids.size());
+            if (ids.size() > limit) {
+                ids = null;
+                break;
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (ids == null) {
+            out.writeByte(PLAIN);
+            byte[][] values = new byte[n][];
+            for (int r = 0; r < n; r++) {
+                String[] fields = group.get(r);
+                values[r] = c < fields.length ? fields[c].getBytes(StandardCharsets.UTF_8) : new byte[0];
+            }
+            writeStrings(out, values);
+            return bytes.toByteArray();
+        }
+        out.writeByte(DICTIONARY);
+        byte[][] values = new byte[ids.size()][];
+        for (Map.Entry<String, Integer> e : ids.entrySet()) {
+            values[e.getValue()] = e.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+        out.writeInt(values.length);
+        writeStrings(out, values);
+        int idWidth = idWidth(values.length);
+        for (String[] fields : group) {
+            int id = ids.get(c < fields.length ? fields[c] : "");
+            switch (idWidth) {
+                case 1 -> out.writeByte(id);
+                case 2 -> out.writeShort(id);
+                default -> out.writeInt(id);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * the end offset of every value after a 0, then the values
+     */
+    private static void writeStrings(DataOutputStream out, byte[][] values) throws IOException {
+        int offset = 0;
+        out.writeInt(0);
+        for (byte[] value : values) {
+            offset += value.length;
+            out.writeInt(offset);
+        }
+        for (byte[] value : values) {
+            out.write(value);
+        }
+    }
+
+    /**
+     * @return the CRC32C of the first size bytes of a file
+     */
+    static long hash(Path file, long size) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (long start = 0; start < size; start += MappedParser.WINDOW_SIZE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MappedParser.WINDOW_SIZE, size - start)));
+            }
+        }
+        return crc.getValue();
+    }
+}
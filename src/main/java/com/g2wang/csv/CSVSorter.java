@@ -0,0 +1,975 @@
+package com.g2wang.csv;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts the rows of a CSV file of any size by some of its columns within a
+ * memory budget, and optionally drops the rows whose key equals the key of
+ * a row before them.
+ *
+ * The rows are read into runs of about memoryLimit / (threads + 1) bytes of
+ * chars, at most MAX_RUN_BYTES as the chars of a run are one array. Every
+ * run is sorted and written to a temporary file on a thread of a pool while
+ * the next run is read; the runs are then merged through a heap, at most
+ * FAN_IN at a time. Keys are compared on the chars of the fields, and no
+ * String is created for a row. The sort is stable: rows with equal keys
+ * keep their input order, and distinct keeps the first of them.
+ *
+ * An input which fits in one run is sorted in memory without temporary files.
+ */
+public final class CSVSorter {
+
+    /**
+     * compares two fields, each given as a range of a char array
+     */
+    @FunctionalInterface
+    public interface FieldComparator {
+
+        int compare(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo);
+
+        /**
+         * the order of String.compareTo
+         */
+        FieldComparator LEXICOGRAPHIC = new FieldComparator() {
+            @Override
+            public int compare(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo) {
+                return Arrays.compare(a, aFrom, aTo, b, bFrom, bTo);
+            }
+
+            @Override
+            public long prefix(char[] a, int from, int to) {
+                // the first four chars
+                long p = 0;
+                for (int i = 0; i < 4; i++) {
+                    p = p << 16 | (from + i < to ? a[from + i] : 0);
+                }
+                return p;
+            }
+        };
+
+        /**
+         * decimal numbers such as -12 or 3.50 by value, then any other
+         * field in the order of String.compareTo
+         */
+        FieldComparator NUMERIC = new FieldComparator() {
+            @Override
+            public int compare(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo) {
+                return compareNumbers(a, aFrom, aTo, b, bFrom, bTo);
+            }
+
+            @Override
+            public long prefix(char[] a, int from, int to) {
+                return numberPrefix(a, from, to);
+            }
+        };
+
+        /**
+         * a key whose unsigned order agrees with compare wherever two keys
+         * differ, used to sort without comparing the fields themselves.
+         * Equal keys tell nothing; the default is 0 for every field.
+         */
+        default long prefix(char[] a, int from, int to) {
+            return 0;
+        }
+
+        default FieldComparator reversed() {
+            FieldComparator comparator = this;
+            return new FieldComparator() {
+                @Override
+                public int compare(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo) {
+                    return comparator.compare(b, bFrom, bTo, a, aFrom, aTo);
+                }
+
+                @Override
+                public long prefix(char[] a, int from, int to) {
+                    return ~comparator.prefix(a, from, to);
+                }
+            };
+        }
+    }
+
+    public static final long DEFAULT_MEMORY_LIMIT = 256L * 1024 * 1024;
+
+    static final int FAN_IN = 64;
+
+    /**
+     * the longest char array the VM allocates
+     */
+    static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    static final long MAX_RUN_BYTES = 2L * MAX_ARRAY_SIZE;
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private int[] columns;
+    private FieldComparator[] comparators;
+    private CSVFormat format = CSVReader.getDefaultFormat();
+    private Charset charset = StandardCharsets.UTF_8;
+    private long memoryLimit = DEFAULT_MEMORY_LIMIT;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private Path tempDirectory = null;
+    private boolean distinct = false;
+    private boolean header = false;
+
+    private CSVSorter(int[] columns, FieldComparator[] comparators) {
+        this.columns = columns;
+        this.comparators = comparators;
+    }
+
+    /**
+     * static method to get a sorter by the specified columns, each compared
+     * lexicographically
+     *
+     * @param columns - zero based indexes of the key columns, most significant first
+     */
+    public static CSVSorter by(int... columns) {
+        if (columns.length == 0) {
+            throw new IllegalArgumentException("no key columns");
+        }
+        FieldComparator[] comparators = new FieldComparator[columns.length];
+        Arrays.fill(comparators, FieldComparator.LEXICOGRAPHIC);
+        return new CSVSorter(checkColumns(columns.clone()), comparators);
+    }
+
+    /**
+     * static method to get a sorter by one column
+     *
+     * @param column - zero based index of the key column
+     * @param comparator - the order of the column
+     */
+    public static CSVSorter by(int column, FieldComparator comparator) {
+        return new CSVSorter(checkColumns(new int[]{column}), new FieldComparator[]{comparator});
+    }
+
+    /**
+     * add a less significant key column
+     *
+     * @param column - zero based index of the key column
+     * @param comparator - the order of the column
+     * @return this sorter
+     */
+    public CSVSorter thenBy(int column, FieldComparator comparator) {
+        columns = Arrays.copyOf(columns, columns.length + 1);
+        columns[columns.length - 1] = column;
+        checkColumns(columns);
+        comparators = Arrays.copyOf(comparators, comparators.length + 1);
+        comparators[comparators.length - 1] = comparator;
+        return this;
+    }
+
+    private static int[] checkColumns(int[] columns) {
+        for (int c : columns) {
+            if (c < 0) {
+                throw new IllegalArgumentException("negative column " + c);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * set the format and charset of sort(Path, Path)
+     *
+     * @return this sorter
+     */
+    public CSVSorter withFormat(CSVFormat format, Charset charset) {
+        this.format = format;
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * @param memoryLimit - about the most bytes the rows being sorted take
+     * @return this sorter
+     */
+    public CSVSorter withMemoryLimit(long memoryLimit) {
+        if (memoryLimit < 1024 * 1024) {
+            throw new IllegalArgumentException("memoryLimit must be at least 1 MB");
+        }
+        this.memoryLimit = memoryLimit;
+        return this;
+    }
+
+    /**
+     * @param threads - the number of runs sorted and written at the same time
+     * @return this sorter
+     */
+    public CSVSorter withThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param tempDirectory - the directory of the runs, or null for the default temporary directory
+     * @return this sorter
+     */
+    public CSVSorter withTempDirectory(Path tempDirectory) {
+        this.tempDirectory = tempDirectory;
+        return this;
+    }
+
+    /**
+     * @param distinct - whether to keep only the first row of every key
+     * @return this sorter
+     */
+    public CSVSorter withDistinct(boolean distinct) {
+        this.distinct = distinct;
+        return this;
+    }
+
+    /**
+     * @param header - whether the first row is a header, written first and not sorted
+     * @return this sorter
+     */
+    public CSVSorter withHeader(boolean header) {
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * sort a CSV file into another file
+     *
+     * @param input - the file to sort
+     * @param output - the sorted file, created or replaced
+     * @return the number of rows written, without the header
+     */
+    public long sort(Path input, Path output) throws IllegalCSVFormatException, IOException {
+        try (CSVReader reader = CSVReader.fromPath(input, charset).withFormat(format);
+                CSVWriter writer = CSVWriter.toPath(output, charset).withFormat(format)) {
+            return sort(reader, writer);
+        }
+    }
+
+    /**
+     * @return the bytes of a run
+     */
+    static long runBudget(long memoryLimit, int threads) {
+        return Math.min(memoryLimit / (threads + 1), MAX_RUN_BYTES);
+    }
+
+    /**
+     * sort the rows of a reader into a writer. Neither is closed.
+     *
+     * @return the number of rows written, without the header
+     */
+    public long sort(CSVReader reader, CSVWriter writer) throws IllegalCSVFormatException, IOException {
+        RowBuffer row = new RowBuffer();
+        if (header && reader.nextRow(row)) {
+            writer.write(row.size(), row::get);
+        }
+        long budget = runBudget(memoryLimit, threads);
+        Rows first = new Rows();
+        if (!fill(reader, row, first, budget)) {
+            // all rows fit in one run
+            CSVOutput out = new CSVOutput(writer);
+            int[] order = sortedOrder(first);
+            int last = -1;
+            for (int r : order) {
+                if (!(distinct && last >= 0 && compare(first, last, first, r) == 0)) {
+                    out.accept(first, r);
+                }
+                last = r;
+            }
+            writer.flush();
+            return out.count;
+        }
+
+        // every temporary file, deleted at the end
+        List<Path> files = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "csv-sorter");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Path> runs = spillAll(reader, row, first, budget, pool, files);
+            while (runs.size() > FAN_IN) {
+                // merging neighbouring runs keeps the sort stable
+                List<Path> merged = new ArrayList<>();
+                for (int i = 0; i < runs.size(); i += FAN_IN) {
+                    List<Path> group = runs.subList(i, Math.min(i + FAN_IN, runs.size()));
+                    Path run = newRun(files);
+                    try (RunWriter out = new RunWriter(Files.newOutputStream(run))) {
+                        merge(group, out);
+                    }
+                    for (Path p : group) {
+                        Files.delete(p);
+                    }
+                    merged.add(run);
+                }
+                runs = merged;
+            }
+            CSVOutput out = new CSVOutput(writer);
+            merge(runs, out);
+            writer.flush();
+            return out.count;
+        } finally {
+            pool.shutdownNow();
+            try {
+                // a run being written when the sort failed is deleted after it
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Path p : files) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    /**
+     * sort and write every run on the pool, at most threads + 1 runs in
+     * memory at a time
+     *
+     * @return the files of the runs in input order
+     */
+    private List<Path> spillAll(CSVReader reader, RowBuffer row, Rows first, long budget, ExecutorService pool,
+            List<Path> files) throws IllegalCSVFormatException, IOException {
+        BlockingQueue<Rows> free = new ArrayBlockingQueue<>(threads + 1);
+        int created = 1;
+        List<Future<Path>> futures = new ArrayList<>();
+        try {
+            Rows chunk = first;
+            boolean more = true;
+            while (true) {
+                Rows c = chunk;
+                futures.add(pool.submit(() -> {
+                    try {
+                        return spill(c, files);
+                    } finally {
+                        free.add(c);
+                    }
+                }));
+                if (!more) {
+                    break;
+                }
+                if (created < threads + 1) {
+                    chunk = new Rows();
+                    created++;
+                } else {
+                    chunk = free.take();
+                }
+                for (Future<Path> f : futures) {
+                    if (f.isDone()) {
+                        // fail before reading on
+                        f.get();
+                    }
+                }
+                chunk.clear();
+                more = fill(reader, row, chunk, budget);
+                if (chunk.rowCount == 0) {
+                    break;
+                }
+            }
+            List<Path> runs = new ArrayList<>(futures.size());
+            for (Future<Path> f : futures) {
+                runs.add(f.get());
+            }
+            return runs;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * read rows into chunk until it holds budget bytes
+     *
+     * @return false if the input ended
+     */
+    private static boolean fill(CSVReader reader, RowBuffer row, Rows chunk, long budget)
+            throws IllegalCSVFormatException, IOException {
+        while (chunk.bytes() < budget) {
+            if (!reader.nextRow(row)) {
+                return false;
+            }
+            chunk.add(row);
+        }
+        return true;
+    }
+
+    private Path spill(Rows chunk, List<Path> files) throws IOException {
+        int[] order = sortedOrder(chunk);
+        Path run = newRun(files);
+        try (RunWriter out = new RunWriter(Files.newOutputStream(run))) {
+            int last = -1;
+            for (int r : order) {
+                if (!(distinct && last >= 0 && compare(chunk, last, chunk, r) == 0)) {
+                    out.accept(chunk, r);
+                }
+                last = r;
+            }
+        }
+        return run;
+    }
+
+    private Path newRun(List<Path> files) throws IOException {
+        Path run = tempDirectory == null ? Files.createTempFile("csvsort", ".run")
+                : Files.createTempFile(tempDirectory, "csvsort", ".run");
+        files.add(run);
+        return run;
+    }
+
+    /**
+     * merge sorted runs, earlier runs first among equal keys
+     */
+    private void merge(List<Path> runs, Sink out) throws IOException {
+        RunReader[] heap = new RunReader[runs.size()];
+        int size = 0;
+        try {
+            for (int i = 0; i < runs.size(); i++) {
+                RunReader reader = new RunReader(Files.newInputStream(runs.get(i)), i);
+                if (reader.next()) {
+                    heap[size++] = reader;
+                    siftUp(heap, size - 1);
+                } else {
+                    reader.close();
+                }
+            }
+            Rows last = distinct ? new Rows() : null;
+            while (size > 0) {
+                RunReader top = heap[0];
+                if (last == null || last.rowCount == 0 || compare(last, 0, top.row, 0) != 0) {
+                    out.accept(top.row, 0);
+                    if (last != null) {
+                        last.clear();
+                        last.add(top.row, 0);
+                    }
+                }
+                if (!top.next()) {
+                    top.close();
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                if (size > 0) {
+                    siftDown(heap, size);
+                }
+            }
+        } finally {
+            for (int i = 0; i < size; i++) {
+                heap[i].close();
+            }
+        }
+    }
+
+    private boolean less(RunReader a, RunReader b) {
+        int c = compare(a.row, 0, b.row, 0);
+        return c < 0 || c == 0 && a.index < b.index;
+    }
+
+    private void siftUp(RunReader[] heap, int i) {
+        RunReader x = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!less(x, heap[parent])) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = x;
+    }
+
+    private void siftDown(RunReader[] heap, int size) {
+        RunReader x = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], x)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = x;
+    }
+
+    /**
+     * @return the rows of chunk in key order, stable
+     */
+    private int[] sortedOrder(Rows chunk) {
+        int n = chunk.rowCount;
+        int[] order = new int[n];
+        long[] prefixes = new long[n];
+        FieldComparator first = comparators[0];
+        int c = columns[0];
+        for (int r = 0; r < n; r++) {
+            order[r] = r;
+            int f = chunk.firstField[r] + c;
+            prefixes[r] = f < chunk.firstField[r + 1] ? first.prefix(chunk.chars, chunk.starts[f], chunk.ends[f])
+                    : first.prefix(chunk.chars, 0, 0);
+        }
+        sort(chunk, order, prefixes, new int[n], new long[n], 0, n);
+        return order;
+    }
+
+    private int compare(Rows rows, int ra, long pa, int rb, long pb) {
+        int c = Long.compareUnsigned(pa, pb);
+        return c != 0 ? c : compare(rows, ra, rows, rb);
+    }
+
+    /**
+     * a merge sort of order[from, to) and the key prefixes of its rows
+     */
+    private void sort(Rows rows, int[] order, long[] prefixes, int[] tmp, long[] tmpPrefixes, int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int x = order[i];
+                long px = prefixes[i];
+                int j = i - 1;
+                while (j >= from && compare(rows, order[j], prefixes[j], x, px) > 0) {
+                    order[j + 1] = order[j];
+                    prefixes[j + 1] = prefixes[j];
+                    j--;
+                }
+                order[j + 1] = x;
+                prefixes[j + 1] = px;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sort(rows, order, prefixes, tmp, tmpPrefixes, from, mid);
+        sort(rows, order, prefixes, tmp, tmpPrefixes, mid, to);
+        if (compare(rows, order[mid - 1], prefixes[mid - 1], order[mid], prefixes[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, tmp, from, to - from);
+        System.arraycopy(prefixes, from, tmpPrefixes, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            if (r >= to || l < mid && compare(rows, tmp[l], tmpPrefixes[l], tmp[r], tmpPrefixes[r]) <= 0) {
+                order[i] = tmp[l];
+                prefixes[i] = tmpPrefixes[l++];
+            } else {
+                order[i] = tmp[r];
+                prefixes[i] = tmpPrefixes[r++];
+            }
+        }
+    }
+
+    /**
+     * compare the keys of row ra of a and row rb of b; a missing column is empty
+     */
+    private int compare(Rows a, int ra, Rows b, int rb) {
+        for (int k = 0; k < columns.length; k++) {
+            int c = columns[k];
+            int fa = a.firstField[ra] + c;
+            int fb = b.firstField[rb] + c;
+            boolean hasA = fa < a.firstField[ra + 1];
+            boolean hasB = fb < b.firstField[rb + 1];
+            int cmp = comparators[k].compare(a.chars, hasA ? a.starts[fa] : 0, hasA ? a.ends[fa] : 0,
+                    b.chars, hasB ? b.starts[fb] : 0, hasB ? b.ends[fb] : 0);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareNumbers(char[] a, int aFrom, int aTo, char[] b, int bFrom, int bTo) {
+        int da = decimalPoint(a, aFrom, aTo);
+        int db = decimalPoint(b, bFrom, bTo);
+        if (da == -1 || db == -1) {
+            // numbers first
+            return da == -1 && db == -1 ? Arrays.compare(a, aFrom, aTo, b, bFrom, bTo) : da == -1 ? 1 : -1;
+        }
+        boolean negA = a[aFrom] == '-';
+        boolean negB = b[bFrom] == '-';
+        if (negA || a[aFrom] == '+') {
+            aFrom++;
+        }
+        if (negB || b[bFrom] == '+') {
+            bFrom++;
+        }
+        // the integer digits without leading zeros, the fraction digits without trailing zeros
+        while (aFrom < da && a[aFrom] == '0') {
+            aFrom++;
+        }
+        while (bFrom < db && b[bFrom] == '0') {
+            bFrom++;
+        }
+        int aEnd = aTo;
+        while (aEnd > da + 1 && a[aEnd - 1] == '0') {
+            aEnd--;
+        }
+        int bEnd = bTo;
+        while (bEnd > db + 1 && b[bEnd - 1] == '0') {
+            bEnd--;
+        }
+        boolean zeroA = aFrom == da && aEnd <= da + 1;
+        boolean zeroB = bFrom == db && bEnd <= db + 1;
+        negA &= !zeroA;
+        negB &= !zeroB;
+        if (negA != negB) {
+            return negA ? -1 : 1;
+        }
+        int cmp = Integer.compare(da - aFrom, db - bFrom);
+        if (cmp == 0) {
+            cmp = Arrays.compare(a, aFrom, da, b, bFrom, db);
+        }
+        if (cmp == 0) {
+            cmp = Arrays.compare(a, Math.min(da + 1, aEnd), aEnd, b, Math.min(db + 1, bEnd), bEnd);
+        }
+        return negA ? -cmp : cmp;
+    }
+
+    /**
+     * @return the integer part of a decimal number, truncated and clamped to
+     * 62 bits, in unsigned order; the largest value for any other field
+     */
+    private static long numberPrefix(char[] a, int from, int to) {
+        int point = decimalPoint(a, from, to);
+        if (point == -1) {
+            return -1L;
+        }
+        boolean negative = a[from] == '-';
+        long v = 0;
+        for (int i = negative || a[from] == '+' ? from + 1 : from; i < point; i++) {
+            v = v < (1L << 62) / 10 ? v * 10 + (a[i] - '0') : 1L << 62;
+        }
+        return (negative ? -v : v) ^ Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the index of the decimal point of a decimal number, to if it
+     * has none, or -1 if the field is not a decimal number
+     */
+    private static int decimalPoint(char[] a, int from, int to) {
+        if (from < to && (a[from] == '-' || a[from] == '+')) {
+            from++;
+        }
+        int point = to;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = a[i];
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && point == to) {
+                point = i;
+            } else {
+                return -1;
+            }
+        }
+        return digits == 0 ? -1 : point;
+    }
+
+    /**
+     * rows stored as the ranges of their fields in one char array
+     */
+    static final class Rows {
+        char[] chars = new char[1024];
+        int charCount = 0;
+        int[] starts = new int[64];
+        int[] ends = new int[64];
+        int fieldCount = 0;
+
+        /**
+         * the fields of row r are firstField[r] to firstField[r + 1]
+         */
+        int[] firstField = new int[17];
+        int rowCount = 0;
+
+        void clear() {
+            charCount = 0;
+            fieldCount = 0;
+            rowCount = 0;
+        }
+
+        /**
+         * @return about the bytes the rows take, with their sort order
+         */
+        long bytes() {
+            return 2L * charCount + 8L * fieldCount + 12L * rowCount;
+        }
+
+        void add(RowBuffer row) {
+            int n = row.size();
+            for (int i = 0; i < n; i++) {
+                int length = row.length(i);
+                reserve(length);
+                row.getChars(i, chars, charCount);
+                addField(charCount, charCount + length);
+                charCount += length;
+            }
+            endRow();
+        }
+
+        void add(Rows rows, int r) {
+            for (int f = rows.firstField[r]; f < rows.firstField[r + 1]; f++) {
+                int length = rows.ends[f] - rows.starts[f];
+                reserve(length);
+                System.arraycopy(rows.chars, rows.starts[f], chars, charCount, length);
+                addField(charCount, charCount + length);
+                charCount += length;
+            }
+            endRow();
+        }
+
+        void reserve(int length) {
+            long needed = (long) charCount + length;
+            if (needed > chars.length) {
+                if (needed > MAX_ARRAY_SIZE) {
+                    throw new OutOfMemoryError("a run of more than " + MAX_ARRAY_SIZE + " chars");
+                }
+                chars = Arrays.copyOf(chars, (int) Math.max(needed, Math.min(2L * chars.length, MAX_ARRAY_SIZE)));
+            }
+        }
+
+        void addField(int start, int end) {
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+            }
+            starts[fieldCount] = start;
+            ends[fieldCount++] = end;
+        }
+
+        void endRow() {
+            if (rowCount + 1 == firstField.length) {
+                firstField = Arrays.copyOf(firstField, firstField.length * 2);
+            }
+            firstField[++rowCount] = fieldCount;
+        }
+    }
+
+    private interface Sink {
+        void accept(Rows rows, int r) throws IOException;
+    }
+
+    /**
+     * writes rows to a CSVWriter through a reused view of their fields
+     */
+    private static final class CSVOutput implements Sink, CharSequence {
+        private final CSVWriter writer;
+        private Rows rows;
+        private int start;
+        private int end;
+        long count = 0;
+
+        CSVOutput(CSVWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(Rows rows, int r) throws IOException {
+            this.rows = rows;
+            int first = rows.firstField[r];
+            writer.write(rows.firstField[r + 1] - first, i -> field(first + i));
+            count++;
+        }
+
+        private CharSequence field(int f) {
+            start = rows.starts[f];
+            end = rows.ends[f];
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return rows.chars[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new String(rows.chars, start + from, to - from);
+        }
+
+        @Override
+        public String toString() {
+            return new String(rows.chars, start, end - start);
+        }
+    }
+
+    /**
+     * writes rows to a run file: the field count of a row, then the length
+     * of every field and its chars in one to three bytes each, as in UTF-8
+     */
+    private static final class RunWriter implements Sink, Closeable {
+        private final OutputStream out;
+        private final byte[] buf = new byte[IO_BUFFER_SIZE];
+        private int count = 0;
+
+        RunWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void accept(Rows rows, int r) throws IOException {
+            int first = rows.firstField[r];
+            int last = rows.firstField[r + 1];
+            writeVarInt(last - first);
+            char[] chars = rows.chars;
+            for (int f = first; f < last; f++) {
+                int start = rows.starts[f];
+                int end = rows.ends[f];
+                writeVarInt(end - start);
+                for (int i = start; i < end; i++) {
+                    if (count + 3 > buf.length) {
+                        flushBuffer();
+                    }
+                    char c = chars[i];
+                    if (c < 0x80) {
+                        buf[count++] = (byte) c;
+                    } else if (c < 0x800) {
+                        buf[count++] = (byte) (0xc0 | c >> 6);
+                        buf[count++] = (byte) (0x80 | c & 0x3f);
+                    } else {
+                        buf[count++] = (byte) (0xe0 | c >> 12);
+                        buf[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                        buf[count++] = (byte) (0x80 | c & 0x3f);
+                    }
+                }
+            }
+        }
+
+        private void writeVarInt(int v) throws IOException {
+            if (count + 5 > buf.length) {
+                flushBuffer();
+            }
+            while (v >= 0x80) {
+                buf[count++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buf[count++] = (byte) v;
+        }
+
+        private void flushBuffer() throws IOException {
+            out.write(buf, 0, count);
+            count = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * reads the rows of a run file one at a time into row
+     */
+    private static final class RunReader implements Closeable {
+        private final InputStream in;
+        private final byte[] buf = new byte[IO_BUFFER_SIZE];
+        private int pos = 0;
+        private int limit = 0;
+
+        /**
+         * the position of the run among the merged runs
+         */
+        final int index;
+        final Rows row = new Rows();
+
+        RunReader(InputStream in, int index) {
+            this.in = in;
+            this.index = index;
+        }
+
+        /**
+         * @return false at the end of the run
+         */
+        boolean next() throws IOException {
+            if (pos == limit && !fill()) {
+                return false;
+            }
+            row.clear();
+            int n = readVarInt();
+            for (int f = 0; f < n; f++) {
+                int length = readVarInt();
+                row.reserve(length);
+                char[] chars = row.chars;
+                int at = row.charCount;
+                for (int i = 0; i < length; i++) {
+                    int b = read();
+                    if (b < 0x80) {
+                        chars[at + i] = (char) b;
+                    } else if (b < 0xe0) {
+                        chars[at + i] = (char) ((b & 0x1f) << 6 | read() & 0x3f);
+                    } else {
+                        int b2 = read();
+                        chars[at + i] = (char) ((b & 0x0f) << 12 | (b2 & 0x3f) << 6 | read() & 0x3f);
+                    }
+                }
+                row.addField(at, at + length);
+                row.charCount = at + length;
+            }
+            row.endRow();
+            return true;
+        }
+
+        private int read() throws IOException {
+            if (pos == limit && !fill()) {
+                throw new EOFException("truncated run");
+            }
+            return buf[pos++] & 0xff;
+        }
+
+        private int readVarInt() throws IOException {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = read();
+                v |= (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    return v;
+                }
+            }
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(buf, 0, buf.length);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -1,12 +1,53 @@
 package com.g2wang.csv;
 
 import java.io.*;
-import java.util.*;
+import java.lang.invoke.MethodHandle;
+import java.util.function.IntFunction;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 public class CSVWriter implements AutoCloseable {
-    private BufferedWriter writer = null;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Writer writer = null;
+    private CSVFormat format = CSVFormat.DEFAULT;
+
+    /**
+     * rows are formatted straight into this block, which is handed to writer
+     * whenever it is full
+     */
+    private final char[] buf = new char[BUFFER_SIZE];
+    private int count = 0;
+
+    /**
+     * the start in buf of the row being written; negative once a part of
+     * the row has been handed to writer, so that it cannot be taken back
+     */
+    private int rowStart = 0;
+
+    private CSVMetrics metrics = null;
+    private long rowStartTime = 0;
+    private long rowStartIo = 0;
+    private int quotedCount = 0;
+
+    /**
+     * the header written by writeHeader
+     */
+    private CSVHeader header = null;
+
+    /**
+     * the handles of writeObject for the record class boundType and the
+     * header boundHeader
+     */
+    private Class<?> boundType = null;
+    private CSVHeader boundHeader = null;
+    private MethodHandle[] formatters = null;
+
     /**
      * constructor
      */
@@ -18,7 +59,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toOutputStream(OutputStream outputStream) {
         CSVWriter csvWriter = new CSVWriter();
-        csvWriter.writer = new BufferedWriter(new OutputStreamWriter(outputStream));
+        csvWriter.writer = new OutputStreamWriter(outputStream);
         return csvWriter;
     }
 
@@ -27,7 +68,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toOutputStream(OutputStream outputStream, Charset cs) {
         CSVWriter csvWriter = new CSVWriter();
-        csvWriter.writer = new BufferedWriter(new OutputStreamWriter(outputStream, cs));
+        csvWriter.writer = new OutputStreamWriter(outputStream, cs);
         return csvWriter;
     }
 
@@ -36,7 +77,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toOutputStream(OutputStream outputStream, CharsetEncoder enc) {
         CSVWriter csvWriter = new CSVWriter();
-        csvWriter.writer = new BufferedWriter(new OutputStreamWriter(outputStream, enc));
+        csvWriter.writer = new OutputStreamWriter(outputStream, enc);
         return csvWriter;
     }
 
@@ -45,16 +86,19 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toOutputStream(OutputStream outputStream, String charsetName) throws UnsupportedEncodingException {
         CSVWriter csvWriter = new CSVWriter();
-        csvWriter.writer = new BufferedWriter(new OutputStreamWriter(outputStream, charsetName));
+        csvWriter.writer = new OutputStreamWriter(outputStream, charsetName);
         return csvWriter;
     }
 
     /**
-     * static method to create an instance to write to a csv file
+     * static method to create an instance to write to a csv file. A file
+     * named .gz, .zz, .deflate or .zip is compressed on a thread of its own
+     * while rows are written; a zip archive gets a single entry named after
+     * the file.
      */
     public static CSVWriter toFile(final String csvFile) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile));
+        return toOutputStream(Compression.create(new File(csvFile)));
     }
 
     /**
@@ -62,7 +106,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final File csvFile) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile));
+        return toOutputStream(Compression.create(csvFile));
     }
 
     /**
@@ -70,7 +114,13 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final String csvFile, final String charsetName) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), charsetName);
+        OutputStream outputStream = Compression.create(new File(csvFile));
+        try {
+            return toOutputStream(outputStream, charsetName);
+        } catch (UnsupportedEncodingException e) {
+            outputStream.close();
+            throw e;
+        }
     }
 
     /**
@@ -78,7 +128,13 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final File csvFile, final String charsetName) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), charsetName);
+        OutputStream outputStream = Compression.create(csvFile);
+        try {
+            return toOutputStream(outputStream, charsetName);
+        } catch (UnsupportedEncodingException e) {
+            outputStream.close();
+            throw e;
+        }
     }
 
     /**
@@ -86,7 +142,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final String csvFile, final Charset charset) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), charset);
+        return toOutputStream(Compression.create(new File(csvFile)), charset);
     }
 
     /**
@@ -94,7 +150,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final File csvFile, final Charset charset) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), charset);
+        return toOutputStream(Compression.create(csvFile), charset);
     }
 
     /**
@@ -102,7 +158,7 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final String csvFile, final CharsetEncoder enc) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), enc);
+        return toOutputStream(Compression.create(new File(csvFile)), enc);
     }
 
     /**
@@ -110,7 +166,55 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toFile(final File csvFile, final CharsetEncoder enc) throws IOException {
         createFileIfNotExists(csvFile);
-        return toOutputStream(new FileOutputStream(csvFile), enc);
+        return toOutputStream(Compression.create(csvFile), enc);
+    }
+
+    /**
+     * static method to create an instance of CSVWriter to write UTF-8 to a channel
+     */
+    public static CSVWriter toChannel(WritableByteChannel channel) {
+        return toChannel(channel, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * static method to create an instance of CSVWriter to write to a channel with specified Charset.
+     * UTF-8, US-ASCII and ISO-8859-1 are encoded straight into direct buffers which are written
+     * to the channel with gathering writes.
+     */
+    public static CSVWriter toChannel(WritableByteChannel channel, Charset cs) {
+        CSVWriter csvWriter = new CSVWriter();
+        csvWriter.writer = new ChannelWriter(channel, cs, false);
+        return csvWriter;
+    }
+
+    /**
+     * static method to create an instance to write UTF-8 to a csv file through a FileChannel
+     */
+    public static CSVWriter toPath(final Path csvFile) throws IOException {
+        return toPath(csvFile, StandardCharsets.UTF_8, false);
+    }
+
+    /**
+     * static method to create an instance to write to a csv file through a FileChannel with
+     * specified Charset
+     */
+    public static CSVWriter toPath(final Path csvFile, final Charset charset) throws IOException {
+        return toPath(csvFile, charset, false);
+    }
+
+    /**
+     * static method to create an instance to write to a csv file through a FileChannel with
+     * specified Charset
+     *
+     * @param forceOnClose - whether close() forces the content of the file to the storage device
+     */
+    public static CSVWriter toPath(final Path csvFile, final Charset charset, boolean forceOnClose)
+            throws IOException {
+        FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        CSVWriter csvWriter = new CSVWriter();
+        csvWriter.writer = new ChannelWriter(channel, charset, forceOnClose);
+        return csvWriter;
     }
 
     /**
@@ -118,7 +222,17 @@ public class CSVWriter implements AutoCloseable {
      */
     public static CSVWriter toStringWriter(StringWriter stringWriter) {
         CSVWriter csvWriter = new CSVWriter();
-        csvWriter.writer = new BufferedWriter(stringWriter);
+        csvWriter.writer = stringWriter;
+        return csvWriter;
+    }
+
+    /**
+     * static method to create an instance to write to any Writer, as the
+     * per thread writers of CSVConcurrentWriter do
+     */
+    static CSVWriter toWriter(Writer writer) {
+        CSVWriter csvWriter = new CSVWriter();
+        csvWriter.writer = writer;
         return csvWriter;
     }
 
@@ -134,18 +248,336 @@ public class CSVWriter implements AutoCloseable {
     }
 
     public void write(String[] fields) throws IOException {
-        List<String> list = Arrays.asList(fields);
-        write(list);
+        write((CharSequence[]) fields);
+    }
+
+    /**
+     * write a row without building a List for it
+     *
+     * @param fields - the fields of the row
+     */
+    public void write(CharSequence[] fields) throws IOException {
+        char delimiter = format.getDelimiter();
+        beginRow();
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    append(delimiter);
+                }
+                writeField(fields[i]);
+            }
+            endRow(fields.length);
+        } catch (IOException | RuntimeException | Error e) {
+            abortRow();
+            throw e;
+        }
+    }
+
+    /**
+     * write a row of fields supplied by index, e.g. straight from the
+     * columns of a caller's own data structure. If fields throws, nothing
+     * of the row is written, unless the row has outgrown the buffer of
+     * 64K chars and its start has already been handed to the underlying
+     * writer: the output is then corrupt.
+     *
+     * @param count - the number of fields of the row
+     * @param fields - returns field i of the row for i from 0 to count - 1
+     */
+    public void write(int count, IntFunction<? extends CharSequence> fields) throws IOException {
+        char delimiter = format.getDelimiter();
+        beginRow();
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    append(delimiter);
+                }
+                writeField(fields.apply(i));
+            }
+            endRow(count);
+        } catch (IOException | RuntimeException | Error e) {
+            abortRow();
+            throw e;
+        }
     }
 
+    /**
+     * @see #write(int, IntFunction) for a row whose fields throw
+     */
     public void write(Iterable<String> fields) throws IOException {
-        StringBuilder sb = new StringBuilder();
-        for (String f : fields) {
-            sb.append(quote(f)).append(',');
+        char delimiter = format.getDelimiter();
+        int n = 0;
+        beginRow();
+        try {
+            for (String f : fields) {
+                if (n++ > 0) {
+                    append(delimiter);
+                }
+                writeField(f);
+            }
+            endRow(n);
+        } catch (IOException | RuntimeException | Error e) {
+            abortRow();
+            throw e;
+        }
+    }
+
+    /**
+     * write the names of a header as a row, and write every record passed to
+     * write(CSVRecord) after it in the column order of the header
+     *
+     * @param header - the header, such as the header of a CSVReader
+     */
+    public void writeHeader(CSVHeader header) throws IOException {
+        write(header.size(), i -> header.getName(i) == null ? "" : header.getName(i));
+        this.header = header;
+    }
+
+    /**
+     * use header for write(CSVRecord) and writeObject without writing it,
+     * as the writers of CSVConcurrentWriter share one header
+     */
+    void useHeader(CSVHeader header) {
+        this.header = header;
+    }
+
+    /**
+     * @return the header written by writeHeader, or null
+     */
+    public CSVHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * write a record. A record with the header of this writer, or written
+     * without writeHeader, is written field by field; any other record is
+     * written in the column order of the header of this writer, looking its
+     * fields up by name, and a column it does not have is written empty.
+     *
+     * @param record - the record, such as a record of a CSVReader
+     */
+    public void write(CSVRecord record) throws IOException {
+        CSVHeader header = this.header;
+        if (header == null || header.equals(record.getHeader())) {
+            write(record.size(), record::get);
+            return;
         }
-        String s = sb.substring(0, sb.length() - 1);
-        writer.write(s);
-        writer.newLine();
+        write(header.size(), i -> {
+            String name = header.getName(i);
+            return name != null && record.isMapped(name) ? record.get(name) : "";
+        });
+    }
+
+    /**
+     * write the component names of a record class as the header
+     *
+     * @param type - a record class
+     * @see #writeHeader(CSVHeader)
+     */
+    public void writeHeader(Class<?> type) throws IOException {
+        writeHeader(CSVBinder.of(type).getHeader());
+    }
+
+    /**
+     * write a record of a record class. Every component is formatted by a
+     * plan built once per class, numbers into a reused StringBuilder rather
+     * than a String. After writeHeader, the components are written in the
+     * column order of the header, matched by name, and a column which is
+     * not a component is written empty; otherwise in component order.
+     *
+     * @param record - a record
+     * @see CSVBinder
+     */
+    public void writeObject(Object record) throws IOException {
+        Class<?> type = record.getClass();
+        if (type != boundType || header != boundHeader) {
+            CSVBinder<?> binder = CSVBinder.of(type);
+            CSVHeader components = binder.getHeader();
+            int[] order = new int[header == null ? components.size() : header.size()];
+            for (int j = 0; j < order.length; j++) {
+                String name = header == null ? null : header.getName(j);
+                order[j] = header == null ? j : name == null ? -1 : components.indexOf(name);
+            }
+            formatters = binder.formatters(order);
+            boundType = type;
+            boundHeader = header;
+        }
+        MethodHandle[] formatters = this.formatters;
+        write(formatters.length, i -> format(formatters[i], record));
+    }
+
+    private static CharSequence format(MethodHandle formatter, Object record) {
+        try {
+            return (CharSequence) formatter.invokeExact(record);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * hand everything written so far to the underlying writer and flush it
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        writer.flush();
+    }
+
+    private void writeField(CharSequence f) throws IOException {
+        if (f == null) {
+            append("null");
+            return;
+        }
+        if (!needsQuote(f)) {
+            append(f);
+            return;
+        }
+        quotedCount++;
+        char quote = format.getQuote();
+        append(quote);
+        for (int i = 0, n = f.length(); i < n; i++) {
+            char c = f.charAt(i);
+            if (c == quote) {
+                append(quote);
+            }
+            append(c);
+        }
+        append(quote);
+    }
+
+    private boolean needsQuote(CharSequence f) {
+        char delimiter = format.getDelimiter();
+        char quote = format.getQuote();
+        for (int i = 0, n = f.length(); i < n; i++) {
+            char c = f.charAt(i);
+            if (c == delimiter || c == quote || c == '\'' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void beginRow() {
+        rowStart = count;
+        quotedCount = 0;
+        CSVMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.beginRow();
+            if (metrics.timing) {
+                rowStartTime = System.nanoTime();
+                rowStartIo = metrics.ioNanos;
+            }
+        }
+    }
+
+    private void endRow(int fields) throws IOException {
+        append(format.getLineSeparator());
+        CSVMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.chars += count - rowStart;
+            if (metrics.timing) {
+                metrics.parseNanos += System.nanoTime() - rowStartTime - (metrics.ioNanos - rowStartIo);
+            }
+            metrics.row(fields, quotedCount);
+        }
+    }
+
+    /**
+     * take back the row being written after a failure, if none of it has
+     * been handed to writer
+     */
+    private void abortRow() {
+        if (rowStart >= 0) {
+            count = rowStart;
+        }
+    }
+
+    private void append(char c) throws IOException {
+        if (count == buf.length) {
+            flushBuffer();
+        }
+        buf[count++] = c;
+    }
+
+    private void append(CharSequence s) throws IOException {
+        int n = s.length();
+        if (s instanceof String) {
+            String str = (String) s;
+            for (int i = 0; i < n; ) {
+                if (count == buf.length) {
+                    flushBuffer();
+                }
+                int len = Math.min(n - i, buf.length - count);
+                str.getChars(i, i + len, buf, count);
+                count += len;
+                i += len;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                append(s.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * @return the number of chars formatted but not yet handed to the underlying writer
+     */
+    int buffered() {
+        return count;
+    }
+
+    /**
+     * drop the chars not yet handed to the underlying writer, such as the
+     * rest of a failed row whose start has been handed over
+     */
+    void discard() {
+        count = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            CSVMetrics metrics = this.metrics;
+            if (metrics != null && metrics.timing) {
+                long start = System.nanoTime();
+                writer.write(buf, 0, count);
+                metrics.ioNanos += System.nanoTime() - start;
+            } else {
+                writer.write(buf, 0, count);
+            }
+            // a row being written counts its chars from the new start
+            rowStart -= count;
+            count = 0;
+        }
+    }
+
+    /**
+     * count the rows, fields and time of this writer into metrics from the
+     * next row on
+     *
+     * @param metrics - the metrics, or null to stop counting
+     * @return this writer
+     */
+    public CSVWriter withMetrics(CSVMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    /**
+     * @return the metrics of this writer, or null
+     */
+    public CSVMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * set the format of this writer
+     *
+     * @param format - the format
+     * @return this writer
+     */
+    public CSVWriter withFormat(CSVFormat format) {
+        this.format = format;
+        return this;
     }
 
     /**
@@ -155,7 +587,11 @@ public class CSVWriter implements AutoCloseable {
     public void close() {
         if (writer != null) {
             try {
-                writer.close();
+                try {
+                    flushBuffer();
+                } finally {
+                    writer.close();
+                }
             } catch (IOException e) {
                 // do nothing
             } finally {
@@ -163,16 +599,4 @@ public class CSVWriter implements AutoCloseable {
             }
         }
     }
-
-    private static String quote(String f) {
-        if (f == null || f.isEmpty()) {
-            return f;
-        }
-        for (char c : f.toCharArray()) {
-            if (c == ',' || c == '"' || c == '\'' || c == '\n' || c == '\r') {
-                return "\"" + f.replace("\"", "\"\"") + "\"";
-            }
-        }
-        return f;
-    }
 }
@@ -0,0 +1,255 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes chars into a ring of direct ByteBuffers and writes the filled
+ * buffers to a channel with a single gathering write. UTF-8, US-ASCII and
+ * ISO-8859-1 are encoded by hand; any other charset goes through a
+ * CharsetEncoder. Unmappable chars and lone surrogates are written as '?',
+ * as OutputStreamWriter does.
+ */
+final class ChannelWriter extends Writer {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    static final int BUFFER_COUNT = 4;
+
+    private static final int UTF_8 = 0;
+    private static final int ASCII = 1;
+    private static final int LATIN_1 = 2;
+    private static final int OTHER = 3;
+
+    private final WritableByteChannel channel;
+    private final boolean forceOnClose;
+    private final int encoding;
+    private final CharsetEncoder encoder;
+
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFER_COUNT];
+    private int current = 0;
+
+    /**
+     * a high surrogate at the end of the last write which waits for its low
+     * surrogate, or 0, for every charset
+     */
+    private char pendingHigh = 0;
+
+    private boolean closed = false;
+
+    ChannelWriter(WritableByteChannel channel, Charset charset, boolean forceOnClose) {
+        this.channel = channel;
+        this.forceOnClose = forceOnClose;
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            encoding = UTF_8;
+        } else if (charset.equals(StandardCharsets.US_ASCII)) {
+            encoding = ASCII;
+        } else if (charset.equals(StandardCharsets.ISO_8859_1)) {
+            encoding = LATIN_1;
+        } else {
+            encoding = OTHER;
+        }
+        encoder = encoding == OTHER ? charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE) : null;
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        if (encoding == OTHER) {
+            if (pendingHigh != 0 && len > 0) {
+                // the pair split by the last write
+                CharBuffer pair = CharBuffer.wrap(new char[]{pendingHigh, cbuf[off]});
+                pendingHigh = 0;
+                encode(pair);
+                off++;
+                len--;
+            }
+            encode(CharBuffer.wrap(cbuf, off, len));
+            return;
+        }
+        ByteBuffer out = buffers[current];
+        for (int end = off + len; off < end; off++) {
+            // room for the longest sequence a char can complete
+            if (out.remaining() < 4) {
+                out = next();
+            }
+            char c = cbuf[off];
+            if (c < 0x80 && pendingHigh == 0) {
+                out.put((byte) c);
+            } else if (encoding != UTF_8) {
+                putSingleByte(out, c, encoding == ASCII ? 0x80 : 0x100);
+            } else {
+                putUtf8(out, c);
+            }
+        }
+    }
+
+    private void putUtf8(ByteBuffer out, char c) {
+        if (pendingHigh != 0) {
+            char high = pendingHigh;
+            pendingHigh = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                out.put((byte) (0xf0 | cp >> 18));
+                out.put((byte) (0x80 | cp >> 12 & 0x3f));
+                out.put((byte) (0x80 | cp >> 6 & 0x3f));
+                out.put((byte) (0x80 | cp & 0x3f));
+                return;
+            }
+            out.put((byte) '?');
+        }
+        if (c < 0x80) {
+            out.put((byte) c);
+        } else if (c < 0x800) {
+            out.put((byte) (0xc0 | c >> 6));
+            out.put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c)) {
+            pendingHigh = c;
+        } else if (Character.isLowSurrogate(c)) {
+            out.put((byte) '?');
+        } else {
+            out.put((byte) (0xe0 | c >> 12));
+            out.put((byte) (0x80 | c >> 6 & 0x3f));
+            out.put((byte) (0x80 | c & 0x3f));
+        }
+    }
+
+    /**
+     * a surrogate pair is one unmappable code point and becomes a single '?'
+     */
+    private void putSingleByte(ByteBuffer out, char c, int max) {
+        if (pendingHigh != 0) {
+            pendingHigh = 0;
+            if (Character.isLowSurrogate(c)) {
+                out.put((byte) '?');
+                return;
+            }
+            out.put((byte) '?');
+        }
+        if (Character.isHighSurrogate(c)) {
+            pendingHigh = c;
+        } else {
+            out.put((byte) (c < max ? c : '?'));
+        }
+    }
+
+    /**
+     * encode in, keeping a high surrogate at its end, which the encoder
+     * leaves unread, in pendingHigh
+     */
+    private void encode(CharBuffer in) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffers[current], false);
+            if (result.isUnderflow()) {
+                if (in.hasRemaining()) {
+                    pendingHigh = in.get();
+                }
+                return;
+            }
+            if (result.isOverflow()) {
+                next();
+            } else {
+                try {
+                    result.throwException();
+                } catch (CharacterCodingException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * move on to the next buffer of the ring, writing out the whole ring
+     * first if it is full
+     */
+    private ByteBuffer next() throws IOException {
+        if (++current == BUFFER_COUNT) {
+            drain();
+        }
+        return buffers[current];
+    }
+
+    /**
+     * write every buffer filled so far to the channel
+     */
+    private void drain() throws IOException {
+        int n = Math.min(current + 1, BUFFER_COUNT);
+        long remaining = 0;
+        for (int i = 0; i < n; i++) {
+            remaining += buffers[i].flip().remaining();
+        }
+        if (channel instanceof GatheringByteChannel) {
+            GatheringByteChannel gathering = (GatheringByteChannel) channel;
+            while (remaining > 0) {
+                remaining -= gathering.write(buffers, 0, n);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                while (buffers[i].hasRemaining()) {
+                    channel.write(buffers[i]);
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            buffers[i].clear();
+        }
+        current = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            if (encoder != null) {
+                // a lone high surrogate left is replaced in the charset
+                CharBuffer last = pendingHigh != 0 ? CharBuffer.wrap(new char[]{pendingHigh}) : CharBuffer.allocate(0);
+                pendingHigh = 0;
+                while (encoder.encode(last, buffers[current], true).isOverflow()) {
+                    next();
+                }
+                while (encoder.flush(buffers[current]).isOverflow()) {
+                    next();
+                }
+            } else if (pendingHigh != 0) {
+                pendingHigh = 0;
+                buffers[current].put((byte) '?');
+            }
+            drain();
+            if (forceOnClose && channel instanceof FileChannel) {
+                ((FileChannel) channel).force(true);
+            }
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package com.g2wang.csv;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * A reusable batch of rows stored by column, filled by CSVReader.readBatch.
+ * Every column is a primitive array of the batch capacity: int[] for INT and
+ * DATE (epoch days), long[] for LONG, double[] for DOUBLE, boolean[] for
+ * BOOLEAN, and int[] dictionary ids for STRING. An empty field is null; it
+ * is marked in the null bitmap of its column and its value is 0.
+ *
+ * The dictionary of a STRING column holds a String for every distinct value
+ * of the current batch, in the order of first appearance, and is cleared
+ * when the next batch is read.
+ */
+public class ColumnarBatch {
+
+    private final int capacity;
+    private CSVSchema schema = null;
+    private Object[] values = new Object[0];
+    private long[][] nulls = new long[0][];
+    private Dictionary[] dictionaries = new Dictionary[0];
+    private int size = 0;
+
+    /**
+     * @param capacity - the largest number of rows of a batch
+     */
+    public ColumnarBatch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of rows of the current batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the schema of the current batch, or null before the first
+     * batch is read
+     */
+    public CSVSchema getSchema() {
+        return schema;
+    }
+
+    public boolean isNull(int column, int row) {
+        checkRow(row);
+        return (nulls[column][row >>> 6] & 1L << row) != 0;
+    }
+
+    /**
+     * @return the values of an INT or DATE column; only the first size()
+     * are of the current batch
+     */
+    public int[] getInts(int column) {
+        return (int[]) values(column, CSVSchema.Type.INT, CSVSchema.Type.DATE);
+    }
+
+    /**
+     * @return the values of a LONG column
+     */
+    public long[] getLongs(int column) {
+        return (long[]) values(column, CSVSchema.Type.LONG, null);
+    }
+
+    /**
+     * @return the values of a DOUBLE column
+     */
+    public double[] getDoubles(int column) {
+        return (double[]) values(column, CSVSchema.Type.DOUBLE, null);
+    }
+
+    /**
+     * @return the values of a BOOLEAN column
+     */
+    public boolean[] getBooleans(int column) {
+        return (boolean[]) values(column, CSVSchema.Type.BOOLEAN, null);
+    }
+
+    /**
+     * @return the dictionary ids of a STRING column; a null field has id -1
+     */
+    public int[] getDictionaryIds(int column) {
+        return (int[]) values(column, CSVSchema.Type.STRING, null);
+    }
+
+    /**
+     * @return the distinct values of a STRING column in the current batch,
+     * indexed by dictionary id
+     */
+    public String[] getDictionary(int column) {
+        values(column, CSVSchema.Type.STRING, null);
+        Dictionary d = dictionaries[column];
+        return Arrays.copyOf(d.strings, d.size);
+    }
+
+    public int getInt(int column, int row) {
+        checkRow(row);
+        return getInts(column)[row];
+    }
+
+    public long getLong(int column, int row) {
+        checkRow(row);
+        return getLongs(column)[row];
+    }
+
+    public double getDouble(int column, int row) {
+        checkRow(row);
+        return getDoubles(column)[row];
+    }
+
+    public boolean getBoolean(int column, int row) {
+        checkRow(row);
+        return getBooleans(column)[row];
+    }
+
+    /**
+     * @return the date of a DATE column, or null
+     */
+    public LocalDate getDate(int column, int row) {
+        int day = getInt(column, row);
+        return isNull(column, row) ? null : LocalDate.ofEpochDay(day);
+    }
+
+    /**
+     * @return the value of a STRING column, or null
+     */
+    public String getString(int column, int row) {
+        checkRow(row);
+        int id = getDictionaryIds(column)[row];
+        return id < 0 ? null : dictionaries[column].strings[id];
+    }
+
+    private Object values(int column, CSVSchema.Type type, CSVSchema.Type other) {
+        CSVSchema.Type actual = schema.getType(column);
+        if (actual != type && actual != other) {
+            throw new IllegalStateException("column " + column + " is " + actual);
+        }
+        return values[column];
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of a batch of " + size + " rows");
+        }
+    }
+
+    /**
+     * start a new batch, allocating the columns again only if the schema
+     * has changed
+     */
+    void reset(CSVSchema schema) {
+        if (!schema.equals(this.schema)) {
+            int n = schema.size();
+            values = new Object[n];
+            nulls = new long[n][];
+            dictionaries = new Dictionary[n];
+            for (int c = 0; c < n; c++) {
+                nulls[c] = new long[(capacity + 63) >>> 6];
+                values[c] = switch (schema.getType(c)) {
+                    case INT, DATE, STRING ->
+                        new int[capacity];
+                    case LONG ->
+                        new long[capacity];
+                    case DOUBLE ->
+                        new double[capacity];
+                    case BOOLEAN ->
+                        new boolean[capacity];
+                };
+                if (schema.getType(c) == CSVSchema.Type.STRING) {
+                    dictionaries[c] = new Dictionary();
+                }
+            }
+            this.schema = schema;
+        } else {
+            for (int c = 0; c < nulls.length; c++) {
+                Arrays.fill(nulls[c], 0);
+                if (dictionaries[c] != null) {
+                    dictionaries[c].clear();
+                }
+            }
+        }
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * parse the fields of a row into the next row of the batch. A field the
+     * row does not have is null.
+     *
+     * @throws NumberFormatException if a field cannot be parsed as the type
+     * of its column, in which case the row is not added
+     */
+    void add(RowBuffer row) {
+        int r = size;
+        CSVSchema schema = this.schema;
+        for (int c = 0, n = schema.size(); c < n; c++) {
+            int start = 0;
+            int end = 0;
+            if (c < row.size) {
+                row.decode(c);
+                start = row.starts[c];
+                end = row.ends[c];
+            }
+            char[] chars = row.chars;
+            boolean isNull = start == end;
+            if (isNull) {
+                nulls[c][r >>> 6] |= 1L << r;
+            }
+            try {
+                switch (schema.getType(c)) {
+                    case INT ->
+                        ((int[]) values[c])[r] = isNull ? 0 : FieldParsers.parseInt(chars, start, end);
+                    case LONG ->
+                        ((long[]) values[c])[r] = isNull ? 0 : FieldParsers.parseLong(chars, start, end);
+                    case DOUBLE ->
+                        ((double[]) values[c])[r] = isNull ? 0 : FieldParsers.parseDouble(chars, start, end);
+                    case BOOLEAN ->
+                        ((boolean[]) values[c])[r] = !isNull && FieldParsers.parseBoolean(chars, start, end);
+                    case DATE ->
+                        ((int[]) values[c])[r] = isNull ? 0 : FieldParsers.parseDate(chars, start, end);
+                    case STRING ->
+                        ((int[]) values[c])[r] = isNull ? -1 : dictionaries[c].id(chars, start, end);
+                }
+            } catch (NumberFormatException e) {
+                for (int i = 0; i <= c; i++) {
+                    nulls[i][r >>> 6] &= ~(1L << r);
+                }
+                throw new NumberFormatException(e.getMessage() + " in column " + c);
+            }
+        }
+        size = r + 1;
+    }
+
+    /**
+     * An open addressing hash table from the chars of a field to its id,
+     * which creates a String only for a value it has not seen.
+     */
+    private static final class Dictionary {
+
+        private String[] strings = new String[64];
+        private int[] hashes = new int[64];
+        private int[] slots = new int[128];
+        private int size = 0;
+
+        Dictionary() {
+            Arrays.fill(slots, -1);
+        }
+
+        int id(char[] chars, int start, int end) {
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            int mask = slots.length - 1;
+            for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+                int id = slots[slot];
+                if (id < 0) {
+                    return add(chars, start, end, hash, slot);
+                }
+                if (hashes[id] == hash && equals(strings[id], chars, start, end)) {
+                    return id;
+                }
+            }
+        }
+
+        private int add(char[] chars, int start, int end, int hash, int slot) {
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            int id = size++;
+            strings[id] = new String(chars, start, end - start);
+            hashes[id] = hash;
+            slots[slot] = id;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id++) {
+                int slot = mix(hashes[id]) & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id;
+            }
+        }
+
+        void clear() {
+            Arrays.fill(strings, 0, size, null);
+            Arrays.fill(slots, -1);
+            size = 0;
+        }
+
+        private static int mix(int hash) {
+            return hash ^ hash >>> 16;
+        }
+
+        private static boolean equals(String s, char[] chars, int start, int end) {
+            if (s.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) != chars[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
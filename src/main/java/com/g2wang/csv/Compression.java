@@ -0,0 +1,139 @@
+package com.g2wang.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Picks a JDK codec from the extension of a file name: .gz for gzip, .zz and
+ * .deflate for zlib, and .zip for the first entry of a zip archive. A
+ * compressed file is inflated or deflated on a thread of its own, which
+ * hands buffers to or from the caller through a BufferRing.
+ */
+final class Compression {
+
+    static final int BUFFER_SIZE = 256 * 1024;
+    static final int DEPTH = 4;
+
+    enum Codec {
+        NONE, GZIP, ZLIB, ZIP
+    }
+
+    private Compression() {
+    }
+
+    static Codec of(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".gz")) {
+            return Codec.GZIP;
+        } else if (name.endsWith(".zz") || name.endsWith(".deflate")) {
+            return Codec.ZLIB;
+        } else if (name.endsWith(".zip")) {
+            return Codec.ZIP;
+        }
+        return Codec.NONE;
+    }
+
+    /**
+     * open a file for reading, inflating it on a prefetch thread if it is
+     * compressed
+     */
+    static InputStream open(File file) throws FileNotFoundException {
+        return open(file, BUFFER_SIZE, DEPTH, false);
+    }
+
+    /**
+     * open a file for reading on a prefetch thread with buffers of the
+     * specified size and number, inflating it if it is compressed
+     *
+     * @param prefetch - whether a file which is not compressed is read on a
+     * prefetch thread too
+     */
+    static InputStream open(File file, int bufferSize, int depth, boolean prefetch) throws FileNotFoundException {
+        Codec codec = of(file);
+        FileInputStream in = new FileInputStream(file);
+        if (codec == Codec.NONE && !prefetch) {
+            return in;
+        }
+        try {
+            return codec == Codec.NONE ? new PrefetchInputStream(() -> in, bufferSize, depth, "csv-prefetch")
+                    : new PrefetchInputStream(() -> inflate(file, codec, in), bufferSize, depth, "csv-inflater");
+        } catch (RuntimeException e) {
+            try {
+                in.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * wrap a compressed file in its codec, which reads the header of the
+     * file; this runs on the prefetch thread
+     */
+    private static InputStream inflate(File file, Codec codec, InputStream in) throws IOException {
+        try {
+            return switch (codec) {
+                case GZIP ->
+                    new GZIPInputStream(in, BUFFER_SIZE);
+                case ZLIB ->
+                    new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+                default -> {
+                    ZipInputStream zip = new ZipInputStream(in);
+                    if (zip.getNextEntry() == null) {
+                        throw new IOException("no entry in " + file);
+                    }
+                    yield zip;
+                }
+            };
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * create a file for writing, deflating it on a thread of its own if its
+     * name asks for compression
+     */
+    static OutputStream create(File file) throws IOException {
+        Codec codec = of(file);
+        FileOutputStream out = new FileOutputStream(file);
+        if (codec == Codec.NONE) {
+            return out;
+        }
+        try {
+            OutputStream sink = switch (codec) {
+                case GZIP ->
+                    new GZIPOutputStream(out, BUFFER_SIZE);
+                case ZLIB ->
+                    new DeflaterOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+                default -> {
+                    ZipOutputStream zip = new ZipOutputStream(out);
+                    String name = file.getName();
+                    zip.putNextEntry(new ZipEntry(name.substring(0, name.length() - ".zip".length())));
+                    yield zip;
+                }
+            };
+            return new PipelinedOutputStream(sink, BUFFER_SIZE, DEPTH, "csv-deflater");
+        } catch (IOException | RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+}
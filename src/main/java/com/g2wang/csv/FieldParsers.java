@@ -0,0 +1,255 @@
+package com.g2wang.csv;
+
+/**
+ * Parses the chars of a field straight into a primitive, without creating a
+ * String unless the field is malformed or is a number which needs the
+ * rounding of Double.parseDouble or Float.parseFloat.
+ */
+final class FieldParsers {
+
+    /**
+     * powers of ten which are exact doubles
+     */
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    /**
+     * powers of ten which are exact floats
+     */
+    private static final float[] FLOAT_POWERS_OF_TEN = new float[11];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+        FLOAT_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < FLOAT_POWERS_OF_TEN.length; i++) {
+            FLOAT_POWERS_OF_TEN[i] = FLOAT_POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private FieldParsers() {
+    }
+
+    static int parseInt(char[] chars, int start, int end) {
+        long value = parseLong(chars, start, end);
+        if (value != (int) value) {
+            throw malformed(chars, start, end);
+        }
+        return (int) value;
+    }
+
+    static long parseLong(char[] chars, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i++] == '-';
+        }
+        if (i == end) {
+            throw malformed(chars, start, end);
+        }
+        // accumulate negatively, which also covers Long.MIN_VALUE
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+                throw malformed(chars, start, end);
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative && value == Long.MIN_VALUE) {
+            throw malformed(chars, start, end);
+        }
+        return negative ? value : -value;
+    }
+
+    /**
+     * a decimal with at most 15 significant digits times a power of ten of
+     * at most 22 is a single correctly rounded multiplication or division of
+     * two exact doubles; anything else goes to Double.parseDouble
+     */
+    static double parseDouble(char[] chars, int start, int end) {
+        return parseDecimal(chars, start, end, false);
+    }
+
+    /**
+     * narrowing a double would round twice, so a float has a fast path of
+     * its own: at most 7 significant digits times a power of ten of at most
+     * 10, both exact floats; anything else goes to Float.parseFloat
+     */
+    static float parseFloat(char[] chars, int start, int end) {
+        return (float) parseDecimal(chars, start, end, true);
+    }
+
+    /**
+     * @param single - whether to round to a float, which the double returned then holds exactly
+     */
+    private static double parseDecimal(char[] chars, int start, int end, boolean single) {
+        int maxDigits = single ? 7 : 15;
+        int i = start;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i++] == '-';
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        boolean any = false;
+        for (; i < end; i++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                any = true;
+                if (mantissa != 0 || c != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) {
+                    scale++;
+                }
+                if (digits > maxDigits) {
+                    return slowDecimal(chars, start, end, single);
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < end) {
+            char c = chars[i];
+            if ((c != 'e' && c != 'E') || !any) {
+                return slowDecimal(chars, start, end, single);
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i++] == '-';
+            }
+            if (i == end || end - i > 3) {
+                return slowDecimal(chars, start, end, single);
+            }
+            int exponent = 0;
+            for (; i < end; i++) {
+                int digit = chars[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return slowDecimal(chars, start, end, single);
+                }
+                exponent = exponent * 10 + digit;
+            }
+            scale += negativeExponent ? exponent : -exponent;
+        }
+        if (!any) {
+            return slowDecimal(chars, start, end, single);
+        }
+        double value;
+        if (single) {
+            if (scale >= 0 && scale < FLOAT_POWERS_OF_TEN.length) {
+                value = mantissa / FLOAT_POWERS_OF_TEN[scale];
+            } else if (scale < 0 && -scale < FLOAT_POWERS_OF_TEN.length) {
+                value = mantissa * FLOAT_POWERS_OF_TEN[-scale];
+            } else {
+                return slowDecimal(chars, start, end, single);
+            }
+        } else if (scale >= 0 && scale < POWERS_OF_TEN.length) {
+            value = mantissa / POWERS_OF_TEN[scale];
+        } else if (scale < 0 && -scale < POWERS_OF_TEN.length) {
+            value = mantissa * POWERS_OF_TEN[-scale];
+        } else {
+            return slowDecimal(chars, start, end, single);
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowDecimal(char[] chars, int start, int end, boolean single) {
+        // Double.parseDouble and Float.parseFloat also take surrounding
+        // whitespace and a d or f suffix, which parseLong does not
+        if (start == end || chars[start] <= ' ' || chars[end - 1] <= ' ' || isTypeSuffix(chars[end - 1])) {
+            throw malformed(chars, start, end);
+        }
+        String s = new String(chars, start, end - start);
+        try {
+            return single ? Float.parseFloat(s) : Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("For input string: \"" + s + "\"");
+        }
+    }
+
+    private static boolean isTypeSuffix(char c) {
+        return c == 'd' || c == 'D' || c == 'f' || c == 'F';
+    }
+
+    static boolean parseBoolean(char[] chars, int start, int end) {
+        if (regionMatches(chars, start, end, "true")) {
+            return true;
+        }
+        if (regionMatches(chars, start, end, "false")) {
+            return false;
+        }
+        throw malformed(chars, start, end);
+    }
+
+    private static boolean regionMatches(char[] chars, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toLowerCase(chars[start + i]) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the epoch day of a yyyy-MM-dd date
+     */
+    static int parseDate(char[] chars, int start, int end) {
+        if (end - start != 10 || chars[start + 4] != '-' || chars[start + 7] != '-') {
+            throw malformed(chars, start, end);
+        }
+        int year = digits(chars, start, start + 4);
+        int month = digits(chars, start + 5, start + 7);
+        int day = digits(chars, start + 8, start + 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw malformed(chars, start, end);
+        }
+        // days from civil, with years starting in March
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the value of the digits, or -1 if a char is not a digit
+     */
+    private static int digits(char[] chars, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 ->
+                (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4, 6, 9, 11 ->
+                30;
+            default ->
+                31;
+        };
+    }
+
+    private static NumberFormatException malformed(char[] chars, int start, int end) {
+        return new NumberFormatException("For input string: \"" + new String(chars, start, end - start) + "\"");
+    }
+}
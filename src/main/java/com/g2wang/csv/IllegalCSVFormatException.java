@@ -1,8 +1,51 @@
 package com.g2wang.csv;
 
 public class IllegalCSVFormatException extends Exception {
+
+    private final long line;
+    private final long column;
+    private final long offset;
+
     public IllegalCSVFormatException(String message) {
+        this(message, -1, -1, -1);
+    }
+
+    /**
+     * @param message - the message
+     * @param line - the line of the offending char, counted from 1
+     * @param column - the column of the offending char in its line, counted
+     * from 1
+     * @param offset - the offset of the offending char in the input
+     */
+    public IllegalCSVFormatException(String message, long line, long column, long offset) {
         super(message);
+        this.line = line;
+        this.column = column;
+        this.offset = offset;
     }
-}
 
+    /**
+     * @return the line of the offending char, counted from 1, or -1 if it
+     * is not known
+     */
+    public long getLine() {
+        return line;
+    }
+
+    /**
+     * @return the column of the offending char in its line, counted in chars
+     * from 1, or -1 if it is not known; a supplementary char is two chars, as
+     * in a String, whether the file was read with fromPath or not
+     */
+    public long getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the offset of the offending char: a byte offset in a file
+     * read with fromPath, a char offset otherwise; or -1 if it is not known
+     */
+    public long getOffset() {
+        return offset;
+    }
+}
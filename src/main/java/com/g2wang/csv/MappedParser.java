@@ -0,0 +1,737 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parses a local file by memory mapping it and running the state machine
+ * directly over its bytes. Only the field boundaries are recorded while
+ * scanning; a field is decoded into chars when it is accessed. Files larger
+ * than a single mapping are read through consecutive map windows, each
+ * starting at the beginning of a row.
+ *
+ * A parser which reads rather than maps its windows fills a heap buffer
+ * with positional reads instead, for a file which may shrink while it is
+ * read: a mapped page past the end of such a file crashes the reader, a
+ * short read only fails with an IOException.
+ *
+ * The input must be ASCII compatible (UTF-8, US-ASCII or ISO-8859-1) and the
+ * delimiter must be a single byte of it.
+ */
+final class MappedParser implements AutoCloseable {
+
+    static final int WINDOW_SIZE = 1 << 28;
+
+    /**
+     * the first window of a parser which reads, grown for a longer row
+     */
+    static final int READ_SIZE = 1 << 16;
+
+    private static final int INDEX_BLOCK = 4096;
+    private static final int OTHER = ParseTable.Char.OTHER.ordinal();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long fileSize;
+
+    /**
+     * no row is started at or after this position
+     */
+    private final long end;
+    private final boolean latin1;
+    private final boolean read;
+    private ParseTable table;
+
+    private int windowSize;
+    private ByteBuffer window = null;
+    private long windowStart = 0;
+
+    /**
+     * position in the file of the next row
+     */
+    private long position = 0;
+
+    /**
+     * set after an exception to resume reading after the whole offending
+     * char rather than in the middle of its UTF-8 sequence
+     */
+    private boolean skipContinuation = false;
+
+    /**
+     * the start and the line of the row of the last exception
+     */
+    private long badRowStart = 0;
+    private long badRowLine = 0;
+
+    /**
+     * the number of newlines before linesCountedTo, counted when an
+     * exception needs a line
+     */
+    private long linesCountedTo = 0;
+    private long linesCounted = 0;
+
+    /**
+     * raw byte ranges in the window of the fields of the current row; a
+     * field which is not plain still contains quotes or dropped CRs
+     */
+    int[] rawStarts = new int[16];
+    int[] rawEnds = new int[16];
+    boolean[] plain = new boolean[16];
+    int fieldCount = 0;
+
+    private byte[] scratch = new byte[1024];
+    private char[] chars = new char[1024];
+
+    private Projection projection = Projection.ALL;
+    private CSVMetrics metrics = null;
+
+    /**
+     * the number of quoted fields of the row last scanned
+     */
+    private int quotedCount = 0;
+    private int[] projectedStarts = new int[16];
+    private int[] projectedEnds = new int[16];
+    private boolean[] projectedPlain = new boolean[16];
+
+    /**
+     * positions in the window of the structural bytes before indexedTo which
+     * have not been walked yet, from index[cursor] to index[indexed - 1]
+     */
+    private final StructuralScanner scanner;
+    private byte delimiter;
+    private byte quote;
+    private final int[] index = new int[INDEX_BLOCK];
+    private int cursor = 0;
+    private int indexed = 0;
+    private int indexedTo = 0;
+
+    MappedParser(Path path, boolean latin1, ParseTable table, int windowSize) throws IOException {
+        this(path, latin1, table, windowSize, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * parse the rows of a file which start between start and end, where start
+     * must be the beginning of a row
+     */
+    MappedParser(Path path, boolean latin1, ParseTable table, int windowSize, long start, long end)
+            throws IOException {
+        this(path, latin1, table, windowSize, start, end, false);
+    }
+
+    /**
+     * @param read - whether windows are read rather than mapped
+     */
+    MappedParser(Path path, boolean latin1, ParseTable table, int windowSize, long start, long end, boolean read)
+            throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.end = Math.min(end, fileSize);
+        this.latin1 = latin1;
+        this.read = read;
+        this.table = table;
+        this.windowSize = windowSize;
+        this.position = start;
+        this.scanner = StructuralScanner.getDefault();
+        setTable(table);
+    }
+
+    /**
+     * switch to another dialect from the next row on
+     */
+    void setTable(ParseTable table) {
+        if (!table.isSingleByte(latin1)) {
+            throw new IllegalArgumentException("the delimiter and the quote of a memory mapped file must be single bytes");
+        }
+        this.table = table;
+        this.delimiter = (byte) table.getDelimiter();
+        this.quote = (byte) table.getQuote();
+        resetIndex();
+    }
+
+    /**
+     * continue with the row which starts at position
+     */
+    void skipTo(long position) {
+        this.position = position;
+        skipContinuation = false;
+        resetIndex();
+    }
+
+    /**
+     * drop the structural positions indexed ahead of the current position
+     */
+    private void resetIndex() {
+        cursor = 0;
+        indexed = 0;
+        indexedTo = window == null ? 0 : (int) Math.max(0, Math.min(window.limit(), position - windowStart));
+    }
+
+    boolean isTrim() {
+        return table.isTrim();
+    }
+
+    /**
+     * @return a parser of its own for the rows of the same file which start
+     * between start and end, where start must be the beginning of a row
+     */
+    MappedParser range(long start, long end) throws IOException {
+        MappedParser parser = new MappedParser(path, latin1, table, windowSize, start, end, read);
+        parser.projection = projection;
+        return parser;
+    }
+
+    void setMetrics(CSVMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * select columns and filter rows from the next row on
+     */
+    void setProjection(Projection projection) {
+        this.projection = projection;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    byte getQuote() {
+        return quote;
+    }
+
+    /**
+     * @return the position in the file of the next row
+     */
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the position at or after which no row is started
+     */
+    long getEnd() {
+        return end;
+    }
+
+    /**
+     * scan the next row which passes the filters of the projection, and
+     * leave the raw ranges of its selected fields
+     *
+     * @return false if no more row is found
+     */
+    boolean parseRow() throws IOException, IllegalCSVFormatException {
+        Projection projection = this.projection;
+        while (metrics == null ? scanRow() : meteredScanRow()) {
+            if (!matches(projection.filters)) {
+                continue;
+            }
+            if (projection.columns != null) {
+                project(projection.columns);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean meteredScanRow() throws IOException, IllegalCSVFormatException {
+        CSVMetrics metrics = this.metrics;
+        metrics.beginRow();
+        long start = metrics.timing ? System.nanoTime() : 0;
+        long io = metrics.ioNanos;
+        long from = position;
+        try {
+            boolean found = scanRow();
+            if (found) {
+                metrics.row(fieldCount, quotedCount);
+            }
+            return found;
+        } catch (IllegalCSVFormatException e) {
+            metrics.error(e);
+            throw e;
+        } finally {
+            metrics.bytes += position - from;
+            if (metrics.timing) {
+                metrics.parseNanos += System.nanoTime() - start - (metrics.ioNanos - io);
+            }
+        }
+    }
+
+    /**
+     * scan the next n rows without applying the projection
+     *
+     * @return the number of rows skipped, less than n at the end of the input
+     */
+    long skipRows(long n) throws IOException, IllegalCSVFormatException {
+        long skipped = 0;
+        while (skipped < n && scanRow()) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * test the filters on the raw bytes of the current row, decoding a field
+     * only when it is quoted, trimmed or cannot be compared as bytes
+     */
+    private boolean matches(Projection.Filter[] filters) {
+        for (Projection.Filter f : filters) {
+            int i = f.column;
+            if (i >= fieldCount) {
+                if (!f.test(chars, 0, 0)) {
+                    return false;
+                }
+                continue;
+            }
+            byte[] bytes = latin1 ? f.latin1 : f.utf8;
+            if (plain[i] && bytes != null && !table.isTrim()) {
+                int start = rawStarts[i];
+                int length = rawEnds[i] - start;
+                if (f.prefix ? length < bytes.length : length != bytes.length) {
+                    return false;
+                }
+                for (int j = 0; j < bytes.length; j++) {
+                    if (window.get(start + j) != bytes[j]) {
+                        return false;
+                    }
+                }
+                continue;
+            }
+            if (chars.length < maxLength(i)) {
+                chars = new char[Math.max(maxLength(i), chars.length * 2)];
+            }
+            int start = 0;
+            int end = decode(i, chars, 0);
+            if (table.isTrim()) {
+                while (start < end && chars[start] <= ' ') {
+                    start++;
+                }
+                while (end > start && chars[end - 1] <= ' ') {
+                    end--;
+                }
+            }
+            if (!f.test(chars, start, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * replace the fields of the current row with the selected columns; a
+     * column the row does not have is empty
+     */
+    private void project(int[] columns) {
+        if (projectedStarts.length < columns.length) {
+            projectedStarts = new int[columns.length];
+            projectedEnds = new int[columns.length];
+            projectedPlain = new boolean[columns.length];
+        }
+        for (int i = 0; i < columns.length; i++) {
+            int c = columns[i];
+            boolean present = c < fieldCount;
+            projectedStarts[i] = present ? rawStarts[c] : 0;
+            projectedEnds[i] = present ? rawEnds[c] : 0;
+            projectedPlain[i] = !present || plain[c];
+        }
+        int[] starts = rawStarts;
+        int[] ends = rawEnds;
+        boolean[] isPlain = plain;
+        rawStarts = projectedStarts;
+        rawEnds = projectedEnds;
+        plain = projectedPlain;
+        projectedStarts = starts;
+        projectedEnds = ends;
+        projectedPlain = isPlain;
+        fieldCount = columns.length;
+    }
+
+    /**
+     * scan the next row
+     *
+     * @return false if no more row is found
+     */
+    private boolean scanRow() throws IOException, IllegalCSVFormatException {
+        byte[] classes = table.classes;
+        int[] transitions = table.transitions;
+
+        while (skipContinuation && position < end) {
+            mapPosition();
+            if ((window.get((int) (position - windowStart)) & 0xc0) != 0x80) {
+                break;
+            }
+            position++;
+        }
+        skipContinuation = false;
+
+        while (true) {
+            fieldCount = 0;
+            if (position >= end) {
+                return false;
+            }
+            mapPosition();
+            ByteBuffer window = this.window;
+            int rowStart = (int) (position - windowStart);
+            int limit = window.limit();
+            int p = rowStart;
+            int fieldStart = p;
+            boolean isPlain = true;
+            int quoteByte = quote & 0xff;
+            boolean quoted = false;
+            int quotedCount = 0;
+            int state = ParseTable.START;
+            while (true) {
+                if (cursor == indexed) {
+                    if (indexedTo == limit) {
+                        if (p < limit) {
+                            // the rest of the window is a run of OTHER bytes
+                            int t = transitions[state + OTHER];
+                            state = t >>> ParseTable.STATE_SHIFT;
+                            if ((t & ParseTable.OP_MASK) == ParseTable.THROW_EXCEPTION) {
+                                throw illegalFormat(rowStart, p + 1);
+                            }
+                            p = limit;
+                        }
+                        break;
+                    }
+                    int to = Math.min(limit, indexedTo + INDEX_BLOCK);
+                    indexed = scanner.index(window, indexedTo, to, delimiter, quote, index);
+                    cursor = 0;
+                    indexedTo = to;
+                    continue;
+                }
+                int q = index[cursor++];
+                if (q > p) {
+                    // a run of OTHER bytes takes the same transition as its
+                    // first byte: it either throws or appends in a state
+                    // which appends any further OTHER byte
+                    int t = transitions[state + OTHER];
+                    state = t >>> ParseTable.STATE_SHIFT;
+                    if ((t & ParseTable.OP_MASK) == ParseTable.THROW_EXCEPTION) {
+                        cursor--;
+                        throw illegalFormat(rowStart, p + 1);
+                    }
+                }
+                int b = window.get(q) & 0xff;
+                p = q + 1;
+                int t = transitions[state + classes[b]];
+                state = t >>> ParseTable.STATE_SHIFT;
+                switch (t & ParseTable.OP_MASK) {
+                    case ParseTable.NONE -> {
+                        isPlain = false;
+                        quoted |= b == quoteByte;
+                    }
+                    case ParseTable.WRITE_FIELD -> {
+                        addField(fieldStart, p - 1, isPlain);
+                        fieldStart = p;
+                        isPlain = true;
+                        if (quoted) {
+                            quotedCount++;
+                            quoted = false;
+                        }
+                    }
+                    case ParseTable.WRITE_ROW -> {
+                        addField(fieldStart, p - 1, isPlain);
+                        this.quotedCount = quoted ? quotedCount + 1 : quotedCount;
+                        position = windowStart + p;
+                        return true;
+                    }
+                    case ParseTable.THROW_EXCEPTION ->
+                        throw illegalFormat(rowStart, p);
+                    default -> {
+                        /*do nothing */ }
+                }
+            }
+            if (windowStart + limit < fileSize) {
+                // the row runs past the end of the window: map it again
+                // from the start of the row and scan the row once more
+                if (rowStart == 0) {
+                    windowSize = (int) Math.min((long) windowSize * 2, Integer.MAX_VALUE);
+                }
+                map(position);
+                continue;
+            }
+            addField(fieldStart, p, isPlain);
+            this.quotedCount = quoted ? quotedCount + 1 : quotedCount;
+            position = fileSize;
+            return true;
+        }
+    }
+
+    private void mapPosition() throws IOException {
+        if (window == null || position < windowStart || position >= windowStart + window.limit()) {
+            map(position);
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        long mapStart = metrics != null && metrics.timing ? System.nanoTime() : 0;
+        window = load(start, (int) Math.min(windowSize, fileSize - start), window);
+        if (mapStart != 0) {
+            metrics.ioNanos += System.nanoTime() - mapStart;
+        }
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        cursor = 0;
+        indexed = 0;
+        indexedTo = 0;
+    }
+
+    /**
+     * @param buf - a buffer which a parser which reads may fill again, or null
+     * @return the length bytes of the file at start, mapped or read
+     */
+    private ByteBuffer load(long start, int length, ByteBuffer buf) throws IOException {
+        if (!read) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        if (buf == null || buf.capacity() < length) {
+            buf = ByteBuffer.allocate(length);
+        }
+        buf.clear().limit(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                throw new IOException(path + " shrank while it was read");
+            }
+        }
+        return buf.flip();
+    }
+
+    /**
+     * the offending char ends at p; reading resumes after it
+     */
+    private IllegalCSVFormatException illegalFormat(int rowStart, int p) throws IOException {
+        position = windowStart + p;
+        skipContinuation = !latin1;
+        badRowStart = windowStart + rowStart;
+        badRowLine = lineOf(badRowStart);
+        // the row has no newline outside quotes, so its line starts after
+        // its last newline, or with the row
+        int lineStart = p - 1;
+        while (lineStart > rowStart && window.get(lineStart - 1) != '\n') {
+            lineStart--;
+        }
+        long line = lineOf(windowStart + lineStart);
+        long column = countChars(lineStart, p);
+        return new IllegalCSVFormatException("Illegal CSV Format at char " + countChars(rowStart, p)
+                + ", line " + line + ", column " + column + ".", line, column, windowStart + p - 1);
+    }
+
+    /**
+     * @return the line of the byte at offset, counted from 1
+     */
+    private long lineOf(long offset) throws IOException {
+        if (offset < linesCountedTo) {
+            linesCountedTo = 0;
+            linesCounted = 0;
+        }
+        int size = read ? windowSize : WINDOW_SIZE;
+        ByteBuffer buf = null;
+        for (long from = linesCountedTo; from < offset; from += size) {
+            buf = load(from, (int) Math.min(size, offset - from), buf);
+            for (int i = 0, n = buf.limit(); i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    linesCounted++;
+                }
+            }
+        }
+        linesCountedTo = offset;
+        return linesCounted + 1;
+    }
+
+    /**
+     * skip the row of the last exception, which ends at the first newline
+     * outside quotes, counting quotes from the start of the row. The row
+     * failed at a char after a closing quote, so no newline before that char
+     * ends it.
+     *
+     * @return the skipped row
+     */
+    CSVBadRecord skipBadRecord(IllegalCSVFormatException e) throws IOException {
+        byte[] text = new byte[CSVBadRecord.MAX_TEXT];
+        int n = 0;
+        boolean quoted = false;
+        boolean found = false;
+        long p = badRowStart;
+        while (!found && p < fileSize) {
+            position = p;
+            mapPosition();
+            ByteBuffer window = this.window;
+            int i = (int) (p - windowStart);
+            for (int limit = window.limit(); i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '\n' && !quoted) {
+                    found = true;
+                    i++;
+                    break;
+                }
+                if (b == quote) {
+                    quoted = !quoted;
+                }
+                if (n < text.length) {
+                    text[n++] = b;
+                }
+            }
+            p = windowStart + i;
+        }
+        if (found && n > 0 && n < text.length && text[n - 1] == '\r') {
+            n--;
+        }
+        skipTo(p);
+        char[] chars = new char[n];
+        int length = latin1 ? decodeLatin1(text, n, chars, 0) : decodeUtf8(text, n, chars, 0);
+        return new CSVBadRecord(badRowStart, badRowLine, new String(chars, 0, length), e);
+    }
+
+    private void addField(int start, int end, boolean isPlain) {
+        if (fieldCount == rawStarts.length) {
+            rawStarts = Arrays.copyOf(rawStarts, fieldCount * 2);
+            rawEnds = Arrays.copyOf(rawEnds, fieldCount * 2);
+            plain = Arrays.copyOf(plain, fieldCount * 2);
+        }
+        rawStarts[fieldCount] = start;
+        rawEnds[fieldCount] = end;
+        plain[fieldCount] = isPlain;
+        fieldCount++;
+    }
+
+    /**
+     * @return the number of chars the bytes between from and to decode to,
+     * which is the number of bytes which do not continue a UTF-8 sequence,
+     * a 4 byte sequence counting as its two surrogates as the stream engine
+     * counts them. An offending 4 byte sequence, which ends at its first
+     * byte, counts as its high surrogate only.
+     */
+    private int countChars(int from, int to) {
+        if (latin1) {
+            return to - from;
+        }
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int b = window.get(i);
+            if ((b & 0xc0) != 0x80) {
+                n++;
+                if ((b & 0xf8) == 0xf0 && i + 1 < to) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return an upper bound of the number of chars field i decodes to
+     */
+    int maxLength(int i) {
+        return rawEnds[i] - rawStarts[i];
+    }
+
+    /**
+     * unescape and decode field i of the current row into dst
+     *
+     * @return the position in dst after the decoded field
+     */
+    int decode(int i, char[] dst, int off) {
+        int start = rawStarts[i];
+        int len = rawEnds[i] - start;
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        byte[] bytes = scratch;
+        if (plain[i]) {
+            window.get(start, bytes, 0, len);
+        } else {
+            len = unescape(start, len, bytes);
+        }
+        return latin1 ? decodeLatin1(bytes, len, dst, off) : decodeUtf8(bytes, len, dst, off);
+    }
+
+    /**
+     * run the state machine once more over the raw bytes of a field, keeping
+     * only the appended ones
+     */
+    private int unescape(int start, int len, byte[] dst) {
+        byte[] classes = table.classes;
+        int[] transitions = table.transitions;
+        int state = ParseTable.START;
+        int n = 0;
+        for (int p = start; p < start + len; p++) {
+            byte b = window.get(p);
+            int t = transitions[state + classes[b & 0xff]];
+            state = t >>> ParseTable.STATE_SHIFT;
+            int op = t & ParseTable.OP_MASK;
+            if (op == ParseTable.APPEND || op == ParseTable.APPEND_NEWLINE) {
+                dst[n++] = b;
+            }
+        }
+        return n;
+    }
+
+    private static int decodeLatin1(byte[] src, int len, char[] dst, int off) {
+        for (int i = 0; i < len; i++) {
+            dst[off++] = (char) (src[i] & 0xff);
+        }
+        return off;
+    }
+
+    /**
+     * decode UTF-8, replacing every malformed byte with U+FFFD
+     */
+    static int decodeUtf8(byte[] src, int len, char[] dst, int off) {
+        int i = 0;
+        while (i < len) {
+            int b = src[i];
+            if (b >= 0) {
+                dst[off++] = (char) b;
+                i++;
+                continue;
+            }
+            int need;
+            int cp;
+            if ((b & 0xe0) == 0xc0) {
+                need = 1;
+                cp = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                need = 2;
+                cp = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                need = 3;
+                cp = b & 0x07;
+            } else {
+                dst[off++] = '\uFFFD';
+                i++;
+                continue;
+            }
+            int j = i + 1;
+            while (j <= i + need && j < len && (src[j] & 0xc0) == 0x80) {
+                cp = cp << 6 | (src[j] & 0x3f);
+                j++;
+            }
+            if (j != i + need + 1 || cp < (need == 1 ? 0x80 : need == 2 ? 0x800 : 0x10000)
+                    || cp > Character.MAX_CODE_POINT || Character.isSurrogate((char) cp) && need == 2) {
+                dst[off++] = '\uFFFD';
+                i++;
+                continue;
+            }
+            if (need == 3) {
+                dst[off++] = Character.highSurrogate(cp);
+                dst[off++] = Character.lowSurrogate(cp);
+            } else {
+                dst[off++] = (char) cp;
+            }
+            i = j;
+        }
+        return off;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
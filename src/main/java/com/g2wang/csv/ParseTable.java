@@ -0,0 +1,308 @@
+package com.g2wang.csv;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The CSV state machine. The transitions are specified with the State, Char
+ * and Operation enums below and compiled into flat primitive arrays which the
+ * parsing loop in CSVReader walks without any boxing or map lookups.
+ */
+final class ParseTable {
+
+    enum State {
+        NOT_ESCAPED,
+        END_OF_ROW,
+        END_OF_FIELD,
+        ILLEGAL,
+        ONE_QUOTE,
+        DOUBLE_QUOTES,
+        QUOTE_NOT_QUOTES,
+        QUOTE_NOT_QUOTES_QUOTE
+    }
+
+    enum Char {
+        QUOTE,
+        COMMA,
+        CR,
+        NL,
+        OTHER
+    }
+
+    enum Operation {
+        APPEND,
+        NONE,
+        WRITE_FIELD,
+        WRITE_ROW,
+        THROW_EXCEPTION
+    }
+
+    private static final EnumMap<Char, EnumMap<State, StateAndOperation>> table = new EnumMap<>(Char.class);
+
+    static {
+        Char inputChar = Char.QUOTE;
+        EnumMap<State, StateAndOperation> transitionMap = new EnumMap<>(State.class);
+
+        State currentState = State.NOT_ESCAPED;
+        StateAndOperation gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.ONE_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.DOUBLE_QUOTES, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES_QUOTE, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.DOUBLE_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.ONE_QUOTE, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        table.put(inputChar, transitionMap);
+
+        //////
+        inputChar = Char.COMMA;
+        transitionMap = new EnumMap<>(State.class);
+
+        currentState = State.NOT_ESCAPED;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.ONE_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.DOUBLE_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_FIELD, Operation.WRITE_FIELD);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        table.put(inputChar, transitionMap);
+
+        ///////
+        inputChar = Char.CR;
+        transitionMap = new EnumMap<>(State.class);
+
+        currentState = State.NOT_ESCAPED;
+        gotoStateWithOp = new StateAndOperation(State.NOT_ESCAPED, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.ONE_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.DOUBLE_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.DOUBLE_QUOTES, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES_QUOTE, Operation.NONE);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        table.put(inputChar, transitionMap);
+
+        /////////
+        inputChar = Char.NL;
+        transitionMap = new EnumMap<>(State.class);
+
+        currentState = State.NOT_ESCAPED;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.ONE_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.DOUBLE_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.END_OF_ROW, Operation.WRITE_ROW);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        table.put(inputChar, transitionMap);
+
+        /////////
+        inputChar = Char.OTHER;
+        transitionMap = new EnumMap<>(State.class);
+
+        currentState = State.NOT_ESCAPED;
+        gotoStateWithOp = new StateAndOperation(State.NOT_ESCAPED, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.ONE_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.QUOTE_NOT_QUOTES, Operation.APPEND);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.DOUBLE_QUOTES;
+        gotoStateWithOp = new StateAndOperation(State.ILLEGAL, Operation.THROW_EXCEPTION);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        currentState = State.QUOTE_NOT_QUOTES_QUOTE;
+        gotoStateWithOp = new StateAndOperation(State.ILLEGAL, Operation.THROW_EXCEPTION);
+        transitionMap.put(currentState, gotoStateWithOp);
+
+        table.put(inputChar, transitionMap);
+    }
+
+    private static class StateAndOperation {
+
+        private final State state;
+        private final Operation operation;
+
+        public StateAndOperation(State state, Operation operation) {
+            this.state = state;
+            this.operation = operation;
+        }
+
+        @Override
+        public String toString() {
+            return "state=" + state + "\n" + "operation=" + operation + "\n";
+        }
+    }
+
+    /**
+     * the row of the transitions array belonging to a state is the state
+     * ordinal multiplied by this stride
+     */
+    static final int STRIDE = 8;
+
+    static final int APPEND = 0;
+    static final int NONE = 1;
+    static final int WRITE_FIELD = 2;
+    static final int WRITE_ROW = 3;
+    static final int THROW_EXCEPTION = 4;
+
+    /**
+     * APPEND of a newline inside quotes, which starts a line of the input
+     * but not a row
+     */
+    static final int APPEND_NEWLINE = 5;
+
+    static final int OP_MASK = 0xff;
+    static final int STATE_SHIFT = 8;
+
+    /**
+     * the row of the transitions array to start every field in
+     */
+    static final int START = State.NOT_ESCAPED.ordinal() * STRIDE;
+
+    private static final ConcurrentMap<Long, ParseTable> cache = new ConcurrentHashMap<>();
+
+    private final char delimiter;
+    private final char quote;
+    private final boolean trim;
+
+    /**
+     * the Char ordinal of every char value; its first 256 entries classify
+     * the bytes of ASCII compatible input as long as the delimiter and the
+     * quote are among them
+     */
+    final byte[] classes = new byte[Character.MAX_VALUE + 1];
+
+    /**
+     * indexed by state row + Char ordinal; each entry packs the row of the
+     * next state above STATE_SHIFT and the Operation ordinal below it
+     */
+    final int[] transitions = new int[State.values().length * STRIDE];
+
+    /**
+     * get the shared table of a dialect, compiling it the first time it is
+     * asked for
+     */
+    static ParseTable get(char delimiter, char quote, boolean lenientQuotes, boolean trim) {
+        long key = (long) delimiter << 16 | quote | (lenientQuotes ? 1L << 32 : 0) | (trim ? 1L << 33 : 0);
+        return cache.computeIfAbsent(key, k -> new ParseTable(delimiter, quote, lenientQuotes, trim));
+    }
+
+    private ParseTable(char delimiter, char quote, boolean lenientQuotes, boolean trim) {
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.trim = trim;
+
+        Arrays.fill(classes, (byte) Char.OTHER.ordinal());
+        classes[quote] = (byte) Char.QUOTE.ordinal();
+        classes['\r'] = (byte) Char.CR.ordinal();
+        classes['\n'] = (byte) Char.NL.ordinal();
+        classes[delimiter] = (byte) Char.COMMA.ordinal();
+
+        // states which are never entered in the middle of a row throw
+        Arrays.fill(transitions, (State.ILLEGAL.ordinal() * STRIDE) << STATE_SHIFT | THROW_EXCEPTION);
+        for (Char c : Char.values()) {
+            for (Map.Entry<State, StateAndOperation> e : table.get(c).entrySet()) {
+                State next = e.getValue().state;
+                Operation op = e.getValue().operation;
+                if (op == Operation.WRITE_FIELD) {
+                    // every field starts unescaped
+                    next = State.NOT_ESCAPED;
+                } else if (op == Operation.THROW_EXCEPTION && lenientQuotes) {
+                    // keep a char after a closing quote and go on unescaped
+                    next = State.NOT_ESCAPED;
+                    op = Operation.APPEND;
+                }
+                int code = op == Operation.APPEND && c == Char.NL ? APPEND_NEWLINE : opcode(op);
+                transitions[e.getKey().ordinal() * STRIDE + c.ordinal()]
+                        = (next.ordinal() * STRIDE) << STATE_SHIFT | code;
+            }
+        }
+    }
+
+    private static int opcode(Operation op) {
+        return switch (op) {
+            case APPEND -> APPEND;
+            case NONE -> NONE;
+            case WRITE_FIELD -> WRITE_FIELD;
+            case WRITE_ROW -> WRITE_ROW;
+            case THROW_EXCEPTION -> THROW_EXCEPTION;
+        };
+    }
+
+    char getDelimiter() {
+        return delimiter;
+    }
+
+    char getQuote() {
+        return quote;
+    }
+
+    boolean isTrim() {
+        return trim;
+    }
+
+    /**
+     * @return true if the delimiter and the quote are single bytes of
+     * UTF-8 input, or of ISO-8859-1 input when latin1 is set
+     */
+    boolean isSingleByte(boolean latin1) {
+        int max = latin1 ? 0xff : 0x7f;
+        return delimiter <= max && quote <= max;
+    }
+}
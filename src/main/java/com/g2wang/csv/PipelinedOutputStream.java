@@ -0,0 +1,180 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Writes to a sink stream on a thread of its own, through a BufferRing, so
+ * that compressing and writing the output overlaps with formatting it.
+ * Errors of the sink are thrown by the next write, flush or close.
+ */
+final class PipelinedOutputStream extends OutputStream {
+
+    private static final BufferRing.Chunk END = new BufferRing.Chunk(0);
+    private static final BufferRing.Chunk FLUSH = new BufferRing.Chunk(0);
+
+    private final BufferRing ring;
+    private final OutputStream sink;
+    private final Thread thread;
+    private final Object flushLock = new Object();
+    private long flushesRequested = 0;
+    private long flushesDone = 0;
+    private volatile Throwable error = null;
+    private boolean closed = false;
+
+    private BufferRing.Chunk current;
+
+    PipelinedOutputStream(OutputStream sink, int bufferSize, int depth, String name) throws IOException {
+        this.ring = new BufferRing(bufferSize, depth);
+        this.sink = sink;
+        this.current = ring.takeFree();
+        this.thread = new Thread(this::drain, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                BufferRing.Chunk chunk = ring.takeFilled();
+                if (chunk == END) {
+                    return;
+                }
+                if (chunk == FLUSH) {
+                    if (error == null) {
+                        try {
+                            sink.flush();
+                        } catch (Throwable t) {
+                            error = t;
+                        }
+                    }
+                    synchronized (flushLock) {
+                        flushesDone++;
+                        flushLock.notifyAll();
+                    }
+                    continue;
+                }
+                if (error == null) {
+                    try {
+                        sink.write(chunk.bytes, 0, chunk.length);
+                    } catch (Throwable t) {
+                        error = t;
+                    }
+                }
+                ring.release(chunk);
+            }
+        } catch (InterruptedIOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (current.length == current.bytes.length) {
+            handOver();
+        }
+        current.bytes[current.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (current.length == current.bytes.length) {
+                handOver();
+            }
+            int n = Math.min(len, current.bytes.length - current.length);
+            System.arraycopy(b, off, current.bytes, current.length, n);
+            current.length += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void handOver() throws IOException {
+        checkError();
+        ring.putFilled(current);
+        current = ring.takeFree();
+    }
+
+    /**
+     * hand the buffered bytes over and wait until the sink has written and
+     * flushed them
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (current.length > 0) {
+            handOver();
+        }
+        long ticket;
+        synchronized (flushLock) {
+            ticket = ++flushesRequested;
+        }
+        ring.putFilled(FLUSH);
+        synchronized (flushLock) {
+            while (flushesDone < ticket && thread.isAlive()) {
+                try {
+                    flushLock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted");
+                }
+            }
+        }
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            try {
+                if (current.length > 0) {
+                    ring.putFilled(current);
+                }
+                ring.putFilled(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                thread.interrupt();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted");
+            } finally {
+                sink.close();
+            }
+        } catch (IOException e) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        checkError();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void checkError() throws IOException {
+        Throwable t = error;
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw new IOException(t.getMessage(), t);
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new IOException(t);
+    }
+}
@@ -0,0 +1,152 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a source stream ahead on a thread of its own into a BufferRing, so
+ * that reading the source, and decompressing it if it is compressed,
+ * overlaps with parsing what has already been read.
+ */
+final class PrefetchInputStream extends InputStream {
+
+    /**
+     * opens the source on the prefetch thread, so that reading the header
+     * of a compressed stream is not done by the caller either
+     */
+    interface Source {
+
+        InputStream open() throws IOException;
+    }
+
+    private static final BufferRing.Chunk END = new BufferRing.Chunk(0);
+
+    private final BufferRing ring;
+    private final Thread thread;
+    private volatile InputStream source = null;
+    private volatile Throwable error = null;
+    private volatile boolean closed = false;
+
+    private BufferRing.Chunk current = null;
+    private int pos = 0;
+
+    /**
+     * @param bufferSize - the size of every buffer
+     * @param depth - the number of buffers, at least 2: one is read by the
+     * caller while the others are filled
+     */
+    PrefetchInputStream(Source source, int bufferSize, int depth, String name) {
+        this.ring = new BufferRing(bufferSize, depth);
+        this.thread = new Thread(() -> prefetch(source), name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void prefetch(Source opener) {
+        try (InputStream in = opener.open()) {
+            source = in;
+            while (!closed) {
+                BufferRing.Chunk chunk = ring.takeFree();
+                byte[] bytes = chunk.bytes;
+                int n;
+                // hand the buffer over when it is full or the source would
+                // block, so a slow pipe is not held back for a whole buffer
+                do {
+                    n = in.read(bytes, chunk.length, bytes.length - chunk.length);
+                    if (n > 0) {
+                        chunk.length += n;
+                    }
+                } while (n >= 0 && chunk.length < bytes.length && in.available() > 0);
+                if (chunk.length > 0) {
+                    ring.putFilled(chunk);
+                } else {
+                    ring.release(chunk);
+                }
+                if (n < 0) {
+                    break;
+                }
+            }
+        } catch (Throwable t) {
+            error = t;
+        } finally {
+            ring.end(END);
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current.bytes[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.bytes, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current == END ? 0 : current.length - pos;
+    }
+
+    /**
+     * @return false at the end of the source
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (current != null && pos < current.length) {
+            return true;
+        }
+        if (current != END) {
+            if (current != null) {
+                ring.release(current);
+            }
+            current = ring.takeFilled();
+            pos = 0;
+        }
+        if (current == END) {
+            Throwable t = error;
+            if (t != null) {
+                error = null;
+                if (t instanceof IOException) {
+                    throw new IOException(t.getMessage(), t);
+                }
+                if (t instanceof RuntimeException) {
+                    throw (RuntimeException) t;
+                }
+                if (t instanceof Error) {
+                    throw (Error) t;
+                }
+                throw new IOException(t);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        InputStream in = source;
+        if (in != null) {
+            in.close();
+        }
+    }
+}
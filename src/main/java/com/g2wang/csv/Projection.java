@@ -0,0 +1,128 @@
+package com.g2wang.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The columns a reader returns and the filters a row must pass to be
+ * returned at all. Both engines apply it while parsing: the fields of columns
+ * which are neither selected nor filtered on are not copied, and a row which
+ * fails a filter is dropped before any String or List is made for it.
+ */
+final class Projection {
+
+    static final Projection ALL = new Projection(null, new Filter[0]);
+
+    /**
+     * the columns returned, in order, or null for every column
+     */
+    final int[] columns;
+    final Filter[] filters;
+
+    /**
+     * 1 for every column which is selected or filtered on, 0 otherwise;
+     * columns past its end are 0. null when every column is kept.
+     */
+    final byte[] keep;
+
+    private Projection(int[] columns, Filter[] filters) {
+        this.columns = columns;
+        this.filters = filters;
+        if (columns == null) {
+            keep = null;
+        } else {
+            int max = -1;
+            for (int c : columns) {
+                max = Math.max(max, c);
+            }
+            for (Filter f : filters) {
+                max = Math.max(max, f.column);
+            }
+            keep = new byte[max + 1];
+            for (int c : columns) {
+                keep[c] = 1;
+            }
+            for (Filter f : filters) {
+                keep[f.column] = 1;
+            }
+        }
+    }
+
+    Projection select(int[] columns) {
+        for (int c : columns) {
+            if (c < 0) {
+                throw new IllegalArgumentException("negative column " + c);
+            }
+        }
+        return new Projection(columns.clone(), filters);
+    }
+
+    Projection where(Filter filter) {
+        Filter[] more = Arrays.copyOf(filters, filters.length + 1);
+        more[filters.length] = filter;
+        return new Projection(columns, more);
+    }
+
+    /**
+     * @return whether field i of a row is copied while parsing, 1 or 0
+     */
+    int step(int i) {
+        return keep == null ? 1 : i < keep.length ? keep[i] : 0;
+    }
+
+    /**
+     * @return whether the fields of a row parsed into chars pass every filter
+     */
+    boolean matches(char[] chars, int[] starts, int[] ends, int size) {
+        for (Filter f : filters) {
+            boolean present = f.column < size;
+            if (!f.test(chars, present ? starts[f.column] : 0, present ? ends[f.column] : 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A column which equals, or starts with, a value.
+     */
+    static final class Filter {
+
+        final int column;
+        final char[] value;
+        final boolean prefix;
+
+        /**
+         * the value encoded as UTF-8 and as ISO-8859-1, or null when the
+         * raw bytes of a field cannot be compared with it directly
+         */
+        final byte[] utf8;
+        final byte[] latin1;
+
+        Filter(int column, String value, boolean prefix) {
+            if (column < 0) {
+                throw new IllegalArgumentException("negative column " + column);
+            }
+            this.column = column;
+            this.value = value.toCharArray();
+            this.prefix = prefix;
+            this.utf8 = StandardCharsets.UTF_8.newEncoder().canEncode(value) && value.indexOf('\uFFFD') < 0
+                    ? value.getBytes(StandardCharsets.UTF_8) : null;
+            this.latin1 = StandardCharsets.ISO_8859_1.newEncoder().canEncode(value)
+                    ? value.getBytes(StandardCharsets.ISO_8859_1) : null;
+        }
+
+        boolean test(char[] chars, int start, int end) {
+            int length = end - start;
+            if (prefix ? length < value.length : length != value.length) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (chars[start + i] != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.g2wang.csv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A caller-owned, reusable row filled by CSVReader.nextRow(RowBuffer). The
+ * fields are views over the reader's internal buffer, so they are only valid
+ * until the next row is read from the same reader. A String is created only
+ * when the caller asks for one.
+ */
+public class RowBuffer {
+
+    char[] chars;
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int size = 0;
+
+    /**
+     * set when the row is still undecoded bytes of a memory mapped file;
+     * its fields are decoded into arena on first access
+     */
+    private MappedParser source = null;
+    private boolean[] decoded = new boolean[16];
+    private char[] arena = new char[1024];
+    private int arenaLength = 0;
+
+    private Field[] views = new Field[0];
+
+    /**
+     * @return the number of fields in the current row
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * get a field of the current row without copying it
+     *
+     * @param i - index of the field
+     * @return a view of the field which is reused for every row read into
+     * this buffer
+     */
+    public CharSequence get(int i) {
+        checkIndex(i);
+        if (i >= views.length) {
+            int n = views.length;
+            views = Arrays.copyOf(views, Math.max(i + 1, n * 2));
+            for (; n < views.length; n++) {
+                views[n] = new Field(n);
+            }
+        }
+        return views[i];
+    }
+
+    /**
+     * get a field of the current row as a String
+     *
+     * @param i - index of the field
+     */
+    public String getString(int i) {
+        checkIndex(i);
+        decode(i);
+        return new String(chars, starts[i], ends[i] - starts[i]);
+    }
+
+    /**
+     * @param i - index of the field
+     * @return the length of the field
+     */
+    public int length(int i) {
+        checkIndex(i);
+        decode(i);
+        return ends[i] - starts[i];
+    }
+
+    /**
+     * copy field i into dst from at on, which must have room for length(i) chars
+     *
+     * @return the length of the field
+     */
+    int getChars(int i, char[] dst, int at) {
+        checkIndex(i);
+        decode(i);
+        int length = ends[i] - starts[i];
+        System.arraycopy(chars, starts[i], dst, at, length);
+        return length;
+    }
+
+    /**
+     * copy the current row into a new List of String
+     */
+    public List<String> toList() {
+        List<String> row = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            decode(i);
+            row.add(new String(chars, starts[i], ends[i] - starts[i]));
+        }
+        return row;
+    }
+
+    /**
+     * copy the current row into a new List of String, taking the Strings of
+     * the columns which have a cache from it
+     *
+     * @param caches - the cache of every column, or null for none
+     */
+    List<String> toList(StringCache[] caches) {
+        List<String> row = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            decode(i);
+            StringCache cache = i < caches.length ? caches[i] : null;
+            row.add(cache != null ? cache.get(chars, starts[i], ends[i])
+                    : new String(chars, starts[i], ends[i] - starts[i]));
+        }
+        return row;
+    }
+
+    /**
+     * point this buffer at the fields of a row parsed by CSVReader
+     */
+    void set(char[] chars, int[] starts, int[] ends, int size) {
+        ensureCapacity(size);
+        System.arraycopy(starts, 0, this.starts, 0, size);
+        System.arraycopy(ends, 0, this.ends, 0, size);
+        this.chars = chars;
+        this.size = size;
+        this.source = null;
+    }
+
+    /**
+     * point this buffer at the row last scanned by a MappedParser
+     */
+    void set(MappedParser source) {
+        int size = source.fieldCount;
+        ensureCapacity(size);
+        Arrays.fill(decoded, 0, size, false);
+        this.chars = arena;
+        this.arenaLength = 0;
+        this.size = size;
+        this.source = source;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > starts.length) {
+            int n = Math.max(size, starts.length * 2);
+            starts = new int[n];
+            ends = new int[n];
+            decoded = new boolean[n];
+        }
+    }
+
+    /**
+     * make sure field i is in chars between starts[i] and ends[i]
+     */
+    void decode(int i) {
+        if (source == null || decoded[i]) {
+            return;
+        }
+        int needed = arenaLength + source.maxLength(i);
+        if (needed > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(needed, arena.length * 2));
+            chars = arena;
+        }
+        int start = arenaLength;
+        int end = source.decode(i, arena, start);
+        arenaLength = end;
+        if (source.isTrim()) {
+            while (start < end && arena[start] <= ' ') {
+                start++;
+            }
+            while (end > start && arena[end - 1] <= ' ') {
+                end--;
+            }
+        }
+        starts[i] = start;
+        ends[i] = end;
+        decoded[i] = true;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("field " + i + " of a row of " + size + " fields");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    private class Field implements CharSequence {
+
+        private final int index;
+
+        private Field(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() {
+            decode(index);
+            return ends[index] - starts[index];
+        }
+
+        @Override
+        public char charAt(int i) {
+            if (i < 0 || i >= length()) {
+                throw new IndexOutOfBoundsException(i);
+            }
+            return chars[starts[index] + i];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            int length = length();
+            return new String(chars, starts[index], length);
+        }
+    }
+}
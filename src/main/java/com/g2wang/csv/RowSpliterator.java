@@ -0,0 +1,157 @@
+package com.g2wang.csv;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * The rows of a CSVReader, read one at a time as they are asked for.
+ *
+ * A reader of a memory mapped file splits the bytes it has not read yet in
+ * two at a row boundary, found by quote parity the same way as
+ * CSVParallelReader finds it, and the first half gets a MappedParser of its
+ * own. Every other reader is split the way AbstractSpliterator splits, by
+ * reading a batch of rows ahead.
+ */
+final class RowSpliterator extends Spliterators.AbstractSpliterator<List<String>> {
+
+    /**
+     * ranges smaller than this are not split
+     */
+    static final long MIN_SPLIT = 1L << 20;
+
+    private final CSVReader reader;
+
+    /**
+     * the reader of the root spliterator, whose error policy applies to
+     * every split
+     */
+    private final CSVReader owner;
+    private final MappedParser parser;
+    private final RowBuffer row;
+
+    /**
+     * the string caches of a split, of its own as they are not thread safe
+     */
+    private final StringCache[] caches;
+
+    /**
+     * the parsers opened by splitting, shared by every spliterator split
+     * from the same root and closed with the reader
+     */
+    private final Queue<MappedParser> opened;
+
+    private final long minSplit;
+
+    private boolean done = false;
+
+    RowSpliterator(CSVReader reader, MappedParser parser, long minSplit) {
+        this(reader, reader, parser, minSplit, new ConcurrentLinkedQueue<>());
+    }
+
+    private RowSpliterator(CSVReader reader, CSVReader owner, MappedParser parser, long minSplit,
+            Queue<MappedParser> opened) {
+        super(parser == null ? Long.MAX_VALUE : parser.getEnd() - parser.getPosition(), ORDERED | NONNULL);
+        this.reader = reader;
+        this.owner = owner;
+        this.parser = parser;
+        this.row = reader == null ? new RowBuffer() : null;
+        this.caches = reader == null ? owner.newStringCaches() : null;
+        this.minSplit = minSplit;
+        this.opened = opened;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super List<String>> action) {
+        if (done) {
+            return false;
+        }
+        try {
+            List<String> next;
+            if (reader != null) {
+                next = reader.nextRow();
+            } else if (owner.parseRow(parser)) {
+                row.set(parser);
+                next = caches == null ? row.toList() : row.toList(caches);
+            } else {
+                next = null;
+            }
+            if (next == null) {
+                done = true;
+                close();
+                return false;
+            }
+            action.accept(next);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (IllegalCSVFormatException e) {
+            throw new UncheckedCSVFormatException(e);
+        }
+    }
+
+    @Override
+    public Spliterator<List<String>> trySplit() {
+        if (parser == null || done) {
+            return done ? null : super.trySplit();
+        }
+        long start = parser.getPosition();
+        long end = parser.getEnd();
+        if (end - start < minSplit * 2) {
+            return null;
+        }
+        try {
+            long middle = start + (end - start) / 2;
+            boolean quoted = (CSVParallelReader.countQuotes(parser.getPath(), start, middle, parser.getQuote()) & 1) == 1;
+            long boundary = CSVParallelReader.findRowStart(parser.getPath(), middle, end, parser.getQuote(), quoted);
+            if (boundary >= end) {
+                return null;
+            }
+            MappedParser prefix = parser.range(start, boundary);
+            opened.add(prefix);
+            parser.skipTo(boundary);
+            return new RowSpliterator(null, owner, prefix, minSplit, opened);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public long estimateSize() {
+        return parser == null ? super.estimateSize() : parser.getEnd() - parser.getPosition();
+    }
+
+    /**
+     * close the reader or the parser of this spliterator once its rows are
+     * all read
+     */
+    private void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        } else {
+            parser.close();
+        }
+    }
+
+    /**
+     * close the reader and every parser opened by splitting
+     */
+    void closeAll() {
+        if (reader != null) {
+            reader.close();
+        }
+        MappedParser p;
+        while ((p = opened.poll()) != null) {
+            try {
+                p.close();
+            } catch (IOException e) {
+                // do nothing
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.g2wang.csv;
+
+/**
+ * A bounded table of the distinct values of a column, keyed by their chars,
+ * which returns the same String for the same chars without creating a String
+ * to look it up. A String is created only for a value which is not in the
+ * table, or which is too long to be worth keeping.
+ *
+ * When the table is full, a value is evicted by the clock algorithm: a hit
+ * marks its entry as referenced, and the clock hand clears the mark of every
+ * entry it passes until it finds one which is not marked, which is replaced.
+ * Values which keep recurring stay; values seen once are replaced first.
+ */
+final class StringCache {
+
+    /**
+     * values longer than this are not kept
+     */
+    static final int MAX_LENGTH = 128;
+
+    private final int capacity;
+    private final String[] strings;
+    private final int[] hashes;
+    private final boolean[] referenced;
+    private int size = 0;
+    private int hand = 0;
+
+    /**
+     * entry + 1 of every value at its slot, or 0 for an empty slot
+     */
+    private final int[] slots;
+
+    /**
+     * @param capacity - the largest number of values kept
+     */
+    StringCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.strings = new String[capacity];
+        this.hashes = new int[capacity];
+        this.referenced = new boolean[capacity];
+        this.slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    }
+
+    /**
+     * @return the String of the chars between start and end
+     */
+    String get(char[] chars, int start, int end) {
+        if (end - start > MAX_LENGTH) {
+            return new String(chars, start, end - start);
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask;; slot = (slot + 1) & mask) {
+            int e = slots[slot] - 1;
+            if (e < 0) {
+                break;
+            }
+            if (hashes[e] == hash && equals(strings[e], chars, start, end)) {
+                referenced[e] = true;
+                return strings[e];
+            }
+        }
+        int e;
+        if (size < capacity) {
+            e = size++;
+        } else {
+            e = evict();
+        }
+        String s = new String(chars, start, end - start);
+        strings[e] = s;
+        hashes[e] = hash;
+        referenced[e] = false;
+        int slot = mix(hash) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = e + 1;
+        return s;
+    }
+
+    /**
+     * @return the number of values kept
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * remove the entry under the clock hand which is not referenced
+     *
+     * @return the entry
+     */
+    private int evict() {
+        while (referenced[hand]) {
+            referenced[hand] = false;
+            hand = hand + 1 == capacity ? 0 : hand + 1;
+        }
+        int e = hand;
+        hand = hand + 1 == capacity ? 0 : hand + 1;
+        int mask = slots.length - 1;
+        int i = mix(hashes[e]) & mask;
+        while (slots[i] != e + 1) {
+            i = (i + 1) & mask;
+        }
+        // shift back the entries after it which would no longer be found
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int home = mix(hashes[slots[j] - 1]) & mask;
+            if (i <= j ? i < home && home <= j : i < home || home <= j) {
+                continue;
+            }
+            slots[i] = slots[j];
+            i = j;
+        }
+        slots[i] = 0;
+        strings[e] = null;
+        return e;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ hash >>> 16;
+    }
+
+    private static boolean equals(String s, char[] chars, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,149 @@
+package com.g2wang.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the structural bytes of a block of input: the quote, the delimiter,
+ * CR and NL. MappedParser walks the resulting index and runs the state
+ * machine only at those positions, because every byte in between is of class
+ * OTHER.
+ *
+ * The implementation is picked once per JVM with the system property
+ * com.g2wang.csv.scanner, which is one of vector, swar or scalar. The
+ * default is vector when the jdk.incubator.vector module has been added to
+ * the JVM with --add-modules, and swar otherwise.
+ */
+abstract class StructuralScanner {
+
+    static final String PROPERTY = "com.g2wang.csv.scanner";
+
+    private static final StructuralScanner DEFAULT = create(System.getProperty(PROPERTY, "vector"));
+
+    static StructuralScanner getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param name - vector, swar or scalar
+     * @return the named scanner, or the SWAR scanner if the Vector API is
+     * asked for but not available
+     */
+    static StructuralScanner create(String name) {
+        return switch (name) {
+            case "scalar" ->
+                new ScalarScanner();
+            case "swar" ->
+                new SwarScanner();
+            case "vector" -> {
+                if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+                    try {
+                        yield (StructuralScanner) Class.forName("com.g2wang.csv.VectorScanner")
+                                .getDeclaredConstructor().newInstance();
+                    } catch (ReflectiveOperationException | LinkageError e) {
+                        // fall back to SWAR
+                    }
+                }
+                yield new SwarScanner();
+            }
+            default ->
+                throw new IllegalArgumentException("unknown scanner " + name);
+        };
+    }
+
+    /**
+     * record the positions of the structural bytes between from and to
+     *
+     * @param index - receives the positions; must hold to - from entries
+     * @return the number of positions recorded
+     */
+    abstract int index(ByteBuffer buf, int from, int to, byte delimiter, byte quote, int[] index);
+
+    /**
+     * @return the number of bytes between from and to which equal b
+     */
+    abstract long count(ByteBuffer buf, int from, int to, byte b);
+
+    static int indexScalar(ByteBuffer buf, int from, int to, byte delimiter, byte quote, int[] index, int n) {
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == quote || b == delimiter || b == '\r' || b == '\n') {
+                index[n++] = i;
+            }
+        }
+        return n;
+    }
+
+    static long countScalar(ByteBuffer buf, int from, int to, byte b) {
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    static final class ScalarScanner extends StructuralScanner {
+
+        @Override
+        int index(ByteBuffer buf, int from, int to, byte delimiter, byte quote, int[] index) {
+            return indexScalar(buf, from, to, delimiter, quote, index, 0);
+        }
+
+        @Override
+        long count(ByteBuffer buf, int from, int to, byte b) {
+            return countScalar(buf, from, to, b);
+        }
+    }
+
+    /**
+     * Tests eight bytes at a time with the arithmetic of a long, reading the
+     * long so that its lowest byte comes first.
+     */
+    static final class SwarScanner extends StructuralScanner {
+
+        private static final long ONES = 0x0101010101010101L;
+        private static final long LOW7 = 0x7f7f7f7f7f7f7f7fL;
+
+        /**
+         * @return a long with the high bit set in every byte of word which
+         * equals the byte pattern
+         */
+        private static long matches(long word, long pattern) {
+            long x = word ^ pattern;
+            return ~((x & LOW7) + LOW7 | x | LOW7);
+        }
+
+        @Override
+        int index(ByteBuffer buf, int from, int to, byte delimiter, byte quote, int[] index) {
+            long d = (delimiter & 0xffL) * ONES;
+            long q = (quote & 0xffL) * ONES;
+            long cr = '\r' * ONES;
+            long nl = '\n' * ONES;
+            boolean swap = buf.order() == ByteOrder.BIG_ENDIAN;
+            int n = 0;
+            int i = from;
+            for (; i + 8 <= to; i += 8) {
+                long word = swap ? Long.reverseBytes(buf.getLong(i)) : buf.getLong(i);
+                long m = matches(word, q) | matches(word, d) | matches(word, cr) | matches(word, nl);
+                while (m != 0) {
+                    index[n++] = i + (Long.numberOfTrailingZeros(m) >>> 3);
+                    m &= m - 1;
+                }
+            }
+            return indexScalar(buf, i, to, delimiter, quote, index, n);
+        }
+
+        @Override
+        long count(ByteBuffer buf, int from, int to, byte b) {
+            long pattern = (b & 0xffL) * ONES;
+            long n = 0;
+            int i = from;
+            for (; i + 8 <= to; i += 8) {
+                n += Long.bitCount(matches(buf.getLong(i), pattern));
+            }
+            return n + countScalar(buf, i, to, b);
+        }
+    }
+}
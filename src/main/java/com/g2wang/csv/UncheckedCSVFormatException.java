@@ -0,0 +1,19 @@
+package com.g2wang.csv;
+
+import java.util.Objects;
+
+/**
+ * Wraps an IllegalCSVFormatException where a checked exception cannot be
+ * thrown, such as in the rows of a Stream.
+ */
+public class UncheckedCSVFormatException extends RuntimeException {
+
+    public UncheckedCSVFormatException(IllegalCSVFormatException cause) {
+        super(Objects.requireNonNull(cause));
+    }
+
+    @Override
+    public IllegalCSVFormatException getCause() {
+        return (IllegalCSVFormatException) super.getCause();
+    }
+}
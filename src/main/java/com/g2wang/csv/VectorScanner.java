@@ -0,0 +1,45 @@
+package com.g2wang.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Tests a whole vector of bytes at a time with the incubating Vector API.
+ * This class is only loaded by StructuralScanner when the
+ * jdk.incubator.vector module is present.
+ */
+final class VectorScanner extends StructuralScanner {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    @Override
+    int index(ByteBuffer buf, int from, int to, byte delimiter, byte quote, int[] index) {
+        int step = SPECIES.length();
+        int n = 0;
+        int i = from;
+        for (; i + step <= to; i += step) {
+            ByteVector v = ByteVector.fromByteBuffer(SPECIES, buf, i, ByteOrder.LITTLE_ENDIAN);
+            VectorMask<Byte> m = v.eq(quote).or(v.eq(delimiter)).or(v.eq((byte) '\r')).or(v.eq((byte) '\n'));
+            long bits = m.toLong();
+            while (bits != 0) {
+                index[n++] = i + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return indexScalar(buf, i, to, delimiter, quote, index, n);
+    }
+
+    @Override
+    long count(ByteBuffer buf, int from, int to, byte b) {
+        int step = SPECIES.length();
+        long n = 0;
+        int i = from;
+        for (; i + step <= to; i += step) {
+            n += ByteVector.fromByteBuffer(SPECIES, buf, i, ByteOrder.LITTLE_ENDIAN).eq(b).trueCount();
+        }
+        return n + countScalar(buf, i, to, b);
+    }
+}
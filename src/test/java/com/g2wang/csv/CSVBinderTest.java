@@ -0,0 +1,76 @@
+package com.g2wang.csv;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVBinderTest {
+
+    enum Status {
+        OPEN, CLOSED
+    }
+
+    record Trade(int id, long qty, double price, boolean open, char side, Integer lot, String name,
+            LocalDate date, BigDecimal fee, Status status) {
+    }
+
+    record Pair(String name, int id) {
+    }
+
+    @Test
+    void writesAndReadsRecords() throws Exception {
+        List<Trade> trades = List.of(
+                new Trade(1, 10_000_000_000L, 1.25, true, 'B', 7, "a,b", LocalDate.of(2021, 11, 1),
+                        new BigDecimal("0.10"), Status.OPEN),
+                new Trade(-2, 0, -0.5, false, 'S', null, "", null, null, null));
+        StringWriter out = new StringWriter();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.writeHeader(Trade.class);
+            for (Trade t : trades) {
+                writer.writeObject(t);
+            }
+        }
+        assertEquals("id,qty,price,open,side,lot,name,date,fee,status\n"
+                + "1,10000000000,1.25,true,B,7,\"a,b\",2021-11-01,0.10,OPEN\n"
+                + "-2,0,-0.5,false,S,,,,,\n", out.toString());
+        try (CSVReader reader = CSVReader.fromString(out.toString())) {
+            reader.readHeader();
+            assertEquals(trades.get(0), reader.nextObject(Trade.class));
+            assertEquals(trades.get(1), reader.nextObject(Trade.class));
+            assertNull(reader.nextObject(Trade.class));
+        }
+    }
+
+    @Test
+    void matchesComponentsByName() throws Exception {
+        try (CSVReader reader = CSVReader.fromString("id,x,name\n1,?,a\n2,?,b\n")) {
+            reader.readHeader();
+            try (Stream<Pair> pairs = reader.as(Pair.class)) {
+                assertEquals(List.of(new Pair("a", 1), new Pair("b", 2)), pairs.collect(Collectors.toList()));
+            }
+        }
+        try (CSVReader reader = CSVReader.fromString("a,1\n")) {
+            assertEquals(new Pair("a", 1), reader.nextObject(Pair.class));
+        }
+        try (CSVReader reader = CSVReader.fromString("id\n1\n")) {
+            reader.readHeader();
+            assertThrows(IllegalArgumentException.class, () -> reader.nextObject(Pair.class));
+        }
+        try (CSVReader reader = CSVReader.fromString("a,x\n")) {
+            assertThrows(NumberFormatException.class, () -> reader.nextObject(Pair.class));
+        }
+        StringWriter out = new StringWriter();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.writeHeader(CSVHeader.of("id", "extra", "name"));
+            writer.writeObject(new Pair("a", 1));
+        }
+        assertEquals("id,extra,name\n1,,a\n", out.toString());
+        assertThrows(IllegalArgumentException.class, () -> CSVBinder.of(String.class));
+    }
+}
@@ -0,0 +1,205 @@
+package com.g2wang.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVConcurrentWriterTest {
+
+    private static final int THREADS = 4;
+    private static final int ROWS = 20000;
+
+    private static List<List<String>> writeFromThreads(CSVConcurrentWriter.Order order) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try (CSVConcurrentWriter writer = CSVConcurrentWriter.toOutputStream(bytes, StandardCharsets.UTF_8,
+                order, 4096, 2).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.writeHeader(CSVHeader.of("thread", "row", "text"));
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                String thread = Integer.toString(t);
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < ROWS; i++) {
+                        writer.write(new String[]{thread, Integer.toString(i), i % 7 == 0 ? "a,\"b\"\n\u20ac" : "x"});
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        List<List<String>> rows = new ArrayList<>();
+        try (CSVReader reader = CSVReader.fromString(bytes.toString(StandardCharsets.UTF_8))) {
+            assertEquals(CSVHeader.of("thread", "row", "text"), reader.readHeader());
+            List<String> row;
+            while ((row = reader.nextRow()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    void writesAllRowsOfAllThreads() throws Exception {
+        for (CSVConcurrentWriter.Order order : CSVConcurrentWriter.Order.values()) {
+            List<List<String>> rows = writeFromThreads(order);
+            assertEquals(THREADS * ROWS, rows.size());
+            Set<List<String>> distinct = new HashSet<>();
+            int[] last = new int[THREADS];
+            Arrays.fill(last, -1);
+            for (List<String> row : rows) {
+                int t = Integer.parseInt(row.get(0));
+                int i = Integer.parseInt(row.get(1));
+                assertEquals(i % 7 == 0 ? "a,\"b\"\n\u20ac" : "x", row.get(2));
+                // the rows of one thread keep their order either way
+                assertEquals(last[t] + 1, i);
+                last[t] = i;
+                assertTrue(distinct.add(row));
+            }
+        }
+    }
+
+    @Test
+    void keepsSubmissionOrder() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        Object turn = new Object();
+        int[] next = {0};
+        try (CSVConcurrentWriter writer = CSVConcurrentWriter.toOutputStream(bytes, StandardCharsets.UTF_8,
+                CSVConcurrentWriter.Order.SUBMISSION, 4096, 2)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(pool.submit(() -> {
+                    while (true) {
+                        int i;
+                        // i is taken with the write, so that it is the submission order
+                        synchronized (turn) {
+                            i = next[0]++;
+                            if (i >= ROWS) {
+                                return null;
+                            }
+                            writer.write(1, j -> Integer.toString(i));
+                        }
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try (CSVReader reader = CSVReader.fromString(bytes.toString(StandardCharsets.UTF_8))) {
+            for (int i = 0; i < ROWS; i++) {
+                assertEquals(List.of(Integer.toString(i)), reader.nextRow());
+            }
+            assertNull(reader.nextRow());
+        }
+    }
+
+    @Test
+    void dropsARowWhoseFieldFails() throws Exception {
+        String big = "x".repeat(100000);
+        for (CSVConcurrentWriter.Order order : CSVConcurrentWriter.Order.values()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (CSVConcurrentWriter writer = CSVConcurrentWriter.toOutputStream(bytes, StandardCharsets.UTF_8,
+                    order).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+                writer.write(new String[]{"a", "b"});
+                // a short row, and a row which has outgrown the buffer of its formatter
+                for (String first : new String[]{"f0", big}) {
+                    assertThrows(IllegalStateException.class, () -> writer.write(3, i -> {
+                        if (i == 2) {
+                            throw new IllegalStateException("no field " + i);
+                        }
+                        return i == 0 ? first : "f" + i;
+                    }));
+                }
+                writer.write(new String[]{"ok1", "ok2"});
+            }
+            assertEquals("a,b\nok1,ok2\n", bytes.toString(StandardCharsets.UTF_8), order.name());
+        }
+    }
+
+    @Test
+    void writesTheRowOfAnInterruptedThread() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CountDownLatch formatting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        boolean[] interrupted = new boolean[1];
+        try (CSVConcurrentWriter writer = CSVConcurrentWriter.toOutputStream(bytes, StandardCharsets.UTF_8,
+                CSVConcurrentWriter.Order.SUBMISSION).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            Thread first = new Thread(() -> {
+                try {
+                    writer.write(1, i -> {
+                        formatting.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return "first";
+                    });
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            first.start();
+            formatting.await();
+            Thread second = new Thread(() -> {
+                try {
+                    writer.write(new String[]{"second"});
+                    interrupted[0] = Thread.currentThread().isInterrupted();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            second.start();
+            while (second.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            second.interrupt();
+            release.countDown();
+            first.join();
+            second.join();
+        }
+        assertEquals("first\nsecond\n", bytes.toString(StandardCharsets.UTF_8));
+        assertTrue(interrupted[0]);
+    }
+
+    @Test
+    void throwsErrorsOfTheOutput() throws Exception {
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        CSVConcurrentWriter writer = CSVConcurrentWriter.toOutputStream(broken, StandardCharsets.UTF_8,
+                CSVConcurrentWriter.Order.ANY);
+        writer.write(new String[]{"a", "b"});
+        assertThrows(IOException.class, writer::flush);
+        assertThrows(IOException.class, writer::close);
+        assertThrows(IOException.class, () -> writer.write(new String[]{"c"}));
+    }
+}
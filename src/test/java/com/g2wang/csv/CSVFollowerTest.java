@@ -0,0 +1,173 @@
+package com.g2wang.csv;
+
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVFollowerTest {
+
+    private static void append(Path file, String text) throws Exception {
+        Files.writeString(file, text, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    void returnsCompleteRowsAndResumesFromACheckpoint() throws Exception {
+        Path dir = Files.createTempDirectory("follow");
+        Path log = dir.resolve("log.csv");
+        Path saved = dir.resolve("log.checkpoint");
+        try {
+            Files.writeString(log, "1,a\n2,\"open");
+            CSVFollower.Checkpoint checkpoint;
+            try (CSVFollower follower = CSVFollower.follow(log)) {
+                assertEquals(List.of("1", "a"), follower.poll());
+                // the quoted field is still open
+                assertNull(follower.poll());
+                append(log, "\nstill, open");
+                assertNull(follower.poll());
+                append(log, "\"\n3,c");
+                assertEquals(List.of("2", "open\nstill, open"), follower.poll());
+                assertNull(follower.poll());
+                checkpoint = follower.checkpoint();
+                assertEquals(2, checkpoint.getRows());
+                assertEquals(Files.size(log) - 3, checkpoint.getOffset());
+                checkpoint.save(saved);
+            }
+
+            append(log, "\n4,d\n");
+            try (CSVFollower follower = CSVFollower.follow(log, StandardCharsets.UTF_8, CSVFormat.DEFAULT,
+                    CSVFollower.Checkpoint.load(saved))) {
+                assertEquals(List.of("3", "c"), follower.poll());
+                assertEquals(List.of("4", "d"), follower.poll());
+                assertNull(follower.poll());
+                assertEquals(4, follower.checkpoint().getRows());
+
+                // a rotated file is read from its start
+                Files.writeString(log, "5,e\n");
+                assertEquals(List.of("5", "e"), follower.poll());
+                assertEquals(1, follower.checkpoint().getRows());
+            }
+            assertEquals(CSVFollower.Checkpoint.START.getOffset(),
+                    CSVFollower.Checkpoint.load(dir.resolve("missing")).getOffset());
+        } finally {
+            Files.deleteIfExists(saved);
+            Files.deleteIfExists(log);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void startsOverAfterATruncateWhileRowsArePending() throws Exception {
+        Path dir = Files.createTempDirectory("follow");
+        Path log = dir.resolve("log.csv");
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 20000; i++) {
+                sb.append(i).append(",old\n");
+            }
+            Files.writeString(log, sb.toString());
+            try (CSVFollower follower = CSVFollower.follow(log)) {
+                assertEquals(List.of("0", "old"), follower.poll());
+                // as copytruncate does
+                try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+                    channel.truncate(0);
+                }
+                append(log, "0,new\n1,new\n");
+                List<List<String>> rows = new ArrayList<>();
+                List<String> row;
+                while ((row = follower.poll()) != null) {
+                    rows.add(row);
+                }
+                // the rows already read are followed by the new ones
+                int stale = rows.size() - 2;
+                for (int i = 0; i < stale; i++) {
+                    assertEquals(List.of(Integer.toString(i + 1), "old"), rows.get(i));
+                }
+                assertEquals(List.of(List.of("0", "new"), List.of("1", "new")), rows.subList(stale, rows.size()));
+                assertEquals(2, follower.checkpoint().getRows());
+            }
+        } finally {
+            Files.deleteIfExists(log);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void savesACheckpointFromSeveralThreads() throws Exception {
+        Path dir = Files.createTempDirectory("follow");
+        Path log = dir.resolve("log.csv");
+        Path saved = dir.resolve("log.checkpoint");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Files.writeString(log, "1,a\n2,b\n");
+            CSVFollower.Checkpoint checkpoint;
+            try (CSVFollower follower = CSVFollower.follow(log)) {
+                follower.poll();
+                checkpoint = follower.checkpoint();
+            }
+            List<Future<?>> saves = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                saves.add(pool.submit(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        checkpoint.save(saved);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> save : saves) {
+                save.get();
+            }
+            assertEquals(4, CSVFollower.Checkpoint.load(saved).getOffset());
+            try (Stream<Path> files = Files.list(dir)) {
+                // no temporary file is left behind
+                assertEquals(2, files.count());
+            }
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(saved);
+            Files.deleteIfExists(log);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void waitsForAppendedRows() throws Exception {
+        Path dir = Files.createTempDirectory("follow");
+        Path log = dir.resolve("log.csv");
+        try {
+            Files.writeString(log, "");
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 5; i++) {
+                        Thread.sleep(20);
+                        append(log, i + ",x\n");
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            try (CSVFollower follower = CSVFollower.follow(log).withPollInterval(Duration.ofMillis(50))) {
+                assertNull(follower.next(Duration.ofMillis(10)));
+                writer.start();
+                for (int i = 0; i < 5; i++) {
+                    assertEquals(List.of(Integer.toString(i), "x"), follower.next(Duration.ofSeconds(10)));
+                }
+            }
+            writer.join();
+        } finally {
+            Files.deleteIfExists(log);
+            Files.delete(dir);
+        }
+    }
+}
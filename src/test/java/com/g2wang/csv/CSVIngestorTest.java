@@ -0,0 +1,120 @@
+package com.g2wang.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVIngestorTest {
+
+    @Test
+    void readsEveryFileInBatchesAndReportsFailures() throws Exception {
+        Path dir = Files.createTempDirectory("ingest");
+        try {
+            List<Path> files = new ArrayList<>();
+            for (int f = 0; f < 20; f++) {
+                StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < 1000 + f; i++) {
+                    sb.append(f).append(',').append(i).append(",\"x,y\"\n");
+                }
+                Path file = dir.resolve("f" + f + ".csv");
+                Files.writeString(file, sb, StandardCharsets.UTF_8);
+                files.add(file);
+            }
+            Path broken = dir.resolve("broken.csv");
+            Files.writeString(broken, "1,a\n2,\"b\"c\n3,d\n");
+            files.add(broken);
+            files.add(dir.resolve("missing.csv"));
+
+            Map<Path, List<List<String>>> rows = new ConcurrentHashMap<>();
+            AtomicInteger active = new AtomicInteger();
+            AtomicInteger maxActive = new AtomicInteger();
+            AtomicInteger progress = new AtomicInteger();
+            List<CSVIngestor.FileStatus> statuses = CSVIngestor.create().withMaxOpenFiles(4)
+                    .withMaxInFlightBytes(64 * 1024).withBatchSize(100).withProgress(s -> progress.incrementAndGet())
+                    .ingest(files, (file, batch) -> {
+                        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                        assertTrue(batch.size() <= 100);
+                        rows.computeIfAbsent(file, k -> new ArrayList<>()).addAll(batch);
+                        active.decrementAndGet();
+                    });
+
+            assertEquals(files.size(), statuses.size());
+            assertTrue(maxActive.get() <= 4);
+            for (int f = 0; f < 20; f++) {
+                CSVIngestor.FileStatus status = statuses.get(f);
+                assertEquals(files.get(f), status.getFile());
+                assertTrue(status.isDone());
+                assertNull(status.getFailure());
+                assertEquals(1000 + f, status.getRows());
+                assertEquals(Files.size(files.get(f)), status.getBytesRead());
+                List<List<String>> read = rows.get(files.get(f));
+                for (int i = 0; i < read.size(); i++) {
+                    assertEquals(List.of(Integer.toString(f), Integer.toString(i), "x,y"), read.get(i));
+                }
+            }
+            assertTrue(statuses.get(20).getFailure() instanceof IllegalCSVFormatException);
+            // the rows of a batch which a failure ends are not consumed
+            assertEquals(0, statuses.get(20).getRows());
+            assertNotNull(statuses.get(21).getFailure());
+            assertEquals(-1, statuses.get(21).getSize());
+            assertTrue(progress.get() > files.size());
+        } finally {
+            try (Stream<Path> paths = Files.list(dir)) {
+                for (Path p : (Iterable<Path>) paths::iterator) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void servesTheFilesWaitingForBytesInTurn() throws Exception {
+        CSVIngestor.InFlight inFlight = new CSVIngestor.InFlight(10);
+        assertTrue(inFlight.tryAcquire(8));
+        List<String> served = new ArrayList<>();
+        Thread large = waiter(inFlight, 5, "large", served);
+        Thread small = waiter(inFlight, 1, "small", served);
+        // the bytes left would do, but a file waits before this one
+        assertFalse(inFlight.tryAcquire(1));
+        inFlight.release(8);
+        large.join();
+        small.join();
+        assertEquals(List.of("large", "small"), served);
+        assertTrue(inFlight.tryAcquire(4));
+        assertFalse(inFlight.tryAcquire(1));
+    }
+
+    /**
+     * @return a started thread which waits for bytes, then adds name to
+     * served, once it waits or is done
+     */
+    private static Thread waiter(CSVIngestor.InFlight inFlight, long bytes, String name, List<String> served)
+            throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                inFlight.acquire(bytes);
+                synchronized (served) {
+                    served.add(name);
+                }
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        while (thread.getState() != Thread.State.WAITING && thread.isAlive()) {
+            Thread.sleep(1);
+        }
+        return thread;
+    }
+}
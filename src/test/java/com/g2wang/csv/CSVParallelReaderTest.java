@@ -0,0 +1,98 @@
+package com.g2wang.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVParallelReaderTest {
+
+    private static Path writeSample(int rows) throws Exception {
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append(i).append(',');
+            switch (random.nextInt(4)) {
+                case 0 -> sb.append("\"embedded\nnewline, \"\"quoted\"\"\"");
+                case 1 -> sb.append("\"\"");
+                case 2 -> sb.append("\"\n\"");
+                default -> sb.append("plain");
+            }
+            sb.append(random.nextBoolean() ? "\r\n" : "\n");
+        }
+        Path csv = Files.createTempFile("parallel", ".csv");
+        Files.writeString(csv, sb, StandardCharsets.UTF_8);
+        return csv;
+    }
+
+    private static List<List<String>> readSequentially(Path csv) throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        try (CSVReader reader = CSVReader.fromPath(csv)) {
+            List<String> row;
+            while ((row = reader.nextRow()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    @Test
+    void forEachOrderedMatchesSequentialReader() throws Exception {
+        Path csv = writeSample(2000);
+        try (CSVParallelReader reader = CSVReader.parallel(csv, 4)) {
+            reader.chunkSize = 97;
+            List<List<String>> rows = new ArrayList<>();
+            reader.forEachOrdered(rows::add);
+            assertEquals(readSequentially(csv), rows);
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void forEachDeliversEveryRow() throws Exception {
+        Path csv = writeSample(2000);
+        try (CSVParallelReader reader = CSVParallelReader.fromPath(csv, 3)) {
+            reader.chunkSize = 61;
+            List<List<String>> rows = Collections.synchronizedList(new ArrayList<>());
+            reader.forEach(rows::add);
+            Comparator<List<String>> byNumber = Comparator.comparing(r -> Integer.valueOf(r.get(0)));
+            rows.sort(byNumber);
+            assertEquals(readSequentially(csv), rows);
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void reportsIllegalFormat() throws Exception {
+        Path csv = Files.createTempFile("parallel", ".csv");
+        Files.writeString(csv, "a,b\n\"x\"y,z\n");
+        try (CSVParallelReader reader = CSVParallelReader.fromPath(csv, 2)) {
+            assertThrows(IllegalCSVFormatException.class, () -> reader.forEachOrdered(row -> {
+            }));
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void parallelRowsStreamMatchesSequentialReader() throws Exception {
+        Path csv = writeSample(2000);
+        try (CSVReader reader = CSVReader.fromPath(csv);
+                Stream<List<String>> rows = reader.rows(64)) {
+            assertEquals(readSequentially(csv), rows.parallel().collect(Collectors.toList()));
+        } finally {
+            Files.delete(csv);
+        }
+    }
+}
@@ -1,7 +1,450 @@
 package com.g2wang.csv;
 
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.jupiter.api.Test;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CSVReaderTest {
 
+    @Test
+    void readsUnquotedRows() throws Exception {
+        try (CSVReader reader = CSVReader.fromString("a,b,c\r\n1,,3\n")) {
+            assertEquals(Arrays.asList("a", "b", "c"), reader.nextRow());
+            assertEquals(Arrays.asList("1", "", "3"), reader.nextRow());
+            assertNull(reader.nextRow());
+        }
+    }
+
+    @Test
+    void readsQuotedFields() throws Exception {
+        try (CSVReader reader = CSVReader.fromString("\"a,b\",\"say \"\"hi\"\"\",\"line\nbreak\"\nx,\"\"")) {
+            assertEquals(Arrays.asList("a,b", "say \"hi\"", "line\nbreak"), reader.nextRow());
+            assertEquals(Arrays.asList("x", ""), reader.nextRow());
+            assertNull(reader.nextRow());
+        }
+    }
+
+    @Test
+    void readsRowsLongerThanTheBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            sb.append(i).append(i % 10 == 0 ? ",\"q\"\"\n\"," : ",");
+        }
+        sb.append("end\nlast\n");
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try (CSVReader reader = CSVReader.fromInputStream(new ByteArrayInputStream(bytes))) {
+            List<String> row = reader.nextRow();
+            assertEquals(55001, row.size());
+            assertEquals("q\"\n", row.get(1));
+            assertEquals("end", row.get(55000));
+            assertEquals(List.of("last"), reader.nextRow());
+            assertNull(reader.nextRow());
+        }
+    }
+
+    private static IllegalCSVFormatException readToError(CSVReader reader) {
+        return assertThrows(IllegalCSVFormatException.class, () -> {
+            while (reader.nextRow() != null) {
+                // read on
+            }
+        });
+    }
+
+    @Test
+    void throwsOnCharAfterClosingQuote() throws Exception {
+        try (CSVReader reader = CSVReader.fromString("a,\"b\"c\n")) {
+            IllegalCSVFormatException e = assertThrows(IllegalCSVFormatException.class, reader::nextRow);
+            assertEquals("Illegal CSV Format at char 6, line 1, column 6.", e.getMessage());
+            assertEquals(1, e.getLine());
+            assertEquals(6, e.getColumn());
+            assertEquals(5, e.getOffset());
+        }
+        // a supplementary char is two chars in the message of either engine
+        Path csv = Files.createTempFile("bad", ".csv");
+        try {
+            for (String text : new String[]{"\ud83d\ude00,\"a\"x\n", "\"a\"\ud83d\ude00\n", "x\n\ud83d\ude00\u20ac\"a\"b\n"}) {
+                Files.writeString(csv, text, StandardCharsets.UTF_8);
+                try (CSVReader stream = CSVReader.fromString(text); CSVReader mapped = CSVReader.fromPath(csv)) {
+                    assertEquals(readToError(stream).getMessage(), readToError(mapped).getMessage());
+                }
+            }
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void readsIntoRowBuffer() throws Exception {
+        RowBuffer row = new RowBuffer();
+        try (CSVReader reader = CSVReader.fromString("a,\"b\"\"c\"\n1,2,3\n")) {
+            assertTrue(reader.nextRow(row));
+            assertEquals(2, row.size());
+            CharSequence second = row.get(1);
+            assertEquals("b\"c", second.toString());
+            assertEquals('"', second.charAt(1));
+
+            assertTrue(reader.nextRow(row));
+            assertEquals(3, row.size());
+            assertSame(second, row.get(1));
+            assertEquals("2", row.getString(1));
+            assertEquals(List.of("1", "2", "3"), row.toList());
+
+            assertFalse(reader.nextRow(row));
+            assertEquals(0, row.size());
+        }
+    }
+
+    @Test
+    void readsMappedFileThroughSmallWindows() throws Exception {
+        Path csv = Files.createTempFile("mapped", ".csv");
+        try {
+            Files.writeString(csv, "na\u00efve,\"a\"\"b\",\"multi\r\nline\"\r\n\u20ac1,2\n3", StandardCharsets.UTF_8);
+            RowBuffer row = new RowBuffer();
+            try (CSVReader reader = CSVReader.fromPath(csv, StandardCharsets.UTF_8, 8)) {
+                assertTrue(reader.nextRow(row));
+                assertEquals(3, row.size());
+                assertEquals("multi\r\nline", row.getString(2));
+                assertEquals("na\u00efve", row.get(0).toString());
+                assertEquals("a\"b", row.getString(1));
+                assertEquals(List.of("\u20ac1", "2"), reader.nextRow());
+                assertEquals(List.of("3"), reader.nextRow());
+                assertNull(reader.nextRow());
+            }
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void readsWithPerReaderFormat() throws Exception {
+        CSVFormat semicolon = CSVFormat.DEFAULT.withDelimiter(';').withQuote('\'');
+        try (CSVReader a = CSVReader.fromString("x;'y;z'\n").withFormat(semicolon);
+                CSVReader b = CSVReader.fromString("x;'y;z'\n")) {
+            assertEquals(List.of("x", "y;z"), a.nextRow());
+            assertEquals(List.of("x;'y;z'"), b.nextRow());
+        }
+    }
+
+    @Test
+    void trimsAndAcceptsLenientQuotes() throws Exception {
+        CSVFormat format = CSVFormat.DEFAULT.withTrim(true).withLenientQuotes(true);
+        Path csv = Files.createTempFile("format", ".csv");
+        try {
+            Files.writeString(csv, " a ,\" b \"c ,\t\n");
+            try (CSVReader reader = CSVReader.fromString(Files.readString(csv)).withFormat(format)) {
+                assertEquals(List.of("a", "b c", ""), reader.nextRow());
+            }
+            try (CSVReader reader = CSVReader.fromPath(csv).withFormat(format)) {
+                assertEquals(List.of("a", "b c", ""), reader.nextRow());
+            }
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void rejectsAmbiguousFormat() {
+        assertThrows(IllegalArgumentException.class, () -> CSVFormat.DEFAULT.withDelimiter('"'));
+        assertThrows(IllegalArgumentException.class, () -> CSVFormat.DEFAULT.withQuote('\n'));
+        assertEquals(CSVFormat.DEFAULT.withDelimiter(';'), CSVFormat.DEFAULT.withDelimiter(';'));
+    }
+
+    @Test
+    void streamsRowsLazily() throws Exception {
+        CSVReader reader = CSVReader.fromString("a,b\n1,2\n3,\"4\"x\n");
+        try (Stream<List<String>> rows = reader.rows()) {
+            assertEquals(List.of(List.of("a", "b"), List.of("1", "2")), rows.limit(2).collect(Collectors.toList()));
+        }
+        try (Stream<List<String>> rows = CSVReader.fromString("a\n\"b\"c\n").rows()) {
+            UncheckedCSVFormatException e = assertThrows(UncheckedCSVFormatException.class, () -> rows.count());
+            assertEquals("Illegal CSV Format at char 4, line 2, column 4.", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    void selectsColumnsAndFiltersRows() throws Exception {
+        String csv = "id,name,city\n1,\"Ann, Jr\",Oslo\n2,Bob,Bergen\n3,\"Oslo\",Oslo\n4,Eve\n";
+        Path file = Files.createTempFile("projection", ".csv");
+        try {
+            Files.writeString(file, csv);
+            for (CSVReader reader : List.of(CSVReader.fromString(csv), CSVReader.fromPath(file))) {
+                try (reader) {
+                    reader.select("city", "name").where(2, "Oslo");
+                    assertEquals(List.of("Oslo", "Ann, Jr"), reader.nextRow());
+                    assertEquals(List.of("Oslo", "Oslo"), reader.nextRow());
+                    assertNull(reader.nextRow());
+                }
+            }
+            try (CSVReader reader = CSVReader.fromPath(file).select(0, 2).whereStartsWith(1, "B")) {
+                RowBuffer row = new RowBuffer();
+                assertTrue(reader.nextRow(row));
+                assertEquals("[2, Bergen]", row.toString());
+                assertFalse(reader.nextRow(row));
+            }
+            try (CSVReader reader = CSVReader.fromString(csv).select(1, 2).where(0, "4")) {
+                assertEquals(List.of("Eve", ""), reader.nextRow());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void prefetchesSlowStreams() throws Exception {
+        PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out);
+        Thread producer = new Thread(() -> {
+            try (out) {
+                for (int i = 0; i < 1000; i++) {
+                    out.write((i + ",\"a\nb\"\n").getBytes(StandardCharsets.UTF_8));
+                    if (i % 100 == 0) {
+                        out.flush();
+                        Thread.sleep(5);
+                    }
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        producer.start();
+        try (CSVReader reader = CSVReader.fromInputStream(in, StandardCharsets.UTF_8, 64, 3)) {
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(List.of(Integer.toString(i), "a\nb"), reader.nextRow());
+            }
+            assertNull(reader.nextRow());
+        }
+        producer.join();
+
+        Path csv = Files.createTempFile("prefetch", ".csv");
+        try {
+            Files.writeString(csv, "x,y\n1,2");
+            try (CSVReader reader = CSVReader.fromFile(csv.toFile(), StandardCharsets.UTF_8, 1 << 20, 2)) {
+                assertEquals(List.of("x", "y"), reader.nextRow());
+                assertEquals(List.of("1", "2"), reader.nextRow());
+                assertNull(reader.nextRow());
+            }
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void countsRowsFieldsAndErrors() throws Exception {
+        String csv = "a,\"b\",c\n\"x,y\",2\n\n\"bad\"x\n";
+        List<Long> progress = new ArrayList<>();
+        List<IllegalCSVFormatException> errors = new ArrayList<>();
+        CSVMetrics.Listener listener = new CSVMetrics.Listener() {
+            @Override
+            public void onProgress(CSVMetrics metrics) {
+                progress.add(metrics.getRows());
+            }
+
+            @Override
+            public void onError(CSVMetrics metrics, IllegalCSVFormatException e) {
+                errors.add(e);
+            }
+        };
+        CSVMetrics metrics = new CSVMetrics().withListener(listener, 2);
+        try (CSVReader reader = CSVReader.fromString(csv).withMetrics(metrics)) {
+            assertSame(metrics, reader.metrics());
+            reader.nextRow();
+            reader.nextRow();
+            reader.nextRow();
+            assertThrows(IllegalCSVFormatException.class, reader::nextRow);
+        }
+        assertEquals(3, metrics.getRows());
+        assertEquals(6, metrics.getFields());
+        assertEquals(2, metrics.getQuotedFields());
+        assertEquals(3, metrics.getMaxRowWidth());
+        assertEquals(1, metrics.getErrors());
+        assertEquals(1, errors.size());
+        assertEquals(List.of(2L), progress);
+        assertTrue(metrics.getChars() > 0);
+
+        Path file = Files.createTempFile("metrics", ".csv");
+        try {
+            Files.writeString(file, csv.substring(0, csv.indexOf("\"bad")));
+            CSVMetrics mapped = new CSVMetrics(false);
+            try (CSVReader reader = CSVReader.fromPath(file).withMetrics(mapped)) {
+                while (reader.nextRow() != null) {
+                }
+            }
+            assertEquals(3, mapped.getRows());
+            assertEquals(6, mapped.getFields());
+            assertEquals(2.0 / 6, mapped.getQuotedFieldRatio(), 1e-9);
+            assertEquals(Files.size(file), mapped.getBytes());
+            assertEquals(0, mapped.getParseNanos());
+        } finally {
+            Files.delete(file);
+        }
+
+        ObjectName name = metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(3L, server.getAttribute(name, "Rows"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0, metrics.getRows());
+        } finally {
+            CSVMetrics.unregister(name);
+        }
+    }
+
+    @Test
+    void appliesAResetAtTheNextRow() throws Exception {
+        CSVMetrics metrics = new CSVMetrics();
+        try (CSVReader reader = CSVReader.fromString("a,b\nc,d\ne\n").withMetrics(metrics)) {
+            reader.nextRow();
+            reader.nextRow();
+            Thread jmx = new Thread(metrics::reset);
+            jmx.start();
+            jmx.join();
+            assertEquals(0, metrics.getRows());
+            assertEquals(0, metrics.getChars());
+            reader.nextRow();
+            assertEquals(1, metrics.getRows());
+            assertEquals(1, metrics.getFields());
+            assertEquals(1, metrics.getMaxRowWidth());
+            assertEquals(2, metrics.getChars());
+            assertTrue(metrics.getParseNanos() >= 0);
+        }
+    }
+
+    @Test
+    void skipsAndCollectsBadRecords() throws Exception {
+        String csv = "a,b\n\"x\ny\",1\n\"b\nad\"x,\"q\nr\"\n3,4\n5,\"6\"z\n7,8";
+        List<List<String>> good = List.of(List.of("a", "b"), List.of("x\ny", "1"), List.of("3", "4"), List.of("7", "8"));
+        Path file = Files.createTempFile("bad", ".csv");
+        try {
+            Files.writeString(file, csv);
+            for (boolean mapped : new boolean[]{false, true}) {
+                List<CSVBadRecord> handled = new ArrayList<>();
+                try (CSVReader reader = (mapped ? CSVReader.fromPath(file) : CSVReader.fromString(csv))
+                        .withErrorPolicy(CSVReader.ErrorPolicy.COLLECT, 1).withErrorHandler(handled::add)) {
+                    List<List<String>> rows = new ArrayList<>();
+                    List<String> row;
+                    while ((row = reader.nextRow()) != null) {
+                        rows.add(row);
+                    }
+                    assertEquals(good, rows);
+                    assertEquals(2, reader.getBadRecordCount());
+                    assertEquals(1, reader.getBadRecords().size());
+                    CSVBadRecord bad = reader.getBadRecords().get(0);
+                    assertEquals(4, bad.getLine());
+                    assertEquals(csv.indexOf("\"b\n"), bad.getOffset());
+                    assertEquals(mapped ? "\"b\nad\"x,\"q\nr\"" : "b\nadx,\"q\nr\"", bad.getText());
+                    assertEquals("Illegal CSV Format at char 7, line 5, column 4.", bad.getException().getMessage());
+                    assertEquals(2, handled.size());
+                    assertEquals(8, handled.get(1).getLine());
+                    assertEquals(mapped ? "5,\"6\"z" : "5,6z", handled.get(1).getText());
+                }
+            }
+            try (CSVReader reader = CSVReader.fromPath(file).withErrorPolicy(CSVReader.ErrorPolicy.SKIP);
+                    Stream<List<String>> rows = reader.rows()) {
+                assertEquals(good, rows.collect(Collectors.toList()));
+                assertTrue(reader.getBadRecords().isEmpty());
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void collectsTheSameColumnsFromBothEngines() throws Exception {
+        String csv = "ok\n\ud83d\ude00,\"b\"x\n\u00e9\ud83d\ude00\u20ac,\"\ud83d\ude00\"y\nend\n";
+        Path file = Files.createTempFile("columns", ".csv");
+        try {
+            Files.writeString(file, csv, StandardCharsets.UTF_8);
+            List<List<Long>> columns = new ArrayList<>();
+            for (boolean mapped : new boolean[]{false, true}) {
+                try (CSVReader reader = (mapped ? CSVReader.fromPath(file) : CSVReader.fromString(csv))
+                        .withErrorPolicy(CSVReader.ErrorPolicy.COLLECT)) {
+                    while (reader.nextRow() != null) {
+                        // collect the bad records
+                    }
+                    List<Long> found = new ArrayList<>();
+                    for (CSVBadRecord bad : reader.getBadRecords()) {
+                        found.add(bad.getLine());
+                        found.add(bad.getException().getColumn());
+                    }
+                    columns.add(found);
+                }
+            }
+            assertEquals(List.of(2L, 7L, 3L, 10L), columns.get(0));
+            assertEquals(columns.get(0), columns.get(1));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void readsRecordsByColumnName() throws Exception {
+        try (CSVReader reader = CSVReader.fromString("id,name,id\n1,ann,x\n2\n")) {
+            CSVRecord first = reader.nextRecord();
+            CSVHeader header = reader.getHeader();
+            assertEquals(List.of("id", "name", "id"), header.getNames());
+            assertEquals(0, header.indexOf("id"));
+            assertEquals(1, header.indexOf(new String("name")));
+            assertEquals(-1, header.indexOf("age"));
+            assertSame(header, first.getHeader());
+            assertEquals("ann", first.get("name"));
+            assertEquals("1", first.get("id"));
+            assertEquals("x", first.get(2));
+            assertThrows(IllegalArgumentException.class, () -> first.get("age"));
+            CSVRecord second = reader.nextRecord();
+            assertSame(header, second.getHeader());
+            assertEquals("", second.get("name"));
+            assertEquals(1, second.size());
+            assertNull(reader.nextRecord());
+        }
+        try (CSVReader reader = CSVReader.fromString("a,b,c\n1,2,3\n").select("c", "a")) {
+            CSVRecord record = reader.nextRecord();
+            assertEquals(List.of("3", "1"), record.toList());
+            assertEquals("1", record.get("a"));
+            assertFalse(record.isMapped("b"));
+            assertEquals(List.of("a", "b", "c"), reader.getHeader().getNames());
+        }
+        StringBuilder names = new StringBuilder("c0");
+        for (int i = 1; i < 500; i++) {
+            names.append(",c").append(i);
+        }
+        CSVHeader wide = CSVHeader.of(names.toString().split(","));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, wide.indexOf("c" + i));
+        }
+    }
+
+    @Test
+    void cachesStringsOfLowCardinalityColumns() throws Exception {
+        String csv = "id,country\n1,US\n2,FR\n3,US\n";
+        Path file = Files.createTempFile("cache", ".csv");
+        try {
+            Files.writeString(file, csv);
+            for (boolean mapped : new boolean[]{false, true}) {
+                try (CSVReader reader = (mapped ? CSVReader.fromPath(file) : CSVReader.fromString(csv))
+                        .withStringCache(16, "country")) {
+                    CSVRecord a = reader.nextRecord();
+                    reader.nextRecord();
+                    CSVRecord c = reader.nextRecord();
+                    assertEquals("US", c.get("country"));
+                    assertSame(a.get("country"), c.get("country"));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
 }
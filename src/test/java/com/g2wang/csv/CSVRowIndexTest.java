@@ -0,0 +1,135 @@
+package com.g2wang.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVRowIndexTest {
+
+    private static String rows(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            sb.append(i).append(',').append(i % 3 == 0 ? "\"multi\nline, \"\"quoted\"\"\"" : "plain").append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void opensAtAnyRow() throws Exception {
+        Path csv = Files.createTempFile("index", ".csv");
+        Path sidecar = CSVRowIndex.sidecar(csv);
+        try {
+            Files.writeString(csv, rows(0, 1000), StandardCharsets.UTF_8);
+            CSVRowIndex index = CSVRowIndex.build(csv, CSVFormat.DEFAULT, 7);
+            assertTrue(Files.exists(sidecar));
+            assertEquals(1000, index.getRowCount());
+            List<List<String>> all = TestFiles.readAll(csv);
+            for (int row : new int[]{0, 1, 6, 7, 8, 500, 999}) {
+                try (CSVReader reader = index.openAt(row)) {
+                    assertEquals(all.get(row), reader.nextRow());
+                }
+            }
+            try (CSVReader reader = index.openAt(1000)) {
+                assertNull(reader.nextRow());
+            }
+
+            // an appended file is indexed from where the last scan stopped
+            Files.writeString(csv, rows(1000, 1500) + "1500,last", StandardOpenOption.APPEND);
+            index = CSVRowIndex.build(csv, CSVFormat.DEFAULT, 7);
+            assertEquals(1501, index.getRowCount());
+            try (CSVReader reader = index.openAt(1500)) {
+                assertEquals(List.of("1500", "last"), reader.nextRow());
+            }
+            try (CSVReader reader = CSVReader.fromPath(csv)) {
+                assertEquals(List.of("1234", "plain"), reader.seekToRow(1234).nextRow());
+                assertEquals(List.of("3", "multi\nline, \"quoted\""), reader.seekToRow(3).nextRow());
+            }
+
+            // the rows skipped by a seek follow the error policy
+            StringBuilder bad = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                bad.append(i).append(i == 5 ? ",\"bad\"x\n" : ",x\n");
+            }
+            Files.writeString(csv, bad, StandardCharsets.UTF_8);
+            try (CSVReader reader = CSVReader.fromPath(csv).withErrorPolicy(CSVReader.ErrorPolicy.SKIP)) {
+                assertEquals(List.of("10", "x"), reader.seekToRow(10).nextRow());
+            }
+            try (CSVReader reader = CSVReader.fromPath(csv)) {
+                assertThrows(IllegalCSVFormatException.class, () -> reader.seekToRow(10));
+            }
+
+            // a rewritten file is indexed again from the start
+            Files.writeString(csv, rows(0, 10).replace("plain", "changed"), StandardCharsets.UTF_8);
+            index = CSVRowIndex.build(csv, CSVFormat.DEFAULT, 7);
+            assertEquals(10, index.getRowCount());
+            try (CSVReader reader = index.openAt(8)) {
+                assertEquals(List.of("8", "changed"), reader.nextRow());
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void buildsTheSameFileFromSeveralThreads() throws Exception {
+        Path dir = Files.createTempDirectory("index");
+        Path csv = dir.resolve("rows.csv");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Files.writeString(csv, rows(0, 20000), StandardCharsets.UTF_8);
+            for (int round = 0; round < 5; round++) {
+                Files.deleteIfExists(CSVRowIndex.sidecar(csv));
+                List<Future<CSVRowIndex>> builds = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    builds.add(pool.submit(() -> CSVRowIndex.build(csv, CSVFormat.DEFAULT, 7)));
+                }
+                for (Future<CSVRowIndex> build : builds) {
+                    assertEquals(20000, build.get().getRowCount());
+                }
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                // no temporary file is left behind
+                assertEquals(2, files.count());
+            }
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(CSVRowIndex.sidecar(csv));
+            Files.deleteIfExists(csv);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void seesAnEditWhichKeepsTheLength() throws Exception {
+        Path csv = Files.createTempFile("index", ".csv");
+        Path sidecar = CSVRowIndex.sidecar(csv);
+        try {
+            String text = rows(0, 3000);
+            Files.writeString(csv, text, StandardCharsets.UTF_8);
+            try (CSVReader reader = CSVReader.fromPath(csv)) {
+                assertEquals(List.of("2048", "plain"), reader.seekToRow(2048).nextRow());
+
+                // a newline moves into row 1, far before the last bytes indexed
+                Files.writeString(csv, text.replaceFirst("1,plain\n", "1,pl\nin\n"), StandardCharsets.UTF_8);
+                Files.setLastModifiedTime(csv, FileTime.fromMillis(Files.getLastModifiedTime(csv).toMillis() + 2000));
+                assertEquals(3001, CSVRowIndex.build(csv).getRowCount());
+                assertEquals(List.of("2048", "plain"), reader.seekToRow(2049).nextRow());
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(csv);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.g2wang.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVSnapshotTest {
+
+    private static String rows(int count, String text) {
+        StringBuilder sb = new StringBuilder("id,kind,text\n");
+        for (int i = 0; i < count; i++) {
+            sb.append(i).append(',').append(i % 3 == 0 ? "odd" : "even");
+            if (i % 10 != 9) {
+                sb.append(',').append(i % 4 == 0 ? "\"multi\nline, \u20ac\"" : text + i);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void servesRowsAndColumnsWithoutParsing() throws Exception {
+        Path csv = Files.createTempFile("snapshot", ".csv");
+        Path sidecar = CSVSnapshot.sidecar(csv);
+        try {
+            Files.writeString(csv, rows(1000, "plain"), StandardCharsets.UTF_8);
+            List<List<String>> all = TestFiles.readAll(csv);
+            try (CSVSnapshot snapshot = CSVSnapshot.open(csv, StandardCharsets.UTF_8, CSVFormat.DEFAULT, 64)) {
+                assertTrue(Files.exists(sidecar));
+                assertEquals(all.size(), snapshot.getRowCount());
+                assertEquals(3, snapshot.getColumnCount());
+                assertEquals(16, snapshot.getRowGroupCount());
+                assertEquals(all, snapshot.rows().collect(Collectors.toList()));
+                assertEquals(all.get(500), snapshot.getRow(500));
+                assertEquals(all.get(3), snapshot.getRow(3));
+                assertEquals("", snapshot.get(10, 2));
+                String[] kinds = snapshot.readColumn(2, 1);
+                assertEquals(64, kinds.length);
+                for (int r = 0; r < kinds.length; r++) {
+                    assertEquals(all.get(128 + r).get(1), kinds[r]);
+                }
+            }
+
+            // a touched file keeps its sidecar
+            byte[] built = Files.readAllBytes(sidecar);
+            Files.setLastModifiedTime(csv, FileTime.fromMillis(System.currentTimeMillis() + 60000));
+            try (CSVSnapshot snapshot = CSVSnapshot.open(csv, StandardCharsets.UTF_8, CSVFormat.DEFAULT, 16)) {
+                assertEquals(16, snapshot.getRowGroupCount());
+            }
+            assertEquals(built.length, Files.size(sidecar));
+
+            // a changed file of the same size is parsed again
+            Files.writeString(csv, rows(1000, "PLAIN"), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(csv, FileTime.fromMillis(System.currentTimeMillis() + 120000));
+            try (CSVSnapshot snapshot = CSVSnapshot.open(csv)) {
+                assertEquals(1, snapshot.getRowGroupCount());
+                assertEquals(List.of("2", "even", "PLAIN2"), snapshot.getRow(3));
+            }
+
+            // and so is a file parsed with another format
+            try (CSVSnapshot snapshot = CSVSnapshot.open(csv, StandardCharsets.UTF_8,
+                    CSVFormat.DEFAULT.withDelimiter(';'), 64)) {
+                assertEquals(1, snapshot.getColumnCount());
+            }
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(csv);
+        }
+    }
+
+    @Test
+    void opensTheSameFileFromSeveralThreads() throws Exception {
+        Path dir = Files.createTempDirectory("snapshot");
+        Path csv = dir.resolve("rows.csv");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Files.writeString(csv, rows(2000, "plain"), StandardCharsets.UTF_8);
+            for (int round = 0; round < 5; round++) {
+                Files.deleteIfExists(CSVSnapshot.sidecar(csv));
+                List<Future<Long>> opens = new ArrayList<>();
+                for (int t = 0; t < 4; t++) {
+                    opens.add(pool.submit(() -> {
+                        try (CSVSnapshot snapshot = CSVSnapshot.open(csv)) {
+                            return snapshot.getRowCount();
+                        }
+                    }));
+                }
+                for (Future<Long> open : opens) {
+                    assertEquals(2001, (long) open.get());
+                }
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                // no temporary file is left behind
+                assertEquals(2, files.count());
+            }
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(CSVSnapshot.sidecar(csv));
+            Files.deleteIfExists(csv);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.g2wang.csv;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CSVSorterTest {
+
+    @Test
+    void sortsLargerThanMemoryStablyAndDistinct() throws Exception {
+        Path dir = Files.createTempDirectory("sorter");
+        Path input = dir.resolve("in.csv");
+        Path output = dir.resolve("out.csv");
+        Path runs = Files.createDirectory(dir.resolve("runs"));
+        try {
+            Random random = new Random(42);
+            List<List<String>> rows = new ArrayList<>();
+            StringBuilder csv = new StringBuilder("key,n,seq,text\n");
+            for (int i = 0; i < 60000; i++) {
+                List<String> row = List.of("k" + random.nextInt(500), Integer.toString(random.nextInt(2000) - 1000),
+                        Integer.toString(i), i % 5 == 0 ? "multi\nline, \"\u20ac\"" : "plain");
+                rows.add(row);
+                csv.append(row.get(0)).append(',').append(row.get(1)).append(',').append(row.get(2)).append(',')
+                        .append(i % 5 == 0 ? "\"multi\nline, \"\"\u20ac\"\"\"" : "plain").append('\n');
+            }
+            Files.writeString(input, csv, StandardCharsets.UTF_8);
+            Comparator<List<String>> order = Comparator.<List<String>, String>comparing(r -> r.get(0))
+                    .thenComparing(r -> Integer.parseInt(r.get(1)), Comparator.reverseOrder());
+
+            CSVSorter sorter = CSVSorter.by(0).thenBy(1, CSVSorter.FieldComparator.NUMERIC.reversed())
+                    .withHeader(true).withMemoryLimit(1024 * 1024).withThreads(2).withTempDirectory(runs)
+                    .withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"), StandardCharsets.UTF_8);
+            assertEquals(rows.size(), sorter.sort(input, output));
+            List<List<String>> sorted = TestFiles.readAll(output);
+            assertEquals(List.of("key", "n", "seq", "text"), sorted.remove(0));
+            // List.sort is stable too
+            List<List<String>> expected = new ArrayList<>(rows);
+            expected.sort(order);
+            assertEquals(expected, sorted);
+            try (Stream<Path> files = Files.list(runs)) {
+                assertEquals(0, files.count());
+            }
+
+            Map<List<String>, List<String>> firsts = new LinkedHashMap<>();
+            for (List<String> row : expected) {
+                firsts.putIfAbsent(List.of(row.get(0), row.get(1)), row);
+            }
+            assertEquals(firsts.size(), sorter.withDistinct(true).sort(input, output));
+            sorted = TestFiles.readAll(output);
+            sorted.remove(0);
+            assertEquals(new ArrayList<>(firsts.values()), sorted);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                for (Path p : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    @Test
+    void sortsInMemoryAndComparesNumbers() throws Exception {
+        String csv = "10\n-2.5\n3\nx\n003.0\n-0\n0.0\n\n-10\n2.50\n";
+        StringWriter out = new StringWriter();
+        try (CSVReader reader = CSVReader.fromString(csv);
+                CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            assertEquals(10, CSVSorter.by(0, CSVSorter.FieldComparator.NUMERIC).sort(reader, writer));
+        }
+        assertEquals("-10\n-2.5\n-0\n0.0\n2.50\n3\n003.0\n10\n\nx\n", out.toString());
+    }
+
+    @Test
+    void boundsTheRunsOfALargeMemoryLimit() {
+        assertEquals(1024 * 1024, CSVSorter.runBudget(4L * 1024 * 1024, 3));
+        // the chars of a run are one array
+        assertEquals(CSVSorter.MAX_RUN_BYTES, CSVSorter.runBudget(64L << 30, 1));
+        assertTrue(CSVSorter.MAX_RUN_BYTES / 2 <= Integer.MAX_VALUE);
+    }
+}
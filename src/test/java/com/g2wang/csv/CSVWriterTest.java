@@ -1,7 +1,193 @@
 package com.g2wang.csv;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CSVWriterTest {
 
+    @Test
+    void quotesFieldsWhenNeeded() throws Exception {
+        StringWriter out = new StringWriter();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.write(new String[]{"a", "b,c", "say \"hi\"", "it's", ""});
+            writer.write(Arrays.asList("multi\nline", "x"));
+        }
+        assertEquals("a,\"b,c\",\"say \"\"hi\"\"\",\"it's\",\n\"multi\nline\",x\n", out.toString());
+    }
+
+    @Test
+    void writesWithFormat() throws Exception {
+        StringWriter out = new StringWriter();
+        CSVFormat format = CSVFormat.DEFAULT.withDelimiter(';').withQuote('\'').withLineSeparator("\r\n");
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(format)) {
+            writer.write(new String[]{"a,b", "c;d", "e'f"});
+        }
+        assertEquals("a,b;'c;d';'e''f'\r\n", out.toString());
+    }
+
+    @Test
+    void writesCharSequencesAndSuppliedFields() throws Exception {
+        StringWriter out = new StringWriter();
+        StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            big.append(i % 100 == 0 ? '"' : 'x');
+        }
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.write(new CharSequence[]{new StringBuilder("a,b"), "c"});
+            writer.write(3, i -> i == 1 ? null : String.valueOf(i));
+            writer.write(new String[]{big.toString()});
+        }
+        try (CSVReader reader = CSVReader.fromString(out.toString())) {
+            assertEquals(Arrays.asList("a,b", "c"), reader.nextRow());
+            assertEquals(Arrays.asList("0", "null", "2"), reader.nextRow());
+            assertEquals(Arrays.asList(big.toString()), reader.nextRow());
+            assertNull(reader.nextRow());
+        }
+    }
+
+    @Test
+    void dropsARowWhoseFieldFails() throws Exception {
+        StringWriter out = new StringWriter();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.write(new String[]{"a", "b"});
+            assertThrows(IllegalStateException.class, () -> writer.write(3, i -> {
+                if (i == 2) {
+                    throw new IllegalStateException("no field " + i);
+                }
+                return "f" + i;
+            }));
+            Iterable<String> failing = Stream.of("g", "h").map(f -> {
+                if (f.equals("h")) {
+                    throw new IllegalStateException("no field " + f);
+                }
+                return f;
+            })::iterator;
+            assertThrows(IllegalStateException.class, () -> writer.write(failing));
+            writer.write(new String[]{"ok1", "ok2"});
+        }
+        assertEquals("a,b\nok1,ok2\n", out.toString());
+    }
+
+    @Test
+    void encodesToChannels() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            sb.append(i % 3 == 0 ? "\u00e9" : i % 3 == 1 ? "\u20ac" : "\ud83d\ude00");
+        }
+        String text = sb.toString();
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16LE}) {
+            Path csv = Files.createTempFile("channel", ".csv");
+            try {
+                try (CSVWriter writer = CSVWriter.toPath(csv, charset, true).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+                    writer.write(new String[]{"a,b", text});
+                }
+                String expected = "\"a,b\"," + text + "\n";
+                assertEquals(new String(expected.getBytes(charset), charset), Files.readString(csv, charset));
+            } finally {
+                Files.delete(csv);
+            }
+        }
+        // a pair across the flush of the 64K chars of the writer
+        String split = "x".repeat(64 * 1024 - 1) + "\ud83d\ude00y";
+        for (Charset charset : new Charset[]{StandardCharsets.UTF_8, StandardCharsets.UTF_16, Charset.forName("GB18030")}) {
+            Path csv = Files.createTempFile("channel", ".csv");
+            try {
+                try (CSVWriter writer = CSVWriter.toPath(csv, charset).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+                    writer.write(new String[]{split});
+                }
+                assertEquals(split + "\n", Files.readString(csv, charset), charset.name());
+            } finally {
+                Files.delete(csv);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CSVWriter writer = CSVWriter.toChannel(Channels.newChannel(bytes))) {
+            writer.write(new String[]{"x", "\ud83d\ude00"});
+        }
+        assertEquals("x,\ud83d\ude00" + System.lineSeparator(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compressesAndDecompressesByFileName() throws Exception {
+        Path dir = Files.createTempDirectory("compressed");
+        try {
+            for (String name : new String[]{"rows.csv.gz", "rows.csv.zz", "rows.csv.zip", "rows.csv"}) {
+                File file = dir.resolve(name).toFile();
+                try (CSVWriter writer = CSVWriter.toFile(file, StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < 100000; i++) {
+                        writer.write(new String[]{Integer.toString(i), "multi\nline, \u20ac"});
+                    }
+                }
+                try (CSVReader reader = CSVReader.fromFile(file, StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < 100000; i++) {
+                        assertEquals(List.of(Integer.toString(i), "multi\nline, \u20ac"), reader.nextRow(), name);
+                    }
+                    assertNull(reader.nextRow());
+                }
+            }
+            Path broken = dir.resolve("broken.csv.gz");
+            Files.writeString(broken, "not gzip");
+            try (CSVReader reader = CSVReader.fromFile(broken.toFile())) {
+                assertThrows(IOException.class, reader::nextRow);
+            }
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.collect(Collectors.toList())) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void countsWrittenRows() throws Exception {
+        StringWriter out = new StringWriter();
+        CSVMetrics metrics = new CSVMetrics();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withMetrics(metrics)) {
+            writer.write(new String[]{"a", "b,c"});
+            writer.write(List.of("1", "2", "\"3\""));
+        }
+        assertEquals(2, metrics.getRows());
+        assertEquals(5, metrics.getFields());
+        assertEquals(2, metrics.getQuotedFields());
+        assertEquals(3, metrics.getMaxRowWidth());
+        assertEquals(out.toString().length(), metrics.getChars());
+    }
+
+    @Test
+    void writesHeaderAndRecords() throws Exception {
+        String csv = "id,name\n1,\"a,b\"\n2,c\n";
+        StringWriter out = new StringWriter();
+        try (CSVReader reader = CSVReader.fromString(csv);
+                CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.writeHeader(reader.readHeader());
+            CSVRecord record;
+            while ((record = reader.nextRecord()) != null) {
+                writer.write(record);
+            }
+        }
+        assertEquals(csv, out.toString());
+
+        out = new StringWriter();
+        try (CSVWriter writer = CSVWriter.toStringWriter(out).withFormat(CSVFormat.DEFAULT.withLineSeparator("\n"))) {
+            writer.writeHeader(CSVHeader.of("name", "age", "id"));
+            writer.write(CSVRecord.of(CSVHeader.of("id", "name"), List.of("1", "ann")));
+        }
+        assertEquals("name,age,id\nann,,1\n", out.toString());
+    }
 }
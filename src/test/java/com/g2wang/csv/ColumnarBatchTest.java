@@ -0,0 +1,116 @@
+package com.g2wang.csv;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarBatchTest {
+
+    private static final CSVSchema SCHEMA = CSVSchema.of(CSVSchema.Type.INT, CSVSchema.Type.LONG,
+            CSVSchema.Type.DOUBLE, CSVSchema.Type.BOOLEAN, CSVSchema.Type.DATE, CSVSchema.Type.STRING);
+
+    @Test
+    void readsTypedColumns() throws Exception {
+        String csv = "-2147483648,9223372036854775807,1.5e3,TRUE,2021-11-01,\"a,b\"\n"
+                + ",,,,,\n"
+                + "7,-1,0.1,false,0000-02-29,\"a,b\"\n";
+        Path file = Files.createTempFile("batch", ".csv");
+        try {
+            Files.writeString(file, csv);
+            for (CSVReader reader : List.of(CSVReader.fromString(csv), CSVReader.fromPath(file))) {
+                try (reader) {
+                    ColumnarBatch batch = new ColumnarBatch(2);
+                    assertEquals(2, reader.readBatch(SCHEMA, batch));
+                    assertEquals(Integer.MIN_VALUE, batch.getInt(0, 0));
+                    assertEquals(Long.MAX_VALUE, batch.getLong(1, 0));
+                    assertEquals(1500.0, batch.getDouble(2, 0));
+                    assertTrue(batch.getBoolean(3, 0));
+                    assertEquals(LocalDate.of(2021, 11, 1), batch.getDate(4, 0));
+                    assertEquals("a,b", batch.getString(5, 0));
+                    for (int c = 0; c < SCHEMA.size(); c++) {
+                        assertFalse(batch.isNull(c, 0));
+                        assertTrue(batch.isNull(c, 1));
+                    }
+                    assertNull(batch.getString(5, 1));
+
+                    assertEquals(1, reader.readBatch(SCHEMA, batch));
+                    assertEquals(0.1, batch.getDouble(2, 0));
+                    assertEquals(LocalDate.of(0, 2, 29), batch.getDate(4, 0));
+                    assertArrayEquals(new String[]{"a,b"}, batch.getDictionary(5));
+                    assertEquals(0, reader.readBatch(SCHEMA, batch));
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void parsesDoublesLikeDoubleParseDouble() {
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            String s = switch (random.nextInt(4)) {
+                case 0 ->
+                    Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+                case 1 ->
+                    (random.nextInt(2000000) - 1000000) + "." + random.nextInt(100000);
+                case 2 ->
+                    random.nextInt(1000) + "e" + (random.nextInt(60) - 30);
+                default ->
+                    Long.toString(random.nextLong());
+            };
+            char[] chars = s.toCharArray();
+            assertEquals(Double.parseDouble(s), FieldParsers.parseDouble(chars, 0, chars.length), s);
+        }
+        // taken by Double.parseDouble, but not by parseLong
+        for (String s : new String[]{" 1.5 ", "1.5\t", " 2", "2f", "1e3d", "0.5D", "", "-"}) {
+            char[] chars = s.toCharArray();
+            assertThrows(NumberFormatException.class, () -> FieldParsers.parseDouble(chars, 0, chars.length));
+        }
+        for (String s : new String[]{"NaN", "-Infinity", "1e400", ".5", "5."}) {
+            char[] chars = s.toCharArray();
+            assertEquals(Double.parseDouble(s), FieldParsers.parseDouble(chars, 0, chars.length), s);
+        }
+    }
+
+    @Test
+    void parsesFloatsLikeFloatParseFloat() {
+        Random random = new Random(13);
+        for (int i = 0; i < 100000; i++) {
+            String s = switch (random.nextInt(4)) {
+                case 0 ->
+                    Float.toString(random.nextFloat() * (float) Math.pow(10, random.nextInt(20) - 10));
+                case 1 ->
+                    (random.nextInt(2000) - 1000) + "." + random.nextInt(10000);
+                case 2 ->
+                    random.nextInt(1000) + "e" + (random.nextInt(30) - 15);
+                default ->
+                    Double.toString(random.nextDouble());
+            };
+            char[] chars = s.toCharArray();
+            assertEquals(Float.parseFloat(s), FieldParsers.parseFloat(chars, 0, chars.length), s);
+        }
+        // rounded to a double first, this would round up to 1.0000002
+        char[] chars = "1.00000017881393432617187499".toCharArray();
+        assertEquals(1.0000001f, FieldParsers.parseFloat(chars, 0, chars.length));
+    }
+
+    @Test
+    void rejectsMalformedFields() throws Exception {
+        ColumnarBatch batch = new ColumnarBatch(8);
+        try (CSVReader reader = CSVReader.fromString("1\n2147483648\n")) {
+            NumberFormatException e = assertThrows(NumberFormatException.class,
+                    () -> reader.readBatch(CSVSchema.of(CSVSchema.Type.INT), batch));
+            assertEquals("For input string: \"2147483648\" in column 0", e.getMessage());
+            assertEquals(1, batch.size());
+        }
+        try (CSVReader reader = CSVReader.fromString("2021-02-29\n")) {
+            assertThrows(NumberFormatException.class, () -> reader.readBatch(CSVSchema.of(CSVSchema.Type.DATE), batch));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.g2wang.csv;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StringCacheTest {
+
+    @Test
+    void returnsTheSameInstanceForEqualChars() {
+        StringCache cache = new StringCache(4);
+        char[] chars = "USD,EUR,USD".toCharArray();
+        String usd = cache.get(chars, 0, 3);
+        assertEquals("USD", usd);
+        assertEquals("EUR", cache.get(chars, 4, 7));
+        assertSame(usd, cache.get(chars, 8, 11));
+        assertEquals(2, cache.size());
+        char[] longValue = new char[StringCache.MAX_LENGTH + 1];
+        assertNotSame(cache.get(longValue, 0, longValue.length), cache.get(longValue, 0, longValue.length));
+    }
+
+    @Test
+    void keepsRecurringValuesWhenFull() {
+        StringCache cache = new StringCache(8);
+        char[] hot = "hot".toCharArray();
+        String first = cache.get(hot, 0, 3);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            char[] value = Integer.toString(random.nextInt(50)).toCharArray();
+            assertEquals(new String(value), cache.get(value, 0, value.length));
+            assertSame(first, cache.get(hot, 0, 3));
+        }
+        assertEquals(8, cache.size());
+    }
+}
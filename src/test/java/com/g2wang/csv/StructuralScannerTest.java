@@ -0,0 +1,45 @@
+package com.g2wang.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StructuralScannerTest {
+
+    private static final byte[] SAMPLE = "id;\"name\"\r\n7;\"caf\u00e9 \"\"x\"\"\";plain text\n;;\"\n\""
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static int[] index(StructuralScanner scanner, ByteBuffer buf, int from, int to) {
+        int[] index = new int[to - from];
+        int n = scanner.index(buf, from, to, (byte) ';', (byte) '"', index);
+        return Arrays.copyOf(index, n);
+    }
+
+    @Test
+    void scannersFindTheSameStructuralBytes() {
+        StructuralScanner scalar = StructuralScanner.create("scalar");
+        for (String name : new String[]{"swar", "vector"}) {
+            StructuralScanner scanner = StructuralScanner.create(name);
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                ByteBuffer buf = ByteBuffer.wrap(SAMPLE).order(order);
+                for (int from = 0; from < SAMPLE.length; from += 3) {
+                    for (int to = from; to <= SAMPLE.length; to += 5) {
+                        assertArrayEquals(index(scalar, buf, from, to), index(scanner, buf, from, to));
+                        assertEquals(scalar.count(buf, from, to, (byte) '"'), scanner.count(buf, from, to, (byte) '"'));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void vectorFallsBackWhenUnavailable() {
+        StructuralScanner scanner = StructuralScanner.create("vector");
+        boolean present = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+        assertEquals(present ? "VectorScanner" : "SwarScanner", scanner.getClass().getSimpleName());
+    }
+}
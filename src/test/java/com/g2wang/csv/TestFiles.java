@@ -0,0 +1,25 @@
+package com.g2wang.csv;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+final class TestFiles {
+
+    private TestFiles() {
+    }
+
+    /**
+     * @return every row of a UTF-8 CSV file, read with fromPath
+     */
+    static List<List<String>> readAll(Path csv) throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        try (CSVReader reader = CSVReader.fromPath(csv)) {
+            List<String> row;
+            while ((row = reader.nextRow()) != null) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+}